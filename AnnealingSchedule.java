@@ -0,0 +1,59 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Parameters of one simulated annealing chain.
+public class AnnealingSchedule {
+
+    // Temperature at the first iteration.
+    private final double initialTemperature;
+    // Factor applied to the temperature after every iteration.
+    private final double coolingRate;
+    // Maximum number of iterations.
+    private final int iterations;
+    // The chain stops after this many iterations in a row without improving its best score.
+    private final int patience;
+
+    public AnnealingSchedule(double initialTemperature, double coolingRate, int iterations, int patience) {
+        if (initialTemperature <= 0 || coolingRate <= 0 || coolingRate > 1) {
+            throw new IllegalArgumentException("Expected a positive temperature and a cooling rate in (0, 1]");
+        }
+        this.initialTemperature = initialTemperature;
+        this.coolingRate = coolingRate;
+        this.iterations = iterations;
+        this.patience = patience;
+    }
+
+    // Creates one schedule per chain, spreading the initial temperatures over a factor of 16 around the given one and
+    // alternating between the given cooling rate and a slower one, so the chains explore the search space differently.
+    public static List<AnnealingSchedule> spread(int chains, double initialTemperature, double coolingRate,
+                                                 int iterations, int patience) {
+        List<AnnealingSchedule> schedules = new ArrayList<>(chains);
+        for (int i = 0; i < chains; i++) {
+            double temperature = initialTemperature * Math.pow(2, (i % 5) - 2);
+            double cooling = i % 2 == 0 ? coolingRate : Math.sqrt(coolingRate);
+            schedules.add(new AnnealingSchedule(temperature, cooling, iterations, patience));
+        }
+        return schedules;
+    }
+
+    public double initialTemperature() {
+        return initialTemperature;
+    }
+
+    public double coolingRate() {
+        return coolingRate;
+    }
+
+    public int iterations() {
+        return iterations;
+    }
+
+    public int patience() {
+        return patience;
+    }
+
+    @Override
+    public String toString() {
+        return "T0=" + initialTemperature + ", cooling=" + coolingRate + ", iterations=" + iterations + ", patience=" + patience;
+    }
+}
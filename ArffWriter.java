@@ -0,0 +1,424 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+// Writes ARFF files. The header and the rows are encoded straight into one reusable 1 MB byte buffer, which is written
+// to a FileChannel (or to a gzip stream over the channel) only when it is full, so the cost is one system call per MB
+// instead of one per value. Numbers are formatted digit by digit into the buffer, without creating Strings.
+//
+// The attributes are declared first (which also tells the writer the type of every column), then writeData() starts the
+// data section and the rows follow, either as text fields (like the rows of CSVToARFFConverter.loadData) or as doubles.
+// Options:
+//   gzip    compresses the file (Weka reads .arff.gz files directly).
+//   sparse  writes the rows in sparse ARFF format, {index value, ...}, leaving out the zeros, which makes wide files with
+//           many zeros (e.g. nutrition indicators) much smaller.
+public class ArffWriter implements Closeable {
+
+    // Size of the output buffer (1 MB), which is also the buffer size of the gzip stream. Values are copied into it a byte
+    // at a time, flushing it when it is full, so a value can be longer than the buffer.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Number of decimal places of the numbers written from doubles, the same as Weka's ArffSaver.
+    public static final int DEFAULT_MAX_DECIMAL_PLACES = 6;
+
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L, 10000000000L, 100000000000L, 1000000000000L};
+
+    private final FileChannel channel;
+    // gzip stream over the channel, or null when the file is not compressed.
+    private final OutputStream gzip;
+    private final boolean sparse;
+    private final int maxDecimalPlaces;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    // Type of every declared attribute, and the values of the nominal ones (null for numeric attributes).
+    private final List<List<String>> nominalValues = new ArrayList<>();
+    private boolean inData;
+    // Number of text rows that didn't have one field per attribute.
+    private long raggedRows;
+
+    // Opens a file for writing (replacing it if it exists).
+    public ArffWriter(Path path, boolean gzip, boolean sparse) throws IOException {
+        this(path, gzip, sparse, DEFAULT_MAX_DECIMAL_PLACES);
+    }
+
+    public ArffWriter(Path path, boolean gzip, boolean sparse, int maxDecimalPlaces) throws IOException {
+        if (maxDecimalPlaces < 0 || maxDecimalPlaces >= POWERS_OF_TEN.length) {
+            throw new IllegalArgumentException("Expected between 0 and " + (POWERS_OF_TEN.length - 1) + " decimal places");
+        }
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.gzip = gzip ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE) : null;
+        this.sparse = sparse;
+        this.maxDecimalPlaces = maxDecimalPlaces;
+    }
+
+    // Opens a file for writing, compressed if its name ends with .gz.
+    public static ArffWriter open(Path path, boolean sparse) throws IOException {
+        return new ArffWriter(path, path.getFileName().toString().endsWith(".gz"), sparse);
+    }
+
+    // Writes a whole DataFrame: the relation, one attribute per column (nominal columns with the values of their
+    // dictionary, in order) and every row.
+    public static void write(DataFrame frame, String relationName, Path path, boolean sparse) throws IOException {
+        try (ArffWriter writer = open(path, sparse)) {
+            writer.writeRelation(relationName);
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (frame.isNominal(c)) {
+                    writer.writeNominalAttribute(frame.name(c), frame.dictionary(c).values());
+                } else {
+                    writer.writeNumericAttribute(frame.name(c));
+                }
+            }
+            writer.writeData();
+            writer.writeRows(frame, 0, frame.rowCount());
+        }
+    }
+
+    // Writes the @relation line.
+    public void writeRelation(String name) throws IOException {
+        writeAscii("@relation ");
+        writeText(name);
+        writeAscii("\n\n");
+    }
+
+    // Declares a numeric attribute. Spaces in the name are written as underscores, like CSVToARFFConverter always did.
+    public void writeNumericAttribute(String name) throws IOException {
+        checkHeader();
+        writeAscii("@attribute ");
+        writeName(name);
+        writeAscii(" numeric\n");
+        nominalValues.add(null);
+    }
+
+    // Declares a nominal attribute, with its values in single quotes.
+    public void writeNominalAttribute(String name, Collection<String> values) throws IOException {
+        checkHeader();
+        writeAscii("@attribute ");
+        writeName(name);
+        writeAscii(" {");
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                put((byte) ',');
+            }
+            writeQuoted(value);
+            first = false;
+        }
+        writeAscii("}\n");
+        nominalValues.add(new ArrayList<>(values));
+    }
+
+    // Starts the data section. Rows can be written after this.
+    public void writeData() throws IOException {
+        checkHeader();
+        writeAscii("\n@data\n");
+        inData = true;
+    }
+
+    // Writes a row of text fields, one per attribute: nominal values are quoted, numeric values are copied as they are,
+    // and empty fields are written as ? (missing). In sparse format, numeric fields that are zero are left out.
+    // A ragged row (e.g. a CSV line with a field too many or too few) is made to fit the attributes: the missing fields at
+    // the end are written as ?, and the fields past the last attribute are left out. Such rows are counted in the
+    // Metrics (arff_ragged_rows).
+    public void writeRow(String[] fields) throws IOException {
+        checkData();
+        int attributes = nominalValues.size();
+        if (fields.length != attributes) {
+            raggedRows++;
+        }
+        if (sparse) {
+            put((byte) '{');
+        }
+        boolean first = true;
+        for (int i = 0; i < attributes; i++) {
+            String field = i < fields.length ? fields[i] : "";
+            boolean nominal = nominalValues.get(i) != null;
+            if (sparse && !nominal && isZero(field)) {
+                continue;
+            }
+            if (!first) {
+                put((byte) ',');
+            }
+            first = false;
+            if (sparse) {
+                writeLong(i);
+                put((byte) ' ');
+            }
+            if (field.isEmpty()) {
+                put((byte) '?');
+            } else if (nominal) {
+                writeQuoted(field);
+            } else {
+                writeText(field);
+            }
+        }
+        if (sparse) {
+            put((byte) '}');
+        }
+        put((byte) '\n');
+    }
+
+    // Writes a row of values, one per attribute: numbers for the numeric attributes and value indexes for the nominal
+    // ones, with NaN for missing values. In sparse format, zeros (and the first value of nominal attributes) are left out.
+    public void writeRow(double[] values) throws IOException {
+        checkData(values.length);
+        if (sparse) {
+            put((byte) '{');
+        }
+        boolean first = true;
+        for (int i = 0; i < values.length; i++) {
+            double value = values[i];
+            if (sparse && value == 0) {
+                continue;
+            }
+            if (!first) {
+                put((byte) ',');
+            }
+            first = false;
+            if (sparse) {
+                writeLong(i);
+                put((byte) ' ');
+            }
+            List<String> nominal = nominalValues.get(i);
+            if (Double.isNaN(value)) {
+                put((byte) '?');
+            } else if (nominal != null) {
+                writeQuoted(nominal.get((int) value));
+            } else {
+                writeDouble(value);
+            }
+        }
+        if (sparse) {
+            put((byte) '}');
+        }
+        put((byte) '\n');
+    }
+
+    // Writes the rows from..to of a DataFrame whose columns match the declared attributes, reading the column arrays directly.
+    public void writeRows(DataFrame frame, int from, int to) throws IOException {
+        checkData(frame.columnCount());
+        int columns = frame.columnCount();
+        double[] values = new double[columns];
+        for (int row = from; row < to; row++) {
+            for (int c = 0; c < columns; c++) {
+                if (frame.isMissing(c, row)) {
+                    values[c] = Double.NaN;
+                } else if (frame.isNominal(c)) {
+                    values[c] = frame.nominalColumn(c)[row];
+                } else {
+                    values[c] = frame.numericColumn(c)[row];
+                }
+            }
+            writeRow(values);
+        }
+    }
+
+    // Writes what is left in the buffer, and closes the file.
+    @Override
+    public void close() throws IOException {
+        if (raggedRows > 0) {
+            Metrics.count("arff_ragged_rows", raggedRows);
+        }
+        try {
+            flush();
+            if (gzip != null) {
+                gzip.close();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    // Writes the buffer to the file.
+    private void flush() throws IOException {
+        if (position == 0) {
+            return;
+        }
+        if (gzip != null) {
+            gzip.write(buffer, 0, position);
+        } else {
+            ByteBuffer block = ByteBuffer.wrap(buffer, 0, position);
+            while (block.hasRemaining()) {
+                channel.write(block);
+            }
+        }
+        position = 0;
+    }
+
+    // Makes room for a number of bytes in the buffer.
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    private void put(byte b) throws IOException {
+        if (position == BUFFER_SIZE) {
+            flush();
+        }
+        buffer[position++] = b;
+    }
+
+    // Writes text that is known to be ASCII (the keywords of the format).
+    private void writeAscii(String text) throws IOException {
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    // Writes text as UTF-8. ASCII characters are copied one by one; other text is encoded in one go.
+    private void writeText(String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(text.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            put((byte) c);
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            put(b);
+        }
+    }
+
+    // Writes an attribute name, with its spaces replaced by underscores. Names with characters that mean something in
+    // ARFF (e.g. the % of "breastfeeding (%)", which starts a comment) are also quoted.
+    private void writeName(String name) throws IOException {
+        for (int i = 0; i < name.length(); i++) {
+            if ("%,{}'\"\t".indexOf(name.charAt(i)) >= 0) {
+                writeQuoted(name.replace(' ', '_'));
+                return;
+            }
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(name.substring(i).replace(' ', '_').getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            put(c == ' ' ? (byte) '_' : (byte) c);
+        }
+    }
+
+    // Writes a value in single quotes, escaping the quotes and backslashes inside it like Weka does (e.g. 'Cote d\'Ivoire').
+    private void writeQuoted(String value) throws IOException {
+        put((byte) '\'');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                writeBytes(value.substring(i).replace("\\", "\\\\").replace("'", "\\'").getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            if (c == '\'' || c == '\\') {
+                put((byte) '\\');
+            }
+            put((byte) c);
+        }
+        put((byte) '\'');
+    }
+
+    // Writes a whole number.
+    private void writeLong(long value) throws IOException {
+        ensure(20);
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        // digits are written backwards from the end of their space, then the position moves past them.
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    // Writes a number rounded to maxDecimalPlaces, without trailing zeros (like Weka's Utils.doubleToString).
+    // Numbers too large to be scaled into a long are written with Double.toString, which is rare enough not to matter.
+    private void writeDouble(double value) throws IOException {
+        long scale = POWERS_OF_TEN[maxDecimalPlaces];
+        if (Double.isInfinite(value) || Math.abs(value) * scale >= 9.0E18) {
+            writeAscii(Double.toString(value));
+            return;
+        }
+        long scaled = Math.round(value * scale);
+        if (scaled == 0) {
+            put((byte) '0');
+            return;
+        }
+        if (scaled < 0) {
+            put((byte) '-');
+            scaled = -scaled;
+        }
+        writeLong(scaled / scale);
+        long fraction = scaled % scale;
+        if (fraction == 0) {
+            return;
+        }
+        int places = maxDecimalPlaces;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            places--;
+        }
+        ensure(places + 1);
+        buffer[position++] = '.';
+        for (int i = position + places - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + fraction % 10);
+            fraction /= 10;
+        }
+        position += places;
+    }
+
+    // Checks if a numeric text field is a zero (0, 0.0, -0.00, ...).
+    private static boolean isZero(String field) {
+        int start = field.startsWith("-") || field.startsWith("+") ? 1 : 0;
+        boolean digit = false;
+        for (int i = start; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '0') {
+                digit = true;
+            } else if (c != '.') {
+                return false;
+            }
+        }
+        return digit;
+    }
+
+    private void checkHeader() {
+        if (inData) {
+            throw new IllegalStateException("The attributes must be written before the data");
+        }
+    }
+
+    private void checkData() {
+        if (!inData) {
+            throw new IllegalStateException("writeData() must be called before the rows");
+        }
+    }
+
+    private void checkData(int fields) {
+        checkData();
+        if (fields != nominalValues.size()) {
+            throw new IllegalArgumentException("Expected " + nominalValues.size() + " values, got " + fields);
+        }
+    }
+}
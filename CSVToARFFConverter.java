@@ -1,26 +1,38 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 public class CSVToARFFConverter {
 
+    // Size of the read buffer used by the streaming conversion (1 MB).
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+
     public static void main(String[] args) {
+        // --sparse writes the rows in sparse ARFF format, and --gzip compresses the output.
+        boolean sparse = Arrays.asList(args).contains("--sparse");
+        boolean gzip = Arrays.asList(args).contains("--gzip");
         // Define the path to the input CSV file
         String csvFilePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_new.csv"; // Update this path
         // Define the path to the output ARFF file
-        String arffFilePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_new.arff"; // Specify output path
+        String arffFilePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_new.arff" + (gzip ? ".gz" : ""); // Specify output path
 
         try {
-            // Load data from the CSV file into a List of String arrays.
-            List<String[]> data = loadData(csvFilePath);
-            // Write the data in ARFF format into the specified file.
-            writeARFF(data, arffFilePath);
+            if (XlsxReader.isXlsx(csvFilePath)) {
+                // A workbook can't be read line by line, so its sheet is loaded into a columnar DataFrame and written from it.
+                writeARFF(loadFrame(csvFilePath), arffFilePath, sparse);
+            } else {
+                // Streams the CSV straight into the ARFF file, so the heap use doesn't depend on the size of the input.
+                convertStreaming(csvFilePath, arffFilePath, sparse);
+            }
             // Prints a message to the console to confirm the process was completed.
             System.out.println("ARFF file saved to: " + arffFilePath);
         } catch (IOException e) {
@@ -31,6 +43,10 @@ public class CSVToARFFConverter {
 
     // Reads a csv file from a specified path, and returns a list of arrays, where each array is a line from the file
     public static List<String[]> loadData(String csvFilePath) throws IOException {
+        // An XLSX workbook is read straight from its first sheet, without exporting it to CSV.
+        if (XlsxReader.isXlsx(csvFilePath)) {
+            return XlsxReader.readRows(Paths.get(csvFilePath));
+        }
         // Creates a list to store the data read from the csv
         List<String[]> dataList = new ArrayList<>();
         // Creates a buffered reader to read the file line by line
@@ -39,8 +55,8 @@ public class CSVToARFFConverter {
         String line;
         // While there are still lines in the file
         while ((line = reader.readLine()) != null) {
-            // Splits the line by a comma and saves the resulting array
-            String[] tokens = line.split(",");
+            // Splits the line by a comma (keeping the commas inside quoted fields) and saves the resulting array
+            String[] tokens = ChunkedCSVParser.splitLine(line);
             // Adds this new array (representing a line) to the list of lines.
             dataList.add(tokens);
         }
@@ -50,14 +66,31 @@ public class CSVToARFFConverter {
         return dataList;
     }
 
-    // Receives a list of String arrays, and saves them in an ARFF file, according to the format used by WEKA
-    public static void writeARFF(List<String[]> data, String arffFilePath) throws IOException {
-        // Create a writer for an ARFF file in a specific location
-        FileWriter arffWriter = new FileWriter(arffFilePath);
+    // Reads a csv file (through its ColumnarCache) or an XLSX workbook into a columnar DataFrame. The first column (the
+    // country) is nominal, and all of the others are numeric, like the attributes of the ARFF file; empty or non numeric
+    // values are recorded as missing, which the ARFF file writes as "?".
+    public static DataFrame loadFrame(String csvFilePath) throws IOException {
+        Path path = Paths.get(csvFilePath);
+        if (XlsxReader.isXlsx(csvFilePath)) {
+            return XlsxReader.load(path);
+        }
+        String[] headers = new ChunkedCSVParser().readHeader(path);
+        return ColumnarCache.loadCsv(path, headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0]));
+    }
 
-        // Write ARFF header, which defines the name of the relation
-        arffWriter.write("@relation cleaned_global_dataflow\n\n");
+    // Saves a DataFrame loaded by loadFrame in an ARFF file, with the same header as writeARFF. The rows are written
+    // straight from the column arrays, optionally in sparse ARFF format.
+    public static void writeARFF(DataFrame data, String arffFilePath, boolean sparse) throws IOException {
+        try (ArffWriter arffWriter = ArffWriter.open(Paths.get(arffFilePath), sparse)) {
+            // the nominal values are declared in the order of the dictionary, which is how writeRows numbers them.
+            List<String> countryNames = data.columnCount() == 0 ? Collections.emptyList() : data.dictionary(0).values();
+            writeHeader(arffWriter, data.names(), countryNames);
+            arffWriter.writeRows(data, 0, data.rowCount());
+        }
+    }
 
+    // Receives a list of String arrays, and saves them in an ARFF file, according to the format used by WEKA
+    public static void writeARFF(List<String[]> data, String arffFilePath) throws IOException {
         // Define the attributes, by fetching the headers from the first line of the file
         String[] headers = data.get(0);
 
@@ -73,36 +106,92 @@ public class CSVToARFFConverter {
             }
         }
 
-        // Define "Country Name" as nominal with single quotes around each country name and no trailing comma
-        arffWriter.write("@attribute Country_Name {");
-        // adds all of the countries found to the attributes, separated by commas. Each country is between single quotes.
-        arffWriter.write(countryNames.stream().map(name -> "'" + name + "'").collect(Collectors.joining(",")));
-        arffWriter.write("}\n");
+        // Create a writer for an ARFF file in a specific location (compressed if its name ends with .gz)
+        try (ArffWriter arffWriter = ArffWriter.open(Paths.get(arffFilePath), false)) {
+            // Writes the @relation and @attribute sections.
+            writeHeader(arffWriter, headers, countryNames);
 
-        // Define other attributes as numeric by looping the other headers and generating the @attribute section for each.
-        for (int i = 1; i < headers.length; i++) {
-            arffWriter.write("@attribute " + headers[i].replace(" ", "_") + " numeric\n");
+            // Write data rows
+            // loops all of the data, skipping the first line (which is the header)
+            for (int i = 1; i < data.size(); i++) {
+                // writes the current line.
+                arffWriter.writeRow(data.get(i));
+            }
         }
-        // writes a line break and the declaration of @data, which means that after this line the actual data is coming.
-        arffWriter.write("\n@data\n");
+    }
 
-        // Write data rows
-        // loops all of the data, skipping the first line (which is the header)
-        for (int i = 1; i < data.size(); i++) {
-            // gets the current line.
-            String[] row = data.get(i);
-            // Writes the Country Name, or ? if it's empty. The ? character is a placeholder for missing data, and it's the standard format for ARFF files.
-            arffWriter.write(row[0].isEmpty() ? "?" : "'" + row[0] + "'");
-            // Loops all other values on the same line, and saves them after a comma, also using ? if there's missing data.
-            for (int j = 1; j < row.length; j++) {
-                arffWriter.write(",");
-                arffWriter.write(row[j].isEmpty() ? "?" : row[j]); // Use "?" for missing values
+    // Converts a CSV file into an ARFF file without holding the rows in memory.
+    // The first pass only looks at the first field of each line to collect the country names (needed by the header),
+    // and the second pass streams every row from the reader straight into an ArffWriter.
+    // The output is the same as calling loadData followed by writeARFF.
+    public static void convertStreaming(String csvFilePath, String arffFilePath) throws IOException {
+        convertStreaming(csvFilePath, arffFilePath, false);
+    }
+
+    // Same as convertStreaming, optionally writing the rows in sparse ARFF format (zeros left out). The file is
+    // compressed with gzip if its name ends with .gz.
+    public static void convertStreaming(String csvFilePath, String arffFilePath, boolean sparse) throws IOException {
+        // First pass: collects the nominal domain of the Country_Name attribute.
+        Set<String> countryNames = collectCountryNames(csvFilePath);
+
+        // Second pass: uses try-with-resources, so the reader and the writer are both closed automatically.
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath), STREAM_BUFFER_SIZE);
+             ArffWriter arffWriter = ArffWriter.open(Paths.get(arffFilePath), sparse)) {
+            // reads the first line, which contains the headers. An empty file produces an empty ARFF file.
+            String line = reader.readLine();
+            if (line == null) {
+                return;
+            }
+            // Writes the @relation and @attribute sections.
+            writeHeader(arffWriter, ChunkedCSVParser.splitLine(line), countryNames);
+            // Each row is written as soon as it's read, so only one line is in memory at any time.
+            while ((line = reader.readLine()) != null) {
+                arffWriter.writeRow(ChunkedCSVParser.splitLine(line));
             }
-            // adds a line break at the end of each row.
-            arffWriter.write("\n");
         }
+    }
 
-        // Closes the filewriter.
-        arffWriter.close();
+    // Reads the CSV once, only keeping the first field of each line, and returns the unique (non-empty) country names.
+    // This is the cheap pass of the streaming conversion: no other field is split or stored.
+    public static Set<String> collectCountryNames(String csvFilePath) throws IOException {
+        // Uses a hashset, in the same way as writeARFF, so the names come out in the same order.
+        Set<String> countryNames = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(csvFilePath), STREAM_BUFFER_SIZE)) {
+            // skips the header line.
+            String line = reader.readLine();
+            while ((line = reader.readLine()) != null) {
+                // the country is the first field of the line. Quoted names can contain commas, so the whole line is split
+                // only when it starts with a quote.
+                String country;
+                if (line.startsWith("\"")) {
+                    country = ChunkedCSVParser.splitLine(line)[0];
+                } else {
+                    int comma = line.indexOf(',');
+                    country = comma < 0 ? line : line.substring(0, comma);
+                }
+                // if it's not an empty string, add it to the hash set.
+                if (!country.isEmpty()) {
+                    countryNames.add(country);
+                }
+            }
+        }
+        return countryNames;
+    }
+
+    // Writes the ARFF header: the relation name, the nominal Country_Name attribute and one numeric attribute per other column.
+    private static void writeHeader(ArffWriter arffWriter, String[] headers, Collection<String> countryNames) throws IOException {
+        // Write ARFF header, which defines the name of the relation
+        arffWriter.writeRelation("cleaned_global_dataflow");
+
+        // Define "Country Name" as nominal, with all of the countries found, each one between single quotes.
+        arffWriter.writeNominalAttribute("Country_Name", countryNames);
+
+        // Define other attributes as numeric by looping the other headers and generating the @attribute section for each
+        // (the writer replaces the spaces in the names with underscores).
+        for (int i = 1; i < headers.length; i++) {
+            arffWriter.writeNumericAttribute(headers[i]);
+        }
+        // starts the @data section, which means that after this line the actual data is coming.
+        arffWriter.writeData();
     }
 }
@@ -0,0 +1,614 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+// Parses CSV files into DataFrames using all of the cores.
+// The file is memory-mapped and split into chunks that start and end on a line break. Each chunk is tokenized on its own
+// ForkJoinPool task into a small DataFrame, and the chunks are then appended in file order.
+// Fields may be quoted ("Korea, Republic of") with "" as an escaped quote, and a quoted field may contain line breaks
+// (as written by Imputer, GroupBy and Reshaper): the quotes before each split point are counted first, in parallel, and
+// a chunk only ends on a line break that is outside of quotes. A stray quote inside an unquoted field (5'3") is read as
+// text, but throws the count off, so the following chunks may end later than they would.
+// Numbers are parsed straight from the mapped bytes, without creating Strings or throwing exceptions on dirty values.
+public class ChunkedCSVParser {
+
+    // Default number of bytes in each chunk (8 MB).
+    public static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+
+    // Exact powers of ten that can be represented as doubles, used by the fast path of the number parser.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    // Largest mantissa that can be converted to a double without rounding.
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    // Pool that runs the chunk tasks.
+    private final ForkJoinPool pool;
+    // Target number of bytes in each chunk.
+    private final int chunkSize;
+    // Charset of the text in the file (the same default as FileReader).
+    private final Charset charset = Charset.defaultCharset();
+
+    // Creates a parser that uses the common ForkJoinPool and the default chunk size.
+    public ChunkedCSVParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    // Creates a parser that runs on the given pool, with the given chunk size in bytes.
+    public ChunkedCSVParser(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // Parses a CSV file with a header line. The columns listed in nominalColumns are nominal, and all of the others are numeric.
+    public DataFrame parse(Path path, Set<String> nominalColumns) throws IOException {
+        return parse(path, nominalColumns, 0, Long.MAX_VALUE);
+    }
+
+    // Parses the rows of a CSV file that are between two byte offsets, e.g. the rows appended to a file since it was
+    // parsed (from its length then to its length now). Both offsets must be at the start of a line or past the end of the
+    // file, and the header is never parsed as a row.
+    public DataFrame parse(Path path, Set<String> nominalColumns, long from, long to) throws IOException {
+        long start = System.nanoTime();
+        long rowsBefore = Metrics.counter("csv_rows_parsed");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // reads the header, which defines the columns of the table.
+            Header header = readHeader(channel);
+            boolean[] nominal = nominalFlags(header.names, nominalColumns);
+
+            // starts one task for each chunk, and then appends the results in the same order as the file.
+            List<ForkJoinTask<DataFrame>> tasks = new ArrayList<>();
+            for (long[] chunk : splitChunks(channel, Math.max(header.end, from), Math.min(to, channel.size()))) {
+                tasks.add(pool.submit(() -> parseChunk(path, channel, chunk[0], chunk[1], header.names, nominal)));
+            }
+            DataFrame.Builder builder = DataFrame.builder(header.names, nominal);
+            for (ForkJoinTask<DataFrame> task : tasks) {
+                builder.appendAll(join(task));
+            }
+            return builder.build();
+        } finally {
+            recordParse(start, rowsBefore);
+        }
+    }
+
+    // Parses a CSV file chunk by chunk, handing the rows of each chunk to the consumer in file order.
+    // At most one chunk per pool thread is parsed ahead of the consumer, so the memory use depends on the chunk size,
+    // not on the size of the file.
+    public void forEachChunk(Path path, Set<String> nominalColumns, Consumer<DataFrame> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            boolean[] nominal = nominalFlags(header.names, nominalColumns);
+            List<long[]> chunks = splitChunks(channel, header.end, channel.size());
+            int window = Math.max(1, pool.getParallelism());
+            // tasks that were started but not yet handed to the consumer, in file order.
+            ArrayDeque<ForkJoinTask<DataFrame>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            while (next < chunks.size() || !inFlight.isEmpty()) {
+                // keeps the window full.
+                while (next < chunks.size() && inFlight.size() < window) {
+                    long[] chunk = chunks.get(next++);
+                    inFlight.add(pool.submit(() -> parseChunk(path, channel, chunk[0], chunk[1], header.names, nominal)));
+                }
+                consumer.accept(join(inFlight.poll()));
+            }
+        }
+    }
+
+    // Reduces one or more CSV files in parallel. Each chunk of each file is parsed and reduced on its own task into a
+    // partial result (the chunk's rows are discarded as soon as the task ends), and the partial results are then combined
+    // as a balanced tree, in file and chunk order. Since the chunks depend only on the chunk size, the result is the same
+    // whatever the number of threads. The reducer also gets the column names of the chunk's file.
+    // Returns null if the files have no data rows.
+    public <A> A reduce(List<Path> paths, Set<String> nominalColumns, BiFunction<String[], DataFrame, A> reducer,
+                        BinaryOperator<A> combiner) throws IOException {
+        long start = System.nanoTime();
+        long rowsBefore = Metrics.counter("csv_rows_parsed");
+        List<FileChannel> channels = new ArrayList<>();
+        List<ForkJoinTask<A>> tasks = new ArrayList<>();
+        try {
+            // starts the tasks of all of the chunks of all of the files.
+            for (Path path : paths) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                channels.add(channel);
+                Header header = readHeader(channel);
+                boolean[] nominal = nominalFlags(header.names, nominalColumns);
+                for (long[] chunk : splitChunks(channel, header.end, channel.size())) {
+                    tasks.add(pool.submit(() -> reducer.apply(header.names,
+                            parseChunk(path, channel, chunk[0], chunk[1], header.names, nominal))));
+                }
+            }
+            // collects the partial results in order.
+            List<A> partials = new ArrayList<>(tasks.size());
+            for (ForkJoinTask<A> task : tasks) {
+                partials.add(join(task));
+            }
+            // combines neighbouring results until only one is left.
+            while (partials.size() > 1) {
+                List<A> next = new ArrayList<>((partials.size() + 1) / 2);
+                for (int i = 0; i < partials.size(); i += 2) {
+                    next.add(i + 1 < partials.size() ? combiner.apply(partials.get(i), partials.get(i + 1)) : partials.get(i));
+                }
+                partials = next;
+            }
+            return partials.isEmpty() ? null : partials.get(0);
+        } finally {
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+            recordParse(start, rowsBefore);
+        }
+    }
+
+    // Records the time of a parse, and its rate in rows per second (from the rows that the chunks added to the metrics).
+    private static void recordParse(long start, long rowsBefore) {
+        long nanos = System.nanoTime() - start;
+        Metrics.time("csv_parse", nanos);
+        if (nanos > 0) {
+            Metrics.gauge("csv_rows_per_second", (Metrics.counter("csv_rows_parsed") - rowsBefore) * 1e9 / nanos);
+        }
+    }
+
+    // Reads only the column names of a CSV file.
+    public String[] readHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return readHeader(channel).names;
+        }
+    }
+
+    // Splits a single CSV line into fields, without using a regex. Quoted fields can contain commas, and "" is an escaped quote.
+    // Unlike String.split, empty fields at the end of the line are kept.
+    public static String[] splitLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    // two quotes in a row inside a quoted field are an escaped quote.
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (c != '\r') {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    // Parses a number from the bytes in [from, to) of a buffer, returning NaN if the bytes are not a valid number.
+    // Numbers with at most 15-16 significant digits and a small exponent are converted exactly with a single multiplication
+    // or division; anything else falls back to Double.parseDouble (which gives the same, correctly rounded, result).
+    public static double parseDouble(ByteBuffer buffer, int from, int to) {
+        // skips the spaces around the number.
+        while (from < to && buffer.get(from) == ' ') {
+            from++;
+        }
+        while (to > from && buffer.get(to - 1) == ' ') {
+            to--;
+        }
+        if (from == to) {
+            return Double.NaN;
+        }
+        int pos = from;
+        boolean negative = false;
+        byte b = buffer.get(pos);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        boolean overflow = false;
+        int digits = 0;
+        int exponent = 0;
+        // reads the integer part.
+        while (pos < to && (b = buffer.get(pos)) >= '0' && b <= '9') {
+            if (mantissa < MAX_EXACT_MANTISSA) {
+                mantissa = mantissa * 10 + (b - '0');
+            } else {
+                overflow = true;
+                exponent++;
+            }
+            digits++;
+            pos++;
+        }
+        // reads the fraction part.
+        if (pos < to && buffer.get(pos) == '.') {
+            pos++;
+            while (pos < to && (b = buffer.get(pos)) >= '0' && b <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    exponent--;
+                } else {
+                    overflow = true;
+                }
+                digits++;
+                pos++;
+            }
+        }
+        // there must be at least one digit.
+        if (digits == 0) {
+            return parseOther(buffer, from, to);
+        }
+        // reads the exponent part.
+        if (pos < to && ((b = buffer.get(pos)) == 'e' || b == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && ((b = buffer.get(pos)) == '-' || b == '+')) {
+                negativeExponent = b == '-';
+                pos++;
+            }
+            int exponentDigits = 0;
+            int explicitExponent = 0;
+            while (pos < to && (b = buffer.get(pos)) >= '0' && b <= '9') {
+                // caps the exponent, since anything this large is infinite or zero anyway.
+                if (explicitExponent < 100000) {
+                    explicitExponent = explicitExponent * 10 + (b - '0');
+                }
+                exponentDigits++;
+                pos++;
+            }
+            if (exponentDigits == 0) {
+                return parseOther(buffer, from, to);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        // anything left after the number means that the value is not a number.
+        if (pos != to) {
+            return parseOther(buffer, from, to);
+        }
+        // fast path: both the mantissa and the power of ten are exact, so the result is correctly rounded.
+        if (!overflow && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        // slow path for long or extreme numbers. The syntax was already checked, so this can't throw.
+        return Double.parseDouble(ascii(buffer, from, to));
+    }
+
+    // Parses a token that the fast path rejected with Double.parseDouble, if it has one of the other forms that
+    // Double.parseDouble accepts: "Infinity" or "NaN" (with an optional sign), a hexadecimal number, or a number with a
+    // d or f suffix ("1e5d"). Any other token, like a name in a text column, is not a number, and is rejected without
+    // the cost of an exception.
+    private static double parseOther(ByteBuffer buffer, int from, int to) {
+        int start = from;
+        byte b = buffer.get(start);
+        if ((b == '-' || b == '+') && to - start > 1) {
+            start++;
+        }
+        byte last = buffer.get(to - 1);
+        byte beforeLast = to - start > 1 ? buffer.get(to - 2) : 0;
+        boolean suffix = ((last | 0x20) == 'd' || (last | 0x20) == 'f')
+                && (beforeLast == '.' || (beforeLast >= '0' && beforeLast <= '9'));
+        boolean other = matches(buffer, start, to, "Infinity") || matches(buffer, start, to, "NaN") || suffix
+                || (to - start > 2 && buffer.get(start) == '0' && (buffer.get(start + 1) | 0x20) == 'x');
+        if (!other) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(ascii(buffer, from, to));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Checks if the bytes in [from, to) of a buffer are the given ASCII text.
+    private static boolean matches(ByteBuffer buffer, int from, int to, String text) {
+        if (to - from != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(from + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Checks if the bytes in [from, to) of a buffer are "NaN" (with an optional sign and spaces around it), which is a
+    // number that the DataFrame stores as missing, rather than a value that can't be parsed.
+    private static boolean isNaNText(ByteBuffer buffer, int from, int to) {
+        while (from < to && buffer.get(from) == ' ') {
+            from++;
+        }
+        while (to > from && buffer.get(to - 1) == ' ') {
+            to--;
+        }
+        if (to - from > 1 && (buffer.get(from) == '-' || buffer.get(from) == '+')) {
+            from++;
+        }
+        return matches(buffer, from, to, "NaN");
+    }
+
+    // Copies the bytes in [from, to) of a buffer into a String.
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(from + i);
+        }
+        return new String(bytes, 0, bytes.length, StandardCharsets.US_ASCII);
+    }
+
+    // Tokenizes the bytes in [start, end) of the file into a DataFrame.
+    // The rows, the bytes and the values that are not numbers are added to the Metrics once for the whole chunk.
+    private DataFrame parseChunk(Path path, FileChannel channel, long start, long end, String[] names, boolean[] nominal)
+            throws IOException {
+        Metrics.ParseChunkEvent event = new Metrics.ParseChunkEvent();
+        event.begin();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        DataFrame.Builder builder = DataFrame.builder(names, nominal);
+        // number of values of each numeric column that are not numbers.
+        long[] errors = new long[names.length];
+        // last nominal value seen in each column, so runs of the same country don't create a new String per row.
+        byte[][] lastBytes = new byte[names.length][];
+        String[] lastValues = new String[names.length];
+        // scratch space to copy the bytes of nominal values.
+        byte[] scratch = new byte[256];
+
+        int limit = buffer.limit();
+        int pos = 0;
+        while (pos < limit) {
+            int column = 0;
+            boolean lineEnded = false;
+            boolean lastFieldEmpty = false;
+            while (!lineEnded) {
+                int fieldStart = pos;
+                int fieldEnd;
+                boolean escaped = false;
+                if (pos < limit && buffer.get(pos) == '"') {
+                    // quoted field: reads until the closing quote, skipping escaped quotes.
+                    fieldStart = ++pos;
+                    while (pos < limit) {
+                        if (buffer.get(pos) == '"') {
+                            if (pos + 1 < limit && buffer.get(pos + 1) == '"') {
+                                escaped = true;
+                                pos += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        pos++;
+                    }
+                    fieldEnd = pos;
+                    // skips the closing quote and anything else up to the next separator.
+                    while (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n') {
+                        pos++;
+                    }
+                } else {
+                    while (pos < limit && buffer.get(pos) != ',' && buffer.get(pos) != '\n') {
+                        pos++;
+                    }
+                    fieldEnd = pos;
+                    // removes the carriage return of Windows line endings.
+                    if (fieldEnd > fieldStart && buffer.get(fieldEnd - 1) == '\r' && (pos == limit || buffer.get(pos) == '\n')) {
+                        fieldEnd--;
+                    }
+                }
+
+                lastFieldEmpty = fieldEnd == fieldStart;
+                // stores the field, ignoring the values past the last header.
+                if (column < names.length && fieldEnd > fieldStart) {
+                    if (nominal[column]) {
+                        int length = fieldEnd - fieldStart;
+                        if (scratch.length < length) {
+                            scratch = new byte[Math.max(length, scratch.length * 2)];
+                        }
+                        for (int i = 0; i < length; i++) {
+                            scratch[i] = buffer.get(fieldStart + i);
+                        }
+                        // reuses the previous String when the value is the same as in the previous row.
+                        if (!escaped && lastBytes[column] != null && Arrays.equals(lastBytes[column], 0, lastBytes[column].length, scratch, 0, length)) {
+                            builder.setNominal(column, lastValues[column]);
+                        } else {
+                            String value = new String(scratch, 0, length, charset);
+                            if (escaped) {
+                                value = value.replace("\"\"", "\"");
+                            }
+                            lastBytes[column] = Arrays.copyOf(scratch, length);
+                            lastValues[column] = value;
+                            builder.setNominal(column, value);
+                        }
+                    } else if (!escaped) {
+                        double value = parseDouble(buffer, fieldStart, fieldEnd);
+                        if (Double.isNaN(value) && !isNaNText(buffer, fieldStart, fieldEnd)) {
+                            errors[column]++;
+                        }
+                        builder.setNumeric(column, value);
+                    } else {
+                        errors[column]++;
+                    }
+                }
+                column++;
+
+                // a line break (or the end of the chunk) ends the row; a comma starts the next field.
+                lineEnded = pos >= limit || buffer.get(pos) == '\n';
+                pos++;
+            }
+            // blank lines are skipped.
+            if (column > 1 || !lastFieldEmpty) {
+                builder.endRow();
+            }
+        }
+        DataFrame chunk = builder.build();
+        long totalErrors = 0;
+        for (int c = 0; c < names.length; c++) {
+            if (errors[c] > 0) {
+                Metrics.count("csv_parse_errors", "column", names[c], errors[c]);
+                totalErrors += errors[c];
+            }
+        }
+        Metrics.count("csv_rows_parsed", chunk.rowCount());
+        Metrics.count("csv_bytes_read", end - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = path.toString();
+            event.bytes = end - start;
+            event.rows = chunk.rowCount();
+            event.errors = totalErrors;
+            event.commit();
+        }
+        return chunk;
+    }
+
+    // Finds the chunk boundaries in [start, end): each chunk ends right after the first line break past its target size
+    // that is outside of quotes. start must be at the start of a line (outside of quotes).
+    private List<long[]> splitChunks(FileChannel channel, long start, long end) throws IOException {
+        // counts the quotes between the split points in parallel, to know which split points are inside a quoted field.
+        List<ForkJoinTask<Long>> counts = new ArrayList<>();
+        for (long from = start; from < end; from += chunkSize) {
+            long segmentStart = from;
+            long segmentEnd = Math.min(end, from + chunkSize);
+            counts.add(pool.submit(() -> countQuotes(channel, segmentStart, segmentEnd)));
+        }
+        List<long[]> chunks = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long chunkStart = start;
+        long quotes = 0;
+        for (int i = 0; i < counts.size(); i++) {
+            quotes += join(counts.get(i));
+            long chunkEnd = Math.min(end, start + (long) (i + 1) * chunkSize);
+            if (chunkEnd <= chunkStart) {
+                // the previous chunk already went past this split point.
+                continue;
+            }
+            // moves the end forward to the byte after the next line break outside of quotes.
+            boolean quoted = (quotes & 1) == 1;
+            boolean found = false;
+            while (!found && chunkEnd < end) {
+                probe.clear();
+                int read = channel.read(probe, chunkEnd);
+                if (read <= 0) {
+                    chunkEnd = end;
+                    break;
+                }
+                int at = 0;
+                for (; at < read; at++) {
+                    byte b = probe.get(at);
+                    if (b == '"') {
+                        quoted = !quoted;
+                    } else if (b == '\n' && !quoted) {
+                        found = true;
+                        break;
+                    }
+                }
+                chunkEnd += found ? at + 1 : read;
+            }
+            chunkEnd = Math.min(chunkEnd, end);
+            chunks.add(new long[]{chunkStart, chunkEnd});
+            chunkStart = chunkEnd;
+        }
+        return chunks;
+    }
+
+    // Counts the quote characters in [from, to) of a file.
+    private static long countQuotes(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        long quotes = 0;
+        for (int i = 0, n = buffer.limit(); i < n; i++) {
+            if (buffer.get(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    // Reads the first line of the file, returning the column names and the offset where the data starts.
+    private Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long pos = 0;
+        boolean quoted = false;
+        boolean found = false;
+        while (!found) {
+            probe.clear();
+            int read = channel.read(probe, pos);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = probe.get(i);
+                pos++;
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (b == '\n' && !quoted) {
+                    found = true;
+                    break;
+                }
+                line.write(b);
+            }
+        }
+        byte[] bytes = line.toByteArray();
+        // skips the UTF-8 byte order mark that spreadsheet exports sometimes add.
+        int offset = bytes.length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF ? 3 : 0;
+        String text = new String(bytes, offset, bytes.length - offset, charset);
+        String[] names = text.isEmpty() ? new String[0] : splitLine(text);
+        return new Header(names, pos);
+    }
+
+    // Returns the nominal flag of each column.
+    private static boolean[] nominalFlags(String[] names, Set<String> nominalColumns) {
+        boolean[] nominal = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            nominal[i] = nominalColumns.contains(names[i]);
+        }
+        return nominal;
+    }
+
+    // Waits for a chunk task, unwrapping the IOException that it may have thrown.
+    private static <T> T join(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Column names of a file and the offset of the first data byte.
+    private static class Header {
+        final String[] names;
+        final long end;
+
+        Header(String[] names, long end) {
+            this.names = names;
+            this.end = end;
+        }
+    }
+}
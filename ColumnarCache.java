@@ -0,0 +1,409 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.CRC32C;
+
+// Binary on-disk copy of a DataFrame, kept next to the CSV/ARFF file it was parsed from (with a ".dfc" suffix), so
+// repeated runs don't have to parse the text again.
+//
+// Layout (little endian): a header with a magic number, the format version, the size, modification time and CRC32C
+// checksum of the source file, a variant string (how the source was parsed, e.g. which columns are nominal), the row and
+// column counts and the type and name of every column; then, for every column, its missing value bitmap followed by its
+// double[] values or int[] codes, each block aligned to 8 bytes; and finally the dictionaries of the nominal columns.
+//
+// A cache is used when it is at least as new as the source and records the source's current size and modification time;
+// otherwise it is rebuilt. So a warm start doesn't read the source at all. The recorded checksum is only compared when
+// the cache was written within the resolution of the modification time after the source (a rewrite in that window could
+// keep both the size and the time), or always with -Dcolumnarcache.verifyChecksum=true. A cache that is truncated or
+// damaged in any way counts as stale too. Reading maps the file and copies every block straight into
+// the column arrays with one bulk get, without decoding any value.
+public class ColumnarCache {
+
+    // Suffix added to the name of the source file.
+    public static final String SUFFIX = ".dfc";
+
+    // "DFCACHE1" as a little endian long.
+    private static final long MAGIC = 0x3145484341434644L;
+    private static final int VERSION = 1;
+    // Size of the staging buffer used when writing, and of the pieces that large blocks are mapped in.
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAP_PIECE = 1 << 30;
+    // Coarsest resolution of the modification times (FAT keeps them to 2 seconds), and whether the checksum is always
+    // verified.
+    private static final long MODIFIED_RESOLUTION_MILLIS = 2000;
+    private static final boolean VERIFY_CHECKSUM = Boolean.getBoolean("columnarcache.verifyChecksum");
+
+    // Parses a source file into a DataFrame.
+    public interface SourceLoader {
+        DataFrame load(Path source) throws Exception;
+    }
+
+    // Returns the frame of a source file, from its cache if the cache is fresh, or from the loader otherwise (in which
+    // case the cache is rebuilt). The variant describes how the loader parses the file; a cache written with a different
+    // variant counts as stale. If the cache can't be written (e.g. a read-only directory), the frame is still returned.
+    public static DataFrame load(Path source, String variant, SourceLoader loader) throws IOException {
+        Path cache = cachePath(source);
+        // a missing, stale or damaged cache is rebuilt below.
+        DataFrame frame = readIfFresh(source, variant);
+        if (frame != null) {
+            return frame;
+        }
+        try {
+            frame = loader.load(source);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not load " + source, e);
+        }
+        try {
+            write(frame, source, variant, cache);
+        } catch (IOException e) {
+            System.err.println("Could not write cache " + cache + ": " + e.getMessage());
+        }
+        return frame;
+    }
+
+    // Loads a CSV file with ChunkedCSVParser, through the cache.
+    public static DataFrame loadCsv(Path source, Set<String> nominalColumns) throws IOException {
+        return load(source, csvVariant(nominalColumns), path -> new ChunkedCSVParser().parse(path, nominalColumns));
+    }
+
+    // Returns the variant of a CSV file parsed by ChunkedCSVParser with the given nominal columns.
+    public static String csvVariant(Set<String> nominalColumns) {
+        return "csv nominal=" + new TreeSet<>(nominalColumns);
+    }
+
+    // Returns the frame of a source file from its cache, or null if there is no fresh cache for it (or the cache can't be
+    // read).
+    public static DataFrame readIfFresh(Path source, String variant) {
+        Path cache = cachePath(source);
+        try {
+            if (!isFresh(source, cache, variant, VERIFY_CHECKSUM)) {
+                return null;
+            }
+            return read(cache);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable cache " + cache + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Returns the cache file of a source file.
+    public static Path cachePath(Path source) {
+        return Paths.get(source.toString() + SUFFIX);
+    }
+
+    // Checks if a cache can be used for a source: it must exist, be at least as new as the source, have the same variant,
+    // and record the source's current size and modification time. The source is also read to compare its checksum when
+    // the cache was written within MODIFIED_RESOLUTION_MILLIS of the source's modification time, or with verifyChecksum.
+    public static boolean isFresh(Path source, Path cache, String variant, boolean verifyChecksum) throws IOException {
+        if (!Files.isRegularFile(cache) || !Files.isRegularFile(source)) {
+            return false;
+        }
+        long sourceModified = Files.getLastModifiedTime(source).toMillis();
+        long cacheModified = Files.getLastModifiedTime(cache).toMillis();
+        if (cacheModified < sourceModified) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            if (header == null || header.sourceSize != Files.size(source) || header.sourceModified != sourceModified
+                    || !header.variant.equals(variant)) {
+                return false;
+            }
+            boolean ambiguous = cacheModified - sourceModified < MODIFIED_RESOLUTION_MILLIS;
+            return !(verifyChecksum || ambiguous) || header.sourceChecksum == checksum(source);
+        }
+    }
+
+    // Writes a frame to a cache file for the given source. The file is written next to its final name and then moved
+    // over it, so readers never see a half written cache.
+    public static void write(DataFrame frame, Path source, String variant, Path cache) throws IOException {
+        Path temporary = Paths.get(cache.toString() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output out = new Output(channel);
+            // header
+            out.putLong(MAGIC);
+            out.putInt(VERSION);
+            out.putLong(Files.size(source));
+            out.putLong(Files.getLastModifiedTime(source).toMillis());
+            out.putLong(checksum(source));
+            out.putString(variant);
+            out.putInt(frame.rowCount());
+            out.putInt(frame.columnCount());
+            for (int c = 0; c < frame.columnCount(); c++) {
+                out.put((byte) (frame.isNominal(c) ? 1 : 0));
+                out.putString(frame.name(c));
+            }
+            // column blocks
+            for (int c = 0; c < frame.columnCount(); c++) {
+                out.align();
+                long[] missing = frame.missingBitmap(c);
+                for (long word : missing) {
+                    out.putLong(word);
+                }
+                if (frame.isNominal(c)) {
+                    for (int code : frame.nominalColumn(c)) {
+                        out.putInt(code);
+                    }
+                } else {
+                    for (double value : frame.numericColumn(c)) {
+                        out.putDouble(value);
+                    }
+                }
+            }
+            // dictionaries
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (frame.isNominal(c)) {
+                    out.putInt(frame.dictionary(c).size());
+                    for (String value : frame.dictionary(c).values()) {
+                        out.putString(value);
+                    }
+                }
+            }
+            out.flush();
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Reads a cache file into a DataFrame.
+    public static DataFrame read(Path cache) throws IOException {
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            if (header == null) {
+                throw new IOException("Not a cache file: " + cache);
+            }
+            int rows = header.rowCount;
+            int words = (rows + 63) >>> 6;
+            int columns = header.names.length;
+            // a cache cut short (e.g. by a full disk) is rejected before any block is read.
+            long blocksEnd = header.end;
+            for (int c = 0; c < columns; c++) {
+                blocksEnd = align(blocksEnd) + 8L * words + (header.nominal[c] ? 4L : 8L) * rows;
+            }
+            if (blocksEnd > channel.size()) {
+                throw new IOException("Truncated cache file: " + cache);
+            }
+            double[][] numeric = new double[columns][];
+            int[][] codes = new int[columns][];
+            long[][] missing = new long[columns][];
+            NominalDictionary[] dictionaries = new NominalDictionary[columns];
+            long pos = header.end;
+            for (int c = 0; c < columns; c++) {
+                pos = align(pos);
+                missing[c] = new long[words];
+                readLongs(channel, pos, missing[c]);
+                pos += 8L * words;
+                if (header.nominal[c]) {
+                    codes[c] = new int[rows];
+                    readInts(channel, pos, codes[c]);
+                    pos += 4L * rows;
+                } else {
+                    numeric[c] = new double[rows];
+                    readDoubles(channel, pos, numeric[c]);
+                    pos += 8L * rows;
+                }
+            }
+            // the dictionaries are small, so they're read through a single mapping of the rest of the file.
+            MappedByteBuffer rest = map(channel, pos, channel.size() - pos);
+            for (int c = 0; c < columns; c++) {
+                if (header.nominal[c]) {
+                    dictionaries[c] = new NominalDictionary();
+                    int size = rest.getInt();
+                    for (int i = 0; i < size; i++) {
+                        dictionaries[c].encode(getString(rest));
+                    }
+                }
+            }
+            return DataFrame.fromColumns(header.names, header.nominal, numeric, codes, dictionaries, missing, rows);
+        }
+    }
+
+    // Calculates the CRC32C checksum of a file, reading it through memory mappings.
+    public static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; pos += MAP_PIECE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_PIECE, size - pos)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    // Reads the header of a cache file, or returns null if the file doesn't start with the right magic number and version
+    // or its header is cut short.
+    private static Header readHeader(FileChannel channel) throws IOException {
+        if (channel.size() < 12) {
+            return null;
+        }
+        // the header holds the column names, so its size is only known after reading it. The mapping is lazy, so mapping
+        // the whole file (up to 2 GB) only touches the pages of the header.
+        MappedByteBuffer buffer = map(channel, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+        if (buffer.getLong() != MAGIC || buffer.getInt() != VERSION) {
+            return null;
+        }
+        try {
+            return readHeaderFields(buffer);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    // Reads the header fields that follow the magic number and version.
+    private static Header readHeaderFields(ByteBuffer buffer) {
+        Header header = new Header();
+        header.sourceSize = buffer.getLong();
+        header.sourceModified = buffer.getLong();
+        header.sourceChecksum = buffer.getLong();
+        header.variant = getString(buffer);
+        header.rowCount = buffer.getInt();
+        int columns = buffer.getInt();
+        if (header.rowCount < 0 || columns < 0 || columns > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        header.names = new String[columns];
+        header.nominal = new boolean[columns];
+        for (int c = 0; c < columns; c++) {
+            header.nominal[c] = buffer.get() == 1;
+            header.names[c] = getString(buffer);
+        }
+        header.end = buffer.position();
+        return header;
+    }
+
+    // Maps part of a file, in little endian order.
+    private static MappedByteBuffer map(FileChannel channel, long pos, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    // Copies a block of doubles into an array, mapping it in pieces of at most 1 GB.
+    private static void readDoubles(FileChannel channel, long pos, double[] values) throws IOException {
+        int perPiece = MAP_PIECE / 8;
+        for (int i = 0; i < values.length; i += perPiece) {
+            int count = Math.min(perPiece, values.length - i);
+            map(channel, pos + 8L * i, 8L * count).asDoubleBuffer().get(values, i, count);
+        }
+    }
+
+    // Copies a block of ints into an array, mapping it in pieces of at most 1 GB.
+    private static void readInts(FileChannel channel, long pos, int[] values) throws IOException {
+        int perPiece = MAP_PIECE / 4;
+        for (int i = 0; i < values.length; i += perPiece) {
+            int count = Math.min(perPiece, values.length - i);
+            map(channel, pos + 4L * i, 4L * count).asIntBuffer().get(values, i, count);
+        }
+    }
+
+    // Copies a block of longs into an array, mapping it in pieces of at most 1 GB.
+    private static void readLongs(FileChannel channel, long pos, long[] values) throws IOException {
+        int perPiece = MAP_PIECE / 8;
+        for (int i = 0; i < values.length; i += perPiece) {
+            int count = Math.min(perPiece, values.length - i);
+            map(channel, pos + 8L * i, 8L * count).asLongBuffer().get(values, i, count);
+        }
+    }
+
+    // Reads a string written by Output.putString.
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Rounds a position up to a multiple of 8.
+    private static long align(long pos) {
+        return (pos + 7) & ~7L;
+    }
+
+    // Header fields of a cache file.
+    private static class Header {
+        long sourceSize;
+        long sourceModified;
+        long sourceChecksum;
+        String variant;
+        int rowCount;
+        String[] names;
+        boolean[] nominal;
+        // position of the first byte after the header.
+        long end;
+    }
+
+    // Writes little endian values to a channel through a staging buffer.
+    private static class Output {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (byte b : bytes) {
+                put(b);
+            }
+        }
+
+        // Pads the output with zeros up to a multiple of 8 bytes.
+        void align() throws IOException {
+            while (((written + buffer.position()) & 7) != 0) {
+                put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
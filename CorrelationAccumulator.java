@@ -0,0 +1,338 @@
+// Online Pearson correlation over k columns, updated one row at a time.
+// Every pair of columns (i, j) has its own count, means, sums of squared deviations and co-moment, all updated with
+// Welford's method, so the memory use is O(k^2) no matter how many rows are added, and the results don't suffer from
+// the cancellation of the naive sum-of-squares formula.
+// Since every pair has its own count, a pair can skip the rows where one of its two values is missing (pairwise-complete),
+// and two accumulators built on different threads can be merged with Chan's formula.
+//
+// Whole columns (addColumns, and the DataFrame methods built on it) are added from cross products instead (X^T X), which
+// scale to hundreds of columns better than a row at a time. With x the values (0 where missing) and m the presence (1 or
+// 0), the sums over the rows where both i and j are present are:
+//   count = m_i . m_j, sum of x_i = x_i . m_j, sum of x_i^2 = x_i^2 . m_j, sum of x_i x_j = x_i . x_j
+// which give the means, sums of squared deviations and co-moment of the pair, merged into its state with Chan's formula.
+// The columns are first shifted by their means (which doesn't change a correlation), so the sums stay small and don't
+// lose precision to cancellation. The cross product is blocked: the rows are taken BLOCK_ROWS at a time, so the columns
+// of a block stay in the cache while they're multiplied with all of the others (and only a block is copied), and every
+// step of the inner loop multiplies a 4 x 4 tile of columns into 16 independent sums, which keeps the floating point
+// units busy (a single running sum would wait for each addition to finish) and lets the JIT use vector registers for the
+// loads. (The Vector API is still an incubator module in Java 17, so the kernel relies on the JIT rather than on it.)
+public class CorrelationAccumulator {
+
+    // Number of rows in a block of addColumns (4 columns of 1024 doubles are 32 KB, the size of an L1 cache).
+    private static final int BLOCK_ROWS = 1024;
+    // Number of columns in a tile of the cross product.
+    private static final int TILE = 4;
+
+    // Number of columns.
+    private final int k;
+    // Per pair state, for the pairs i <= j stored row by row in the upper triangle (see index()).
+    private final long[] count;
+    private final double[] meanI;
+    private final double[] meanJ;
+    private final double[] m2I;
+    private final double[] m2J;
+    private final double[] coMoment;
+
+    // Creates an empty accumulator for the given number of columns.
+    public CorrelationAccumulator(int k) {
+        this.k = k;
+        int pairs = k * (k + 1) / 2;
+        this.count = new long[pairs];
+        this.meanI = new double[pairs];
+        this.meanJ = new double[pairs];
+        this.m2I = new double[pairs];
+        this.m2J = new double[pairs];
+        this.coMoment = new double[pairs];
+    }
+
+    // Returns the number of columns.
+    public int columns() {
+        return k;
+    }
+
+    // Adds a row with one value per column. The row must not contain NaN values.
+    public void add(double[] row) {
+        int p = 0;
+        for (int i = 0; i < k; i++) {
+            double x = row[i];
+            for (int j = i; j < k; j++, p++) {
+                double y = row[j];
+                long n = ++count[p];
+                // Welford update of the two means, the two sums of squared deviations and the co-moment.
+                double dx = x - meanI[p];
+                meanI[p] += dx / n;
+                double dy = y - meanJ[p];
+                meanJ[p] += dy / n;
+                m2I[p] += dx * (x - meanI[p]);
+                m2J[p] += dy * (y - meanJ[p]);
+                coMoment[p] += dx * (y - meanJ[p]);
+            }
+        }
+    }
+
+    // Adds a row that may contain missing (NaN) values. Each pair only uses the row if both of its values are present.
+    public void addPairwise(double[] row) {
+        int p = 0;
+        for (int i = 0; i < k; i++) {
+            double x = row[i];
+            // if x is missing, none of the pairs on this row of the triangle can use the row.
+            if (Double.isNaN(x)) {
+                p += k - i;
+                continue;
+            }
+            for (int j = i; j < k; j++, p++) {
+                double y = row[j];
+                if (Double.isNaN(y)) {
+                    continue;
+                }
+                long n = ++count[p];
+                double dx = x - meanI[p];
+                meanI[p] += dx / n;
+                double dy = y - meanJ[p];
+                meanJ[p] += dy / n;
+                m2I[p] += dx * (x - meanI[p]);
+                m2J[p] += dy * (y - meanJ[p]);
+                coMoment[p] += dx * (y - meanJ[p]);
+            }
+        }
+    }
+
+    // Adds all of the rows of a DataFrame for the given columns, using pairwise-complete handling of the missing values.
+    public void addRowsPairwise(DataFrame frame, int[] columns) {
+        addColumns(frameColumns(frame, columns), frame.rowCount(), true);
+    }
+
+    // Adds the first rows values of k columns (which may contain missing (NaN) values) with the blocked cross product.
+    // With pairwise, each pair uses every row where both of its values are present; without it, only the rows that have
+    // every value are used. Returns the number of rows that were skipped for a missing value (always 0 with pairwise).
+    public int addColumns(double[][] columns, int rows, boolean pairwise) {
+        if (columns.length != k) {
+            throw new IllegalArgumentException("Expected " + k + " columns, got " + columns.length);
+        }
+        // shifts every column by the mean of its values.
+        double[] shift = new double[k];
+        for (int i = 0; i < k; i++) {
+            double sum = 0;
+            long n = 0;
+            for (int r = 0; r < rows; r++) {
+                if (!Double.isNaN(columns[i][r])) {
+                    sum += columns[i][r];
+                    n++;
+                }
+            }
+            shift[i] = n == 0 ? 0 : sum / n;
+        }
+
+        // the columns of a block, padded to whole tiles with columns of zeros so the kernel has no edge cases.
+        int padded = (k + TILE - 1) / TILE * TILE;
+        double[][] values = new double[padded][BLOCK_ROWS];
+        double[][] squares = new double[padded][BLOCK_ROWS];
+        double[][] present = new double[padded][BLOCK_ROWS];
+        double[][] counts = new double[padded][padded];
+        double[][] sums = new double[padded][padded];
+        double[][] sumsOfSquares = new double[padded][padded];
+        double[][] products = new double[padded][padded];
+        double[] tile = new double[TILE * TILE];
+        int skipped = 0;
+        for (int from = 0; from < rows; from += BLOCK_ROWS) {
+            int n = Math.min(rows, from + BLOCK_ROWS) - from;
+            for (int r = 0; r < n; r++) {
+                boolean complete = true;
+                for (int i = 0; i < k && complete && !pairwise; i++) {
+                    complete = !Double.isNaN(columns[i][from + r]);
+                }
+                if (!complete) {
+                    skipped++;
+                }
+                for (int i = 0; i < k; i++) {
+                    double x = columns[i][from + r];
+                    boolean used = complete && !Double.isNaN(x);
+                    values[i][r] = used ? x - shift[i] : 0;
+                    squares[i][r] = values[i][r] * values[i][r];
+                    present[i][r] = used ? 1 : 0;
+                }
+            }
+            crossProduct(present, present, n, true, counts, tile);
+            crossProduct(values, present, n, false, sums, tile);
+            crossProduct(squares, present, n, false, sumsOfSquares, tile);
+            crossProduct(values, values, n, true, products, tile);
+        }
+
+        // merges the sums of every pair into its state.
+        int p = 0;
+        for (int i = 0; i < k; i++) {
+            for (int j = i; j < k; j++, p++) {
+                // i <= j, so (i, j) is in a tile on or above the diagonal, which was computed.
+                long n = Math.round(counts[i][j]);
+                if (n == 0) {
+                    continue;
+                }
+                double sumI = sums[i][j];
+                double sumJ = sums[j][i];
+                mergePair(p, n, shift[i] + sumI / n, shift[j] + sumJ / n,
+                        sumsOfSquares[i][j] - sumI * sumI / n, sumsOfSquares[j][i] - sumJ * sumJ / n,
+                        products[i][j] - sumI * sumJ / n);
+            }
+        }
+        return skipped;
+    }
+
+    // Merges the state of another accumulator (built over different rows) into this one, using Chan's parallel formula.
+    // The result is the same as if all of the rows had been added to a single accumulator. Returns this accumulator.
+    public CorrelationAccumulator merge(CorrelationAccumulator other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Expected " + k + " columns, got " + other.k);
+        }
+        for (int p = 0; p < count.length; p++) {
+            if (other.count[p] > 0) {
+                mergePair(p, other.count[p], other.meanI[p], other.meanJ[p], other.m2I[p], other.m2J[p],
+                        other.coMoment[p]);
+            }
+        }
+        return this;
+    }
+
+    // Merges the state of a pair over other rows (nB > 0) into the pair at position p, with Chan's formula.
+    private void mergePair(int p, long nB, double meanIB, double meanJB, double m2IB, double m2JB, double coMomentB) {
+        long nA = count[p];
+        long n = nA + nB;
+        // differences between the means of the two sides.
+        double dx = meanIB - meanI[p];
+        double dy = meanJB - meanJ[p];
+        double weight = (double) nA * nB / n;
+        meanI[p] += dx * nB / n;
+        meanJ[p] += dy * nB / n;
+        m2I[p] += m2IB + dx * dx * weight;
+        m2J[p] += m2JB + dy * dy * weight;
+        coMoment[p] += coMomentB + dx * dy * weight;
+        count[p] = n;
+    }
+
+    // Adds the rows of a DataFrame where all of the given columns have a value. Rows with a missing value are skipped,
+    // in the same way as PearsonCorrelationMatrixCalculator.loadData skips them. Returns the number of skipped rows.
+    public int addCompleteRows(DataFrame frame, int[] columns) {
+        return addColumns(frameColumns(frame, columns), frame.rowCount(), false);
+    }
+
+    // Returns the arrays of the given columns of a frame.
+    private double[][] frameColumns(DataFrame frame, int[] columns) {
+        if (columns.length != k) {
+            throw new IllegalArgumentException("Expected " + k + " columns, got " + columns.length);
+        }
+        double[][] values = new double[k][];
+        for (int j = 0; j < k; j++) {
+            values[j] = frame.numericColumn(columns[j]);
+        }
+        return values;
+    }
+
+    // Checks if no pair of columns has any row.
+    public boolean isEmpty() {
+        for (long n : count) {
+            if (n > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns the number of rows that were added for the pair of columns (i, j).
+    public long count(int i, int j) {
+        return count[index(i, j)];
+    }
+
+    // Returns the Pearson correlation of columns i and j (NaN if there are fewer than two rows or a column is constant).
+    public double correlation(int i, int j) {
+        int p = index(i, j);
+        if (count[p] < 2) {
+            return Double.NaN;
+        }
+        return coMoment[p] / Math.sqrt(m2I[p] * m2J[p]);
+    }
+
+    // Returns the full k x k correlation matrix, with 1 on the diagonal (the same layout as PearsonsCorrelation).
+    public double[][] correlationMatrix() {
+        double[][] matrix = new double[k][k];
+        for (int i = 0; i < k; i++) {
+            matrix[i][i] = 1.0;
+            for (int j = i + 1; j < k; j++) {
+                matrix[i][j] = correlation(i, j);
+                matrix[j][i] = matrix[i][j];
+            }
+        }
+        return matrix;
+    }
+
+    // Adds the dot products of every column of a with every column of b, over the first rows values, to result:
+    // result[i][j] += sum over r of a[i][r] * b[j][r]. The columns are padded to whole tiles. When a and b are the same
+    // columns (symmetric), only the tiles on and above the diagonal are computed.
+    private static void crossProduct(double[][] a, double[][] b, int rows, boolean symmetric, double[][] result,
+                                     double[] tile) {
+        for (int i = 0; i < a.length; i += TILE) {
+            for (int j = symmetric ? i : 0; j < b.length; j += TILE) {
+                kernel(a, i, b, j, 0, rows, tile);
+                for (int ti = 0; ti < TILE; ti++) {
+                    for (int tj = 0; tj < TILE; tj++) {
+                        result[i + ti][j + tj] += tile[ti * TILE + tj];
+                    }
+                }
+            }
+        }
+    }
+
+    // Multiplies the 4 columns of a starting at i with the 4 columns of b starting at j, over the rows [from, to).
+    private static void kernel(double[][] a, int i, double[][] b, int j, int from, int to, double[] tile) {
+        double[] a0 = a[i], a1 = a[i + 1], a2 = a[i + 2], a3 = a[i + 3];
+        double[] b0 = b[j], b1 = b[j + 1], b2 = b[j + 2], b3 = b[j + 3];
+        double s00 = 0, s01 = 0, s02 = 0, s03 = 0;
+        double s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+        double s20 = 0, s21 = 0, s22 = 0, s23 = 0;
+        double s30 = 0, s31 = 0, s32 = 0, s33 = 0;
+        for (int r = from; r < to; r++) {
+            double x0 = a0[r], x1 = a1[r], x2 = a2[r], x3 = a3[r];
+            double y0 = b0[r], y1 = b1[r], y2 = b2[r], y3 = b3[r];
+            s00 += x0 * y0;
+            s01 += x0 * y1;
+            s02 += x0 * y2;
+            s03 += x0 * y3;
+            s10 += x1 * y0;
+            s11 += x1 * y1;
+            s12 += x1 * y2;
+            s13 += x1 * y3;
+            s20 += x2 * y0;
+            s21 += x2 * y1;
+            s22 += x2 * y2;
+            s23 += x2 * y3;
+            s30 += x3 * y0;
+            s31 += x3 * y1;
+            s32 += x3 * y2;
+            s33 += x3 * y3;
+        }
+        tile[0] = s00;
+        tile[1] = s01;
+        tile[2] = s02;
+        tile[3] = s03;
+        tile[4] = s10;
+        tile[5] = s11;
+        tile[6] = s12;
+        tile[7] = s13;
+        tile[8] = s20;
+        tile[9] = s21;
+        tile[10] = s22;
+        tile[11] = s23;
+        tile[12] = s30;
+        tile[13] = s31;
+        tile[14] = s32;
+        tile[15] = s33;
+    }
+
+    // Returns the position of the pair (i, j) in the upper triangle arrays.
+    private int index(int i, int j) {
+        if (i > j) {
+            int t = i;
+            i = j;
+            j = t;
+        }
+        return i * k - i * (i - 1) / 2 + (j - i);
+    }
+}
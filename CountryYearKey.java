@@ -0,0 +1,51 @@
+// Composite join key made of an interned country id and a year.
+// Years that are whole numbers are stored as their int value; any other text (like an empty year) is interned
+// separately and stored above the int range, so it can never be equal to a real year.
+public final class CountryYearKey {
+
+    // Offset added to the ids of years that are not whole numbers.
+    static final long TEXT_YEAR_OFFSET = 1L << 32;
+
+    private final int country;
+    private final long year;
+
+    public CountryYearKey(int country, long year) {
+        this.country = country;
+        this.year = year;
+    }
+
+    // Returns the interned id of the country.
+    public int country() {
+        return country;
+    }
+
+    // Returns the year, or TEXT_YEAR_OFFSET plus the interned id for a year that is not a whole number.
+    public long year() {
+        return year;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CountryYearKey)) {
+            return false;
+        }
+        CountryYearKey other = (CountryYearKey) o;
+        return country == other.country && year == other.year;
+    }
+
+    @Override
+    public int hashCode() {
+        // mixes the two parts, so consecutive years of the same country spread over the table.
+        long h = country * 0x9E3779B97F4A7C15L + year;
+        h ^= h >>> 29;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return country + "-" + year;
+    }
+}
@@ -0,0 +1,141 @@
+import weka.classifiers.AbstractClassifier;
+import weka.classifiers.Classifier;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// k-fold cross validation that trains the folds at the same time, on a given executor.
+// The result is the same, bit for bit, as Evaluation.crossValidateModel with the same Random: the folds are built on the
+// calling thread in the same order (so the Random gives the same numbers), only the training runs in parallel, and the
+// trained models are then evaluated on the calling thread, fold by fold, in the same order as the serial run. So the
+// Evaluation sees exactly the same sequence of updates, and its sums are added up in the same order.
+public class CrossValidationRunner {
+
+    // Runs the training of the folds.
+    private final Executor executor;
+
+    public CrossValidationRunner(Executor executor) {
+        this.executor = executor;
+    }
+
+    // Cross validates a copy of the classifier on the data (whose class index must be set), like
+    // new Evaluation(data).crossValidateModel(classifier, data, folds, random).
+    public Evaluation crossValidate(Classifier classifier, Instances data, int folds, Random random) throws Exception {
+        return submit(classifier, data, folds, random).evaluate();
+    }
+
+    // Cross validates a classifier once for each target attribute, using a new Random with the same seed for each of them
+    // (as if crossValidate was called for each target in turn). The folds of all of the targets are trained at the same
+    // time. Returns the evaluations by target name, in the same order.
+    public Map<String, Evaluation> crossValidateTargets(Classifier classifier, Instances data, List<String> targets,
+                                                        int folds, long seed) throws Exception {
+        // submits the folds of every target before waiting for any of them.
+        List<PendingEvaluation> pending = new ArrayList<>();
+        for (String target : targets) {
+            if (data.attribute(target) == null) {
+                throw new IllegalArgumentException("No attribute named " + target);
+            }
+            Instances targetData = new Instances(data);
+            targetData.setClassIndex(targetData.attribute(target).index());
+            pending.add(submit(classifier, targetData, folds, new Random(seed)));
+        }
+        Map<String, Evaluation> evaluations = new LinkedHashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            evaluations.put(targets.get(i), pending.get(i).evaluate());
+        }
+        return evaluations;
+    }
+
+    // Builds the folds in the same way as Evaluation.crossValidateModel, and starts training a copy of the classifier on
+    // each of them.
+    private PendingEvaluation submit(Classifier classifier, Instances data, int folds, Random random) throws Exception {
+        PendingEvaluation pending = new PendingEvaluation(new Evaluation(data));
+        // randomizes a copy of the data (and stratifies it, for a nominal class).
+        Instances shuffled = new Instances(data);
+        shuffled.randomize(random);
+        if (shuffled.classAttribute().isNominal()) {
+            shuffled.stratify(folds);
+        }
+        for (int fold = 0; fold < folds; fold++) {
+            // trainCV also takes numbers from the random generator, so the folds are built on this thread, in order.
+            Instances train = shuffled.trainCV(folds, fold, random);
+            Instances test = shuffled.testCV(folds, fold);
+            Classifier copy = AbstractClassifier.makeCopy(classifier);
+            FutureTask<Classifier> task = new FutureTask<>(train(copy, train, fold));
+            executor.execute(task);
+            pending.folds.add(new Fold(train, test, task));
+        }
+        return pending;
+    }
+
+    // Returns a task that trains a classifier, recording the time of the fold in the Metrics.
+    private static Callable<Classifier> train(Classifier classifier, Instances train, int fold) {
+        return () -> {
+            String model = classifier.getClass().getSimpleName();
+            Metrics.FoldEvent event = new Metrics.FoldEvent();
+            event.begin();
+            long start = System.nanoTime();
+            classifier.buildClassifier(train);
+            Metrics.time("cv_fold_training", "model", model, System.nanoTime() - start);
+            event.end();
+            if (event.shouldCommit()) {
+                event.model = model;
+                event.fold = fold;
+                event.trainRows = train.numInstances();
+                event.commit();
+            }
+            return classifier;
+        };
+    }
+
+    // Training and test sets of a fold, and the training of its classifier.
+    private static final class Fold {
+        final Instances train;
+        final Instances test;
+        final FutureTask<Classifier> model;
+
+        Fold(Instances train, Instances test, FutureTask<Classifier> model) {
+            this.train = train;
+            this.test = test;
+            this.model = model;
+        }
+    }
+
+    // Evaluation whose folds are being trained.
+    private static final class PendingEvaluation {
+        final Evaluation evaluation;
+        final List<Fold> folds = new ArrayList<>();
+
+        PendingEvaluation(Evaluation evaluation) {
+            this.evaluation = evaluation;
+        }
+
+        // Waits for every fold and evaluates them in order, making the same calls as Evaluation.crossValidateModel.
+        Evaluation evaluate() throws Exception {
+            for (Fold fold : folds) {
+                Classifier model;
+                try {
+                    model = fold.model.get();
+                } catch (ExecutionException e) {
+                    // cancels the other folds, and rethrows the error of the training.
+                    folds.forEach(other -> other.model.cancel(true));
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+                long start = System.nanoTime();
+                evaluation.setPriors(fold.train);
+                evaluation.evaluateModel(model, fold.test);
+                Metrics.time("cv_fold_evaluation", "model", model.getClass().getSimpleName(), System.nanoTime() - start);
+            }
+            return evaluation;
+        }
+    }
+}
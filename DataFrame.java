@@ -0,0 +1,355 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Columnar table shared by all of the loaders.
+// Numeric columns are stored as double[] arrays, nominal columns (like Country) are stored as int[] codes into a
+// NominalDictionary, and every column has a bitmap that marks which rows are missing.
+// A missing numeric value is also stored as NaN, and a missing nominal value is stored as the code -1,
+// so kernels that work directly on the arrays don't need to check the bitmap.
+public class DataFrame {
+
+    // Names of the columns, in order.
+    private final String[] names;
+    // Marks which columns are nominal (all others are numeric).
+    private final boolean[] nominal;
+    // Values of the numeric columns (null for nominal columns).
+    private final double[][] numeric;
+    // Codes of the nominal columns (null for numeric columns).
+    private final int[][] codes;
+    // Dictionaries of the nominal columns (null for numeric columns).
+    private final NominalDictionary[] dictionaries;
+    // Missing value bitmap of each column, one bit per row packed in longs.
+    private final long[][] missing;
+    // Number of rows in the table.
+    private final int rowCount;
+
+    private DataFrame(String[] names, boolean[] nominal, double[][] numeric, int[][] codes,
+                      NominalDictionary[] dictionaries, long[][] missing, int rowCount) {
+        this.names = names;
+        this.nominal = nominal;
+        this.numeric = numeric;
+        this.codes = codes;
+        this.dictionaries = dictionaries;
+        this.missing = missing;
+        this.rowCount = rowCount;
+    }
+
+    // Creates a table straight from its column arrays, without copying them (used by ColumnarCache).
+    // Every array must already hold exactly rowCount values, with NaN / -1 in the missing positions.
+    static DataFrame fromColumns(String[] names, boolean[] nominal, double[][] numeric, int[][] codes,
+                                 NominalDictionary[] dictionaries, long[][] missing, int rowCount) {
+        return new DataFrame(names, nominal, numeric, codes, dictionaries, missing, rowCount);
+    }
+
+    // Creates a builder for a table with the given column names. The nominal array marks which columns are nominal.
+    public static Builder builder(String[] names, boolean[] nominal) {
+        return new Builder(names, nominal);
+    }
+
+    // Returns the number of rows.
+    public int rowCount() {
+        return rowCount;
+    }
+
+    // Returns the number of columns.
+    public int columnCount() {
+        return names.length;
+    }
+
+    // Returns the name of a column.
+    public String name(int column) {
+        return names[column];
+    }
+
+    // Returns a copy of the column names.
+    public String[] names() {
+        return names.clone();
+    }
+
+    // Returns the index of the column with the given name, or -1 if there's no such column.
+    public int columnIndex(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Checks if a column is nominal.
+    public boolean isNominal(int column) {
+        return nominal[column];
+    }
+
+    // Returns the values of a numeric column. The array is shared with the table, so it must not be modified.
+    public double[] numericColumn(int column) {
+        if (nominal[column]) {
+            throw new IllegalArgumentException("Column " + names[column] + " is nominal");
+        }
+        return numeric[column];
+    }
+
+    // Returns the codes of a nominal column. The array is shared with the table, so it must not be modified.
+    public int[] nominalColumn(int column) {
+        if (!nominal[column]) {
+            throw new IllegalArgumentException("Column " + names[column] + " is numeric");
+        }
+        return codes[column];
+    }
+
+    // Returns the dictionary of a nominal column.
+    public NominalDictionary dictionary(int column) {
+        return dictionaries[column];
+    }
+
+    // Returns the missing value bitmap of a column (bit i of word i / 64 is set when row i is missing).
+    public long[] missingBitmap(int column) {
+        return missing[column];
+    }
+
+    // Checks if the value of a column is missing in a row.
+    public boolean isMissing(int column, int row) {
+        return (missing[column][row >>> 6] & (1L << row)) != 0;
+    }
+
+    // Counts the missing values of a column.
+    public int missingCount(int column) {
+        int count = 0;
+        for (long word : missing[column]) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    // Returns the value of a numeric column in a row (NaN if it's missing).
+    public double getDouble(int column, int row) {
+        return numericColumn(column)[row];
+    }
+
+    // Returns the value of a nominal column in a row (null if it's missing).
+    public String getNominal(int column, int row) {
+        int code = nominalColumn(column)[row];
+        return code < 0 ? null : dictionaries[column].decode(code);
+    }
+
+    // Returns the value of any column in a row as text, or an empty string if it's missing.
+    // Whole numbers are written without a decimal part, so counts like "88672" keep their original form.
+    public String getText(int column, int row) {
+        if (isMissing(column, row)) {
+            return "";
+        }
+        if (nominal[column]) {
+            return dictionaries[column].decode(codes[column][row]);
+        }
+        return formatNumber(numeric[column][row]);
+    }
+
+    // Formats a number as text, without a decimal part if it's a whole number.
+    public static String formatNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    // Returns the rows of the table as arrays of text, in the same layout as CSVToARFFConverter.loadData (without the header).
+    public List<String[]> toTextRows() {
+        List<String[]> rows = new ArrayList<>(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            String[] values = new String[names.length];
+            for (int column = 0; column < names.length; column++) {
+                values[column] = getText(column, row);
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    // Builds a DataFrame one row at a time. The column arrays grow by doubling, and are trimmed once in build().
+    // Values that are never set in a row are recorded as missing when the row ends.
+    public static class Builder {
+
+        // Number of rows the column arrays can hold before they're first grown.
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private final String[] names;
+        private final boolean[] nominal;
+        private final double[][] numeric;
+        private final int[][] codes;
+        private final NominalDictionary[] dictionaries;
+        private final long[][] missing;
+        // Marks which columns were set in the current row.
+        private final boolean[] set;
+        private int capacity = INITIAL_CAPACITY;
+        private int rowCount;
+
+        private Builder(String[] names, boolean[] nominal) {
+            if (names.length != nominal.length) {
+                throw new IllegalArgumentException("Expected one nominal flag per column");
+            }
+            this.names = names.clone();
+            this.nominal = nominal.clone();
+            this.numeric = new double[names.length][];
+            this.codes = new int[names.length][];
+            this.dictionaries = new NominalDictionary[names.length];
+            this.missing = new long[names.length][];
+            this.set = new boolean[names.length];
+            // allocates the array of each column, according to its type.
+            for (int i = 0; i < names.length; i++) {
+                if (nominal[i]) {
+                    codes[i] = new int[capacity];
+                    dictionaries[i] = new NominalDictionary();
+                } else {
+                    numeric[i] = new double[capacity];
+                }
+                missing[i] = new long[(capacity + 63) >>> 6];
+            }
+        }
+
+        // Makes a nominal column use an existing dictionary, so several tables can share the same codes (e.g. country ids).
+        // Must be called before any value is added to the column.
+        public Builder useDictionary(int column, NominalDictionary dictionary) {
+            if (!nominal[column]) {
+                throw new IllegalArgumentException("Column " + names[column] + " is numeric");
+            }
+            dictionaries[column] = dictionary;
+            return this;
+        }
+
+        // Sets the value of a numeric column in the current row. NaN is recorded as missing.
+        public Builder setNumeric(int column, double value) {
+            if (!Double.isNaN(value)) {
+                numeric[column][rowCount] = value;
+                set[column] = true;
+            }
+            return this;
+        }
+
+        // Sets the value of a nominal column in the current row. Null and empty values are recorded as missing.
+        public Builder setNominal(int column, String value) {
+            if (value != null && !value.isEmpty()) {
+                codes[column][rowCount] = dictionaries[column].encode(value);
+                set[column] = true;
+            }
+            return this;
+        }
+
+        // Sets the value of any column from its text. Numeric columns that can't be parsed are recorded as missing.
+        public Builder setText(int column, String text) {
+            if (nominal[column]) {
+                return setNominal(column, text);
+            }
+            if (text == null || text.isEmpty()) {
+                return this;
+            }
+            try {
+                return setNumeric(column, Double.parseDouble(text));
+            } catch (NumberFormatException e) {
+                // non numeric values are treated as missing data.
+                return this;
+            }
+        }
+
+        // Finishes the current row: every column that was not set is marked as missing.
+        public void endRow() {
+            for (int column = 0; column < names.length; column++) {
+                if (set[column]) {
+                    set[column] = false;
+                } else {
+                    markMissing(column, rowCount);
+                }
+            }
+            rowCount++;
+            // grows the arrays when they're full.
+            if (rowCount == capacity) {
+                grow();
+            }
+        }
+
+        // Appends all of the rows of another table with the same columns. Nominal codes are translated to this builder's dictionaries.
+        public Builder appendAll(DataFrame other) {
+            if (other.columnCount() != names.length) {
+                throw new IllegalArgumentException("Expected " + names.length + " columns, got " + other.columnCount());
+            }
+            ensureCapacity(rowCount + other.rowCount());
+            for (int column = 0; column < names.length; column++) {
+                // translation table from the codes of the other table to the codes of this builder.
+                int[] translation = null;
+                if (nominal[column]) {
+                    List<String> values = other.dictionary(column).values();
+                    translation = new int[values.size()];
+                    for (int code = 0; code < translation.length; code++) {
+                        translation[code] = dictionaries[column].encode(values.get(code));
+                    }
+                }
+                for (int row = 0; row < other.rowCount(); row++) {
+                    if (other.isMissing(column, row)) {
+                        markMissing(column, rowCount + row);
+                    } else if (translation != null) {
+                        codes[column][rowCount + row] = translation[other.codes[column][row]];
+                    } else {
+                        numeric[column][rowCount + row] = other.numeric[column][row];
+                    }
+                }
+            }
+            rowCount += other.rowCount();
+            if (rowCount == capacity) {
+                grow();
+            }
+            return this;
+        }
+
+        // Returns the number of rows added so far.
+        public int rowCount() {
+            return rowCount;
+        }
+
+        // Builds the table, trimming the column arrays to the number of rows.
+        public DataFrame build() {
+            double[][] builtNumeric = new double[names.length][];
+            int[][] builtCodes = new int[names.length][];
+            long[][] builtMissing = new long[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                if (nominal[i]) {
+                    builtCodes[i] = Arrays.copyOf(codes[i], rowCount);
+                } else {
+                    builtNumeric[i] = Arrays.copyOf(numeric[i], rowCount);
+                }
+                builtMissing[i] = Arrays.copyOf(missing[i], (rowCount + 63) >>> 6);
+            }
+            return new DataFrame(names.clone(), nominal.clone(), builtNumeric, builtCodes,
+                    dictionaries.clone(), builtMissing, rowCount);
+        }
+
+        // Marks a value as missing: sets the bit and stores the NaN / -1 placeholder.
+        private void markMissing(int column, int row) {
+            missing[column][row >>> 6] |= 1L << row;
+            if (nominal[column]) {
+                codes[column][row] = -1;
+            } else {
+                numeric[column][row] = Double.NaN;
+            }
+        }
+
+        // Makes sure the arrays can hold at least the given number of rows plus the current one.
+        private void ensureCapacity(int rows) {
+            while (rows >= capacity) {
+                grow();
+            }
+        }
+
+        // Doubles the capacity of all of the column arrays.
+        private void grow() {
+            capacity *= 2;
+            for (int i = 0; i < names.length; i++) {
+                if (nominal[i]) {
+                    codes[i] = Arrays.copyOf(codes[i], capacity);
+                } else {
+                    numeric[i] = Arrays.copyOf(numeric[i], capacity);
+                }
+                missing[i] = Arrays.copyOf(missing[i], (capacity + 63) >>> 6);
+            }
+        }
+    }
+}
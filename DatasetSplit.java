@@ -1,18 +1,51 @@
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.core.converters.ArffSaver;
 import weka.filters.Filter;
 import weka.filters.unsupervised.instance.Randomize;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 public class DatasetSplit {
 
     public static void main(String[] args) {
+        String filePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_no_country.arff";  // Update with your dataset path
+        String outputDirectory = "/Users/dontronolone/Downloads/";
+
+        // --streaming splits the file in one pass without loading it, --folds=k splits it into k equal parts instead of
+        // 80/20, and --stratify=Country splits every country in the same proportions (both imply --streaming).
+        // The default dataset has no Country column, so --stratify needs another input, given as an argument that isn't an
+        // option (e.g. Imputed_Mortality_and_Nutrition_Data.csv, which the streaming split reads as CSV).
+        boolean streaming = false;
+        int folds = 0;
+        String stratifyColumn = null;
+        for (String arg : args) {
+            if (arg.equals("--streaming")) {
+                streaming = true;
+            } else if (arg.startsWith("--folds=")) {
+                folds = Integer.parseInt(arg.substring("--folds=".length()));
+                streaming = true;
+            } else if (arg.startsWith("--stratify=")) {
+                stratifyColumn = arg.substring("--stratify=".length());
+                streaming = true;
+            } else if (!arg.startsWith("--")) {
+                filePath = arg;
+            }
+        }
+        if (streaming) {
+            splitStreaming(filePath, outputDirectory, folds, stratifyColumn);
+            return;
+        }
+
         try {
             // Load the entire dataset
-            DataSource source = new DataSource("/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_no_country.arff");  // Update with your dataset path
-            Instances data = source.getDataSet();
+            // (read from its binary ColumnarCache when that is newer than the file, so only the first run parses the text)
+            Instances data = InstancesConverter.loadCached(filePath);
             data.setClassIndex(data.numAttributes() - 1);
 
             // Randomize the dataset
@@ -30,13 +63,13 @@ public class DatasetSplit {
             // Save the training set to a file
             ArffSaver saverTrain = new ArffSaver();
             saverTrain.setInstances(trainData);
-            saverTrain.setFile(new File("/Users/dontronolone/Downloads/trainData.arff"));
+            saverTrain.setFile(new File(outputDirectory + "trainData.arff"));
             saverTrain.writeBatch();
 
             // Save the test set to a file
             ArffSaver saverTest = new ArffSaver();
             saverTest.setInstances(testData);
-            saverTest.setFile(new File("/Users/dontronolone/Downloads/testData.arff"));
+            saverTest.setFile(new File(outputDirectory + "testData.arff"));
             saverTest.writeBatch();
 
             System.out.println("Training and test sets saved successfully.");
@@ -45,4 +78,34 @@ public class DatasetSplit {
             e.printStackTrace();
         }
     }
+
+    // Splits the file in a single pass, without loading it into memory: 80/20 into trainData.arff and testData.arff, or
+    // into fold1.arff .. foldk.arff when folds > 1 (.csv instead of .arff for a CSV file). The rows keep their order in
+    // every output, and a fixed seed makes the split the same on every run.
+    private static void splitStreaming(String filePath, String outputDirectory, int folds, String stratifyColumn) {
+        try {
+            StreamingSplitter splitter = new StreamingSplitter(42);
+            Path input = Paths.get(filePath);
+            List<Path> outputs = new ArrayList<>();
+            long[] counts;
+            // the rows are copied as they are, so a CSV input gives CSV outputs.
+            String extension = filePath.toLowerCase(Locale.ROOT).endsWith(".csv") ? ".csv" : ".arff";
+            if (folds > 1) {
+                for (int f = 1; f <= folds; f++) {
+                    outputs.add(Paths.get(outputDirectory, "fold" + f + extension));
+                }
+                counts = splitter.splitEvenly(input, outputs, stratifyColumn);
+            } else {
+                outputs.add(Paths.get(outputDirectory, "trainData" + extension));
+                outputs.add(Paths.get(outputDirectory, "testData" + extension));
+                counts = splitter.split(input, outputs, new double[]{0.8, 0.2}, stratifyColumn);
+            }
+            System.out.println("Rows per output " + outputs + ": " + Arrays.toString(counts));
+        } catch (IllegalArgumentException e) {
+            // e.g. a stratify column that the file doesn't have; nothing was written.
+            System.err.println(e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
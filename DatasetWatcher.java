@@ -0,0 +1,341 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+// Keeps the correlation matrix, the ridge regression model and the merged panel of a directory of CSV files up to date
+// while new files are dropped into it, instead of rerunning every tool on all of the files.
+// Every file has its own partial results: its rows, its CorrelationAccumulator and its RegressionStatistics. When a file
+// changes, only that file is read again, and when rows were only appended to it (the bytes it had before are unchanged),
+// only the new rows are parsed and added to its partial results. The outputs are then rebuilt from the partial results
+// (merging accumulators and statistics is O(k^2) per file, and fitting the model O(k^3)), and the merged panel is joined
+// again from the rows in memory, which takes milliseconds for these datasets.
+// A file is unchanged only if the checksum of all of its bytes is, so a rewrite with the same length and modification
+// time is still read again.
+// Events are collected until the directory has been quiet for QUIET_MILLIS, so a file that is being copied is read once.
+// A file that can't be read (e.g. one that is half written) is reported and keeps its last results, without stopping the
+// watch; it's read again on its next event.
+// Every output is written to a temporary file that is then moved over the old one, so readers never see half a file.
+public class DatasetWatcher {
+
+    // Time without events before the changed files are read.
+    private static final long QUIET_MILLIS = 500;
+    // Bytes read at a time when checking the contents of a file.
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+    private final String[] labels;
+    private final boolean pairwise;
+    private final Path matrixOutput;
+    private final Path modelOutput;
+    private final Path panelOutput;
+    private final ChunkedCSVParser parser = new ChunkedCSVParser();
+    // Partial results of every file, sorted by name so the panel doesn't depend on the order of the events.
+    private final Map<Path, Source> sources = new TreeMap<>();
+
+    // Watches a directory, and writes correlation_matrix.csv, model.txt and merged.arff to another one (which can be the
+    // same). The labels are the columns of the correlation matrix; the first one is the target of the regression, and the
+    // others its features.
+    public DatasetWatcher(Path directory, Path outputDirectory, String[] labels, boolean pairwise) {
+        this.directory = directory;
+        this.labels = labels;
+        this.pairwise = pairwise;
+        this.matrixOutput = outputDirectory.resolve("correlation_matrix.csv");
+        this.modelOutput = outputDirectory.resolve("model.txt");
+        this.panelOutput = outputDirectory.resolve("merged.arff");
+    }
+
+    public static void main(String[] args) {
+        // Defines the directory where the new CSV files are dropped (the first argument overrides it), and where the
+        // results are written (--output=directory).
+        String inputDirectory = "/Users/dontronolone/Downloads/incoming";  // Update with the path to your directory
+        String outputDirectory = "/Users/dontronolone/Downloads";
+        // With --pairwise, rows with missing values are used for the pairs of columns that they do have.
+        boolean pairwise = false;
+        // With --once, the files are read and the results written once, without watching the directory.
+        boolean once = false;
+        for (String arg : args) {
+            if (arg.startsWith("--output=")) {
+                outputDirectory = arg.substring("--output=".length());
+            } else if (arg.equals("--pairwise")) {
+                pairwise = true;
+            } else if (arg.equals("--once")) {
+                once = true;
+            } else if (!arg.startsWith("--")) {
+                inputDirectory = arg;
+            }
+        }
+
+        DatasetWatcher watcher = new DatasetWatcher(Paths.get(inputDirectory), Paths.get(outputDirectory),
+                PearsonCorrelationMatrixCalculator.LABELS, pairwise);
+        try {
+            if (once) {
+                watcher.update(PearsonCorrelationMatrixCalculator.listCsvFiles(inputDirectory));
+                watcher.writeOutputs();
+            } else {
+                watcher.watch();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Partial results of one file.
+    private static final class Source {
+        // Number of bytes that were read, and their checksum.
+        long length;
+        long checksum;
+        // Whether the bytes that were read end with a line break, so rows appended after them start a new line.
+        boolean endsWithLineBreak;
+        DataFrame frame;
+        // Null when the file doesn't have the label columns.
+        CorrelationAccumulator correlation;
+        RegressionStatistics regression;
+    }
+
+    // Reads every CSV file of the directory and writes the outputs, then updates them every time files are added,
+    // changed or deleted, until the thread is interrupted.
+    public void watch() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            // the files that are already there (registering first means none of the later changes are missed).
+            update(PearsonCorrelationMatrixCalculator.listCsvFiles(directory.toString()));
+            writeOutputs();
+            System.out.println("Watching " + directory + " for new CSV files.");
+            while (true) {
+                WatchKey key = watchService.take();
+                Set<Path> changed = new TreeSet<>();
+                boolean overflow = false;
+                // collects the events until the directory is quiet.
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            overflow = true;
+                        } else {
+                            changed.add(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        throw new IOException("Can't watch " + directory + " any more");
+                    }
+                    key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                // some events were lost, so every file is checked.
+                if (overflow) {
+                    changed.addAll(PearsonCorrelationMatrixCalculator.listCsvFiles(directory.toString()));
+                    changed.addAll(sources.keySet());
+                }
+                long start = System.nanoTime();
+                if (update(changed)) {
+                    try {
+                        writeOutputs();
+                        System.out.println("Results updated in " + (System.nanoTime() - start) / 1000000 + " ms.");
+                    } catch (IOException e) {
+                        // the old outputs are still complete, and are replaced after the next change.
+                        Metrics.count("watch_outputs_failed", 1);
+                        System.err.println("Can't write the results: " + e);
+                    }
+                }
+            }
+        }
+    }
+
+    // Updates the partial results of the given files (added, changed or deleted). Returns true if any of them changed.
+    public boolean update(Collection<Path> files) throws IOException {
+        long start = System.nanoTime();
+        boolean changed = false;
+        for (Path file : files) {
+            if (!isInput(file)) {
+                continue;
+            }
+            try {
+                changed |= refresh(file);
+            } catch (IOException | UncheckedIOException e) {
+                Metrics.count("watch_files_failed", 1);
+                System.err.println("Can't read " + file + ", keeping its last results: " + e);
+            }
+        }
+        Metrics.time("watch_update", System.nanoTime() - start);
+        return changed;
+    }
+
+    // Checks if a path is a CSV file to read (the outputs and their temporary files are not).
+    private boolean isInput(Path file) {
+        return file.getFileName().toString().endsWith(".csv") && !file.equals(matrixOutput);
+    }
+
+    // Updates the partial results of a file. Returns true if they changed.
+    private boolean refresh(Path file) throws IOException {
+        Source old = sources.get(file);
+        if (!Files.isRegularFile(file)) {
+            return sources.remove(file) != null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            // if the bytes that were read before are still the same, the file is unchanged when it has the same length,
+            // and the rows were only appended to it when it's longer.
+            CRC32C checksum = new CRC32C();
+            boolean sameStart = old != null && length >= old.length
+                    && update(checksum, channel, 0, old.length) == old.checksum;
+            if (sameStart && length == old.length) {
+                return false;
+            }
+            boolean appended = sameStart && old.endsWithLineBreak;
+            Source source;
+            DataFrame rows;
+            if (appended) {
+                source = old;
+                rows = parser.parse(file, nominalColumns(file), old.length, length);
+                source.frame = DataFrame.builder(old.frame.names(), nominalFlags(old.frame))
+                        .appendAll(old.frame).appendAll(rows).build();
+                update(checksum, channel, old.length, length);
+                Metrics.count("watch_files_appended", 1);
+            } else {
+                checksum.reset();
+                source = new Source();
+                rows = parser.parse(file, nominalColumns(file), 0, length);
+                source.frame = rows;
+                update(checksum, channel, 0, length);
+                Metrics.count("watch_files_parsed", 1);
+            }
+            addStatistics(source, rows);
+            source.length = length;
+            source.checksum = checksum.getValue();
+            source.endsWithLineBreak = length > 0 && lastByte(channel, length) == '\n';
+            sources.put(file, source);
+            Metrics.count("watch_rows_parsed", rows.rowCount());
+            return true;
+        } catch (NoSuchFileException e) {
+            // deleted since it was listed.
+            return sources.remove(file) != null;
+        }
+    }
+
+    // Adds rows of a file to its correlation accumulator and its regression statistics.
+    private void addStatistics(Source source, DataFrame rows) {
+        int[] columns = PearsonCorrelationMatrixCalculator.labelColumns(rows.names(), labels);
+        if (columns == null || rows.rowCount() == 0) {
+            return;
+        }
+        CorrelationAccumulator correlation = new CorrelationAccumulator(labels.length);
+        if (pairwise) {
+            correlation.addRowsPairwise(rows, columns);
+        } else {
+            correlation.addCompleteRows(rows, columns);
+        }
+        source.correlation = source.correlation == null ? correlation : source.correlation.merge(correlation);
+        if (source.regression == null) {
+            source.regression = new RegressionStatistics(labels.length - 1);
+        }
+        source.regression.addRows(rows, Arrays.copyOfRange(columns, 1, columns.length), columns[0]);
+    }
+
+    // Rebuilds the outputs from the partial results of the files, and replaces the old ones.
+    public void writeOutputs() throws IOException {
+        CorrelationAccumulator correlation = new CorrelationAccumulator(labels.length);
+        RegressionStatistics regression = new RegressionStatistics(labels.length - 1);
+        List<DataFrame> panel = new ArrayList<>();
+        for (Source source : sources.values()) {
+            if (source.correlation != null) {
+                correlation.merge(source.correlation);
+                regression.merge(source.regression);
+            }
+            if (source.frame.columnIndex("Country") >= 0 && source.frame.columnIndex("Year") >= 0) {
+                panel.add(source.frame);
+            }
+        }
+
+        if (!correlation.isEmpty()) {
+            double[][] matrix = correlation.correlationMatrix();
+            writeAtomically(matrixOutput, path -> PearsonCorrelationMatrixCalculator.writeMatrixToCSV(matrix, labels, path.toString()));
+        }
+        if (regression.rows() >= 2) {
+            LinearModel model = new RidgeRegression().fit(regression, Arrays.copyOfRange(labels, 1, labels.length), labels[0]);
+            writeAtomically(modelOutput, path -> {
+                try (FileWriter writer = new FileWriter(path.toFile())) {
+                    writer.write(model.toString());
+                }
+            });
+        }
+        if (!panel.isEmpty()) {
+            DataFrame merged = panel.size() == 1 ? panel.get(0) : new HashJoin().fullOuterJoin(panel, "Country", "Year");
+            writeAtomically(panelOutput, path -> ArffWriter.write(merged, "merged", path, false));
+        }
+    }
+
+    // Writes an output.
+    private interface Output {
+        void write(Path path) throws IOException;
+    }
+
+    // Writes an output to a temporary file, and then moves it over the old one in a single step.
+    private static void writeAtomically(Path target, Output output) throws IOException {
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        output.write(temporary);
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The first column of a file is nominal (the country), like in PearsonCorrelationMatrixCalculator.loadFrame.
+    private Set<String> nominalColumns(Path file) throws IOException {
+        String[] headers = parser.readHeader(file);
+        return headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0]);
+    }
+
+    private static boolean[] nominalFlags(DataFrame frame) {
+        boolean[] nominal = new boolean[frame.columnCount()];
+        for (int c = 0; c < nominal.length; c++) {
+            nominal[c] = frame.isNominal(c);
+        }
+        return nominal;
+    }
+
+    // Adds the bytes [from, to) of a file to a checksum, and returns its value.
+    private static long update(CRC32C checksum, FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = from;
+        while (position < to) {
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, to - position));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            checksum.update(buffer);
+            position += read;
+        }
+        return checksum.getValue();
+    }
+
+    private static byte lastByte(FileChannel channel, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1);
+        channel.read(buffer, length - 1);
+        return buffer.get(0);
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Correlation-guided feature selection: drops the features that are nearly copies of another one (e.g. BMI-for-age
+// <-3 SD and Weight-for-height <-3 SD, at 0.98), so the regression gets a reduced set of attributes.
+// The features are ranked by their absolute correlation with the target, and a feature is kept only if its absolute
+// correlation with every feature kept before it is at most the threshold.
+// The correlations come from the CorrelationAccumulator of PearsonCorrelationMatrixCalculator, which adds whole columns
+// with a blocked cross product (X^T X), so they scale to hundreds of indicators.
+public class FeatureSelector {
+
+    // Default threshold above which two features are considered redundant.
+    public static final double DEFAULT_THRESHOLD = 0.9;
+
+    private final double threshold;
+
+    public FeatureSelector(double threshold) {
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("Expected a threshold in (0, 1]: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    // Selects the features of a DataFrame for a target column. Returns the kept features (in their original order), and
+    // for every dropped one, the kept feature it's redundant with. Every row where both values of a pair are present is
+    // used for that pair.
+    public Selection select(DataFrame frame, int[] features, int targetColumn) {
+        double[][] columns = new double[features.length + 1][];
+        for (int i = 0; i < features.length; i++) {
+            columns[i] = frame.numericColumn(features[i]);
+        }
+        columns[features.length] = frame.numericColumn(targetColumn);
+        double[][] correlations = correlationMatrix(columns, frame.rowCount(), true);
+
+        // ranks the features by their absolute correlation with the target (features with no correlation come last).
+        Integer[] order = new Integer[features.length];
+        double[] relevance = new double[features.length];
+        for (int i = 0; i < features.length; i++) {
+            order[i] = i;
+            double r = Math.abs(correlations[i][features.length]);
+            relevance[i] = Double.isNaN(r) ? -1 : r;
+        }
+        // the sort is stable, so ties keep the column order.
+        Arrays.sort(order, (a, b) -> Double.compare(relevance[b], relevance[a]));
+
+        // keeps a feature unless it's too correlated with one that is already kept.
+        List<Integer> kept = new ArrayList<>();
+        int[] redundantWith = new int[features.length];
+        Arrays.fill(redundantWith, -1);
+        for (int i : order) {
+            for (int j : kept) {
+                // NaN (e.g. a constant column, or no rows in common) doesn't count as redundant.
+                if (Math.abs(correlations[i][j]) > threshold) {
+                    redundantWith[i] = j;
+                    break;
+                }
+            }
+            if (redundantWith[i] < 0) {
+                kept.add(i);
+            }
+        }
+        Collections.sort(kept);
+        int[] keptColumns = new int[kept.size()];
+        for (int i = 0; i < keptColumns.length; i++) {
+            keptColumns[i] = features[kept.get(i)];
+        }
+        List<String> dropped = new ArrayList<>();
+        for (int i = 0; i < features.length; i++) {
+            if (redundantWith[i] >= 0) {
+                int j = redundantWith[i];
+                dropped.add(frame.name(features[i]) + " (r = " + String.format("%.4f", correlations[i][j]) + " with "
+                        + frame.name(features[j]) + ")");
+            }
+        }
+        Metrics.count("features_pruned", dropped.size());
+        return new Selection(keptColumns, dropped);
+    }
+
+    // Features kept by a selection, and a description of each dropped one.
+    public static final class Selection {
+        private final int[] kept;
+        private final List<String> dropped;
+
+        Selection(int[] kept, List<String> dropped) {
+            this.kept = kept;
+            this.dropped = dropped;
+        }
+
+        // Columns of the kept features, in their original order.
+        public int[] kept() {
+            return kept.clone();
+        }
+
+        // The dropped features, e.g. "Weight-for-height <-3 SD (r = 0.9800 with BMI-for-age <-3 SD)".
+        public List<String> dropped() {
+            return Collections.unmodifiableList(dropped);
+        }
+    }
+
+    // Returns the Pearson correlation matrix of columns that may contain missing (NaN) values, with 1 on the diagonal
+    // and NaN for the pairs with fewer than two rows or a constant column. Without pairwise, only the rows that have
+    // every value are used; with pairwise, each pair of columns uses every row where both of its values are present.
+    // This is the same CorrelationAccumulator as PearsonCorrelationMatrixCalculator, fed whole columns.
+    public static double[][] correlationMatrix(double[][] columns, int rows, boolean pairwise) {
+        CorrelationAccumulator accumulator = new CorrelationAccumulator(columns.length);
+        accumulator.addColumns(columns, rows, pairwise);
+        return accumulator.correlationMatrix();
+    }
+}
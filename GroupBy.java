@@ -0,0 +1,586 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+// Group-by and aggregate over the columns of a DataFrame, e.g. the mean mortality of every country, or the 90th
+// percentile of every year: count, sum, mean, min, max and percentiles of the numeric columns, by one or two key columns
+// (a nominal column like Country, whose dictionary codes are used, and/or a whole number column like Year).
+// The rows are cut into chunks that are aggregated in parallel, each into its own partial result, and the partial
+// results are merged at the end. A partial result maps the packed key of a group (two ints in a long) to a group number
+// with a primitive open-addressing hash table, and keeps the statistics of every group in arrays indexed by that number:
+// a chunk first finds the group of each of its rows (rows of the same group usually follow each other, so the last key
+// is checked before the table), and then updates the statistics one column at a time, in tight loops over double[].
+// Percentiles come from a QuantileSketch per group, which merges like the other statistics, within 1% of the exact value.
+// Missing values are skipped (a group's count of a column is its number of values); rows with a missing key form their
+// own group. The groups are sorted by key in the result.
+public class GroupBy {
+
+    // Aggregate functions.
+    public enum Function {
+        COUNT, SUM, MEAN, MIN, MAX, PERCENTILE
+    }
+
+    // Smallest number of rows in a chunk, so small tables aren't split into chunks that cost more than they do.
+    private static final int MIN_CHUNK_ROWS = 1 << 16;
+    // Rows whose groups are found before their values are added.
+    private static final int BLOCK_ROWS = 4096;
+    // Key part of a missing value.
+    private static final int MISSING_KEY = Integer.MIN_VALUE;
+
+    private final List<String> keyColumns;
+    private final List<Aggregate> aggregates;
+
+    public GroupBy(List<String> keyColumns, List<Aggregate> aggregates) {
+        if (keyColumns.isEmpty() || keyColumns.size() > 2) {
+            throw new IllegalArgumentException("Expected one or two key columns");
+        }
+        if (aggregates.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one aggregate");
+        }
+        this.keyColumns = new ArrayList<>(keyColumns);
+        this.aggregates = new ArrayList<>(aggregates);
+    }
+
+    public static void main(String[] args) {
+        // Defines the dataset to aggregate, and where the result is saved (.csv, or .arff / .arff.gz).
+        String inputPath = "/Users/dontronolone/Downloads/Imputed_Mortality_and_Nutrition_Data.csv";  // Update with the path to your dataset
+        String outputPath = "/Users/dontronolone/Downloads/grouped.csv";
+
+        // --by=Country,Year picks the key columns, and --agg=count,mean(column),p90(column),... the aggregates.
+        List<String> keys = Collections.singletonList("Country");
+        String aggregateList = "count,mean(Under-five mortality rate (per 1000 live births) (SDG 3.2.1)),"
+                + "min(Under-five mortality rate (per 1000 live births) (SDG 3.2.1)),"
+                + "max(Under-five mortality rate (per 1000 live births) (SDG 3.2.1)),"
+                + "p50(Under-five mortality rate (per 1000 live births) (SDG 3.2.1))";
+        for (String arg : args) {
+            if (arg.startsWith("--by=")) {
+                keys = Arrays.asList(arg.substring("--by=".length()).split(","));
+            } else if (arg.startsWith("--agg=")) {
+                aggregateList = arg.substring("--agg=".length());
+            }
+        }
+
+        try {
+            String name = inputPath.toLowerCase(Locale.ROOT);
+            DataFrame frame = name.endsWith(".arff") || name.endsWith(".arff.gz")
+                    ? InstancesConverter.loadCachedFrame(inputPath)
+                    : ColumnarCache.loadCsv(Paths.get(inputPath), Collections.singleton("Country"));
+            DataFrame result = new GroupBy(keys, Aggregate.parseList(aggregateList)).apply(frame);
+            write(result, Paths.get(outputPath));
+            System.out.println(result.rowCount() + " groups saved to: " + outputPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // An aggregate of a column, e.g. mean(Year), or the number of rows of a group (count with no column).
+    public static final class Aggregate {
+        private final Function function;
+        private final String column;
+        // Quantile of a percentile, in [0, 1].
+        private final double quantile;
+
+        public Aggregate(Function function, String column, double quantile) {
+            if (column == null && function != Function.COUNT) {
+                throw new IllegalArgumentException("Only count can have no column");
+            }
+            if (function == Function.PERCENTILE && !(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("Expected a quantile in [0, 1]: " + quantile);
+            }
+            this.function = function;
+            this.column = column;
+            this.quantile = quantile;
+        }
+
+        public static Aggregate of(Function function, String column) {
+            return new Aggregate(function, column, 0);
+        }
+
+        public static Aggregate percentile(double percentile, String column) {
+            return new Aggregate(Function.PERCENTILE, column, percentile / 100);
+        }
+
+        // Parses an aggregate: count, count(column), sum(column), mean(column), min(column), max(column), or pN(column)
+        // for the N-th percentile (e.g. p50, p90, p99.9).
+        public static Aggregate parse(String text) {
+            String trimmed = text.trim();
+            int open = trimmed.indexOf('(');
+            if (open < 0) {
+                if (trimmed.equalsIgnoreCase("count")) {
+                    return of(Function.COUNT, null);
+                }
+                throw new IllegalArgumentException("Expected function(column): " + text);
+            }
+            if (!trimmed.endsWith(")")) {
+                throw new IllegalArgumentException("Expected function(column): " + text);
+            }
+            String function = trimmed.substring(0, open).trim().toLowerCase(Locale.ROOT);
+            String column = trimmed.substring(open + 1, trimmed.length() - 1).trim();
+            if (function.startsWith("p") && function.length() > 1 && Character.isDigit(function.charAt(1))) {
+                return percentile(Double.parseDouble(function.substring(1)), column);
+            }
+            return of(Function.valueOf(function.toUpperCase(Locale.ROOT)), column);
+        }
+
+        // Parses a comma separated list of aggregates (commas inside the parentheses are part of the column name).
+        public static List<Aggregate> parseList(String text) {
+            List<Aggregate> aggregates = new ArrayList<>();
+            int depth = 0;
+            int start = 0;
+            for (int i = 0; i <= text.length(); i++) {
+                char c = i < text.length() ? text.charAt(i) : ',';
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    if (!text.substring(start, i).trim().isEmpty()) {
+                        aggregates.add(parse(text.substring(start, i)));
+                    }
+                    start = i + 1;
+                }
+            }
+            return aggregates;
+        }
+
+        // Name of the result column, e.g. "mean(Year)" or "p90(Year)".
+        public String name() {
+            if (column == null) {
+                return "count";
+            }
+            String function = this.function == Function.PERCENTILE
+                    ? "p" + DataFrame.formatNumber(quantile * 100)
+                    : this.function.name().toLowerCase(Locale.ROOT);
+            return function + "(" + column + ")";
+        }
+    }
+
+    // Groups the rows of a DataFrame and returns one row per group: the key columns, then one column per aggregate.
+    public DataFrame apply(DataFrame frame) {
+        int[] keys = new int[keyColumns.size()];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = frame.columnIndex(keyColumns.get(k));
+            if (keys[k] < 0) {
+                throw new IllegalArgumentException("No column named " + keyColumns.get(k));
+            }
+        }
+        // the columns whose statistics are kept (each one once, however many aggregates use it), and which of them
+        // need a sketch.
+        Map<String, Integer> valueIndexes = new LinkedHashMap<>();
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.column != null && !valueIndexes.containsKey(aggregate.column)) {
+                int column = frame.columnIndex(aggregate.column);
+                if (column < 0 || frame.isNominal(column)) {
+                    throw new IllegalArgumentException("Expected a numeric column named " + aggregate.column);
+                }
+                valueIndexes.put(aggregate.column, valueIndexes.size());
+            }
+        }
+        int[] values = new int[valueIndexes.size()];
+        boolean[] sketched = new boolean[values.length];
+        for (Map.Entry<String, Integer> entry : valueIndexes.entrySet()) {
+            values[entry.getValue()] = frame.columnIndex(entry.getKey());
+        }
+        for (Aggregate aggregate : aggregates) {
+            if (aggregate.function == Function.PERCENTILE) {
+                sketched[valueIndexes.get(aggregate.column)] = true;
+            }
+        }
+
+        // aggregates the chunks in parallel, and merges the partial results.
+        int rows = frame.rowCount();
+        int chunks = Math.max(1, Math.min(rows / MIN_CHUNK_ROWS, ForkJoinPool.getCommonPoolParallelism() * 4));
+        long start = System.nanoTime();
+        Partial total = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    Partial partial = new Partial(values.length, sketched);
+                    partial.add(frame, keys, values, (int) ((long) rows * chunk / chunks), (int) ((long) rows * (chunk + 1) / chunks));
+                    return partial;
+                })
+                .reduce(Partial::merge)
+                .orElseGet(() -> new Partial(values.length, sketched));
+        Metrics.time("group_by", System.nanoTime() - start);
+        Metrics.count("group_by_rows", rows);
+        return toFrame(frame, keys, valueIndexes, total);
+    }
+
+    // Builds the result, with the groups sorted by key.
+    private DataFrame toFrame(DataFrame frame, int[] keys, Map<String, Integer> valueIndexes, Partial total) {
+        String[] names = new String[keys.length + aggregates.size()];
+        boolean[] nominal = new boolean[names.length];
+        for (int k = 0; k < keys.length; k++) {
+            names[k] = frame.name(keys[k]);
+            nominal[k] = frame.isNominal(keys[k]);
+        }
+        for (int a = 0; a < aggregates.size(); a++) {
+            names[keys.length + a] = aggregates.get(a).name();
+        }
+
+        Integer[] order = new Integer[total.groups];
+        for (int g = 0; g < order.length; g++) {
+            order[g] = g;
+        }
+        Arrays.sort(order, (a, b) -> {
+            for (int k = 0; k < keys.length; k++) {
+                int compared = compareKeyParts(frame, keys[k], keyPart(total.groupKeys[a], k), keyPart(total.groupKeys[b], k));
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        });
+
+        DataFrame.Builder builder = DataFrame.builder(names, nominal);
+        for (int g : order) {
+            for (int k = 0; k < keys.length; k++) {
+                int part = keyPart(total.groupKeys[g], k);
+                if (part == MISSING_KEY) {
+                    continue;
+                }
+                if (nominal[k]) {
+                    builder.setNominal(k, frame.dictionary(keys[k]).decode(part));
+                } else {
+                    builder.setNumeric(k, part);
+                }
+            }
+            for (int a = 0; a < aggregates.size(); a++) {
+                Aggregate aggregate = aggregates.get(a);
+                double value;
+                if (aggregate.column == null) {
+                    value = total.groupRows[g];
+                } else {
+                    int v = valueIndexes.get(aggregate.column);
+                    long count = total.counts[v][g];
+                    switch (aggregate.function) {
+                        case COUNT:
+                            value = count;
+                            break;
+                        case SUM:
+                            value = total.sums[v][g];
+                            break;
+                        case MEAN:
+                            value = count == 0 ? Double.NaN : total.sums[v][g] / count;
+                            break;
+                        case MIN:
+                            value = count == 0 ? Double.NaN : total.mins[v][g];
+                            break;
+                        case MAX:
+                            value = count == 0 ? Double.NaN : total.maxs[v][g];
+                            break;
+                        default:
+                            value = total.sketches[v][g].quantile(aggregate.quantile);
+                            break;
+                    }
+                }
+                builder.setNumeric(keys.length + a, value);
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    // Orders two key parts: nominal values by their text, numbers by value, and missing values last.
+    private static int compareKeyParts(DataFrame frame, int column, int a, int b) {
+        if (a == b) {
+            return 0;
+        }
+        if (a == MISSING_KEY || b == MISSING_KEY) {
+            return a == MISSING_KEY ? 1 : -1;
+        }
+        if (frame.isNominal(column)) {
+            NominalDictionary dictionary = frame.dictionary(column);
+            return dictionary.decode(a).compareTo(dictionary.decode(b));
+        }
+        return Integer.compare(a, b);
+    }
+
+    // Returns a part of a packed key (the first key column is in the high half).
+    private static int keyPart(long key, int part) {
+        return part == 0 ? (int) (key >>> 32) : (int) key;
+    }
+
+    // Statistics of the groups of a part of the rows.
+    private static final class Partial {
+        private final LongIntTable table = new LongIntTable();
+        private final boolean[] sketched;
+        private int groups;
+        private long[] groupKeys = new long[16];
+        private long[] groupRows = new long[16];
+        // statistics of every value column, by group.
+        private long[][] counts;
+        private double[][] sums;
+        private double[][] mins;
+        private double[][] maxs;
+        private QuantileSketch[][] sketches;
+
+        Partial(int valueColumns, boolean[] sketched) {
+            this.sketched = sketched;
+            counts = new long[valueColumns][16];
+            sums = new double[valueColumns][16];
+            mins = new double[valueColumns][16];
+            maxs = new double[valueColumns][16];
+            sketches = new QuantileSketch[valueColumns][];
+            for (int v = 0; v < valueColumns; v++) {
+                Arrays.fill(mins[v], Double.POSITIVE_INFINITY);
+                Arrays.fill(maxs[v], Double.NEGATIVE_INFINITY);
+                if (sketched[v]) {
+                    sketches[v] = new QuantileSketch[16];
+                }
+            }
+        }
+
+        // Adds the rows [from, to) of a frame, a block at a time, so the group numbers of a block stay in the cache
+        // while its columns are added.
+        void add(DataFrame frame, int[] keys, int[] values, int from, int to) {
+            int[] groupOf = new int[BLOCK_ROWS];
+            int[] first = new int[BLOCK_ROWS];
+            int[] second = keys.length > 1 ? new int[BLOCK_ROWS] : null;
+            for (int start = from; start < to; start += BLOCK_ROWS) {
+                int end = Math.min(to, start + BLOCK_ROWS);
+                int length = end - start;
+                // finds the group of every row.
+                keyParts(frame, keys[0], start, end, first);
+                if (second != null) {
+                    keyParts(frame, keys[1], start, end, second);
+                }
+                long lastKey = 0;
+                int lastGroup = -1;
+                for (int r = 0; r < length; r++) {
+                    long key = second == null ? (long) first[r] << 32 : ((long) first[r] << 32) | (second[r] & 0xFFFFFFFFL);
+                    if (lastGroup < 0 || key != lastKey) {
+                        lastKey = key;
+                        lastGroup = group(key);
+                    }
+                    groupOf[r] = lastGroup;
+                    groupRows[lastGroup]++;
+                }
+                // updates the statistics, one column at a time.
+                for (int v = 0; v < values.length; v++) {
+                    addColumn(v, frame.numericColumn(values[v]), start, groupOf, length);
+                }
+            }
+        }
+
+        private void addColumn(int v, double[] column, int start, int[] groupOf, int length) {
+            long[] count = counts[v];
+            double[] sum = sums[v];
+            double[] min = mins[v];
+            double[] max = maxs[v];
+            for (int r = 0; r < length; r++) {
+                double x = column[start + r];
+                // missing values are NaN.
+                if (x == x) {
+                    int g = groupOf[r];
+                    count[g]++;
+                    sum[g] += x;
+                    if (x < min[g]) {
+                        min[g] = x;
+                    }
+                    if (x > max[g]) {
+                        max[g] = x;
+                    }
+                }
+            }
+            if (sketched[v]) {
+                QuantileSketch[] sketch = sketches[v];
+                for (int r = 0; r < length; r++) {
+                    double x = column[start + r];
+                    if (x == x) {
+                        sketch[groupOf[r]].add(x);
+                    }
+                }
+            }
+        }
+
+        // Returns the group of a key, adding it if it's new.
+        private int group(long key) {
+            int group = table.get(key);
+            if (group >= 0) {
+                return group;
+            }
+            group = groups++;
+            if (group == groupKeys.length) {
+                grow();
+            }
+            table.put(key, group);
+            groupKeys[group] = key;
+            for (int v = 0; v < sketches.length; v++) {
+                if (sketched[v]) {
+                    sketches[v][group] = new QuantileSketch();
+                }
+            }
+            return group;
+        }
+
+        private void grow() {
+            int size = groupKeys.length * 2;
+            groupKeys = Arrays.copyOf(groupKeys, size);
+            groupRows = Arrays.copyOf(groupRows, size);
+            for (int v = 0; v < counts.length; v++) {
+                int old = counts[v].length;
+                counts[v] = Arrays.copyOf(counts[v], size);
+                sums[v] = Arrays.copyOf(sums[v], size);
+                mins[v] = Arrays.copyOf(mins[v], size);
+                maxs[v] = Arrays.copyOf(maxs[v], size);
+                Arrays.fill(mins[v], old, size, Double.POSITIVE_INFINITY);
+                Arrays.fill(maxs[v], old, size, Double.NEGATIVE_INFINITY);
+                if (sketched[v]) {
+                    sketches[v] = Arrays.copyOf(sketches[v], size);
+                }
+            }
+        }
+
+        // Adds the groups of another partial result to this one.
+        Partial merge(Partial other) {
+            for (int o = 0; o < other.groups; o++) {
+                int g = group(other.groupKeys[o]);
+                groupRows[g] += other.groupRows[o];
+                for (int v = 0; v < counts.length; v++) {
+                    counts[v][g] += other.counts[v][o];
+                    sums[v][g] += other.sums[v][o];
+                    mins[v][g] = Math.min(mins[v][g], other.mins[v][o]);
+                    maxs[v][g] = Math.max(maxs[v][g], other.maxs[v][o]);
+                    if (sketched[v]) {
+                        sketches[v][g].merge(other.sketches[v][o]);
+                    }
+                }
+            }
+            return this;
+        }
+    }
+
+    // Puts the key parts of the rows [from, to) of a column in parts: the dictionary code of a nominal value, or the value
+    // of a whole number, and MISSING_KEY for a missing value.
+    private static void keyParts(DataFrame frame, int column, int from, int to, int[] parts) {
+        if (frame.isNominal(column)) {
+            int[] codes = frame.nominalColumn(column);
+            for (int r = from; r < to; r++) {
+                parts[r - from] = codes[r] < 0 ? MISSING_KEY : codes[r];
+            }
+        } else {
+            double[] numbers = frame.numericColumn(column);
+            for (int r = from; r < to; r++) {
+                double x = numbers[r];
+                if (Double.isNaN(x)) {
+                    parts[r - from] = MISSING_KEY;
+                } else if (x == (int) x && x != MISSING_KEY) {
+                    parts[r - from] = (int) x;
+                } else {
+                    throw new IllegalArgumentException("Key column " + frame.name(column) + " has a value that is not a whole number: " + x);
+                }
+            }
+        }
+    }
+
+    // Open-addressing hash table from long keys to int values, with linear probing. The table is kept at most half full,
+    // so a lookup usually checks one or two slots.
+    private static final class LongIntTable {
+        private long[] keys = new long[64];
+        // value of each slot, or -1 for an empty slot.
+        private int[] values = emptyValues(64);
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                if (values[slot] < 0) {
+                    return -1;
+                }
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+        }
+
+        // Adds a key that is not in the table.
+        void put(long key, int value) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            insert(key, value);
+            size++;
+        }
+
+        private void insert(long key, int value) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = emptyValues(keys.length);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldValues[slot] >= 0) {
+                    insert(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int[] emptyValues(int size) {
+            int[] values = new int[size];
+            Arrays.fill(values, -1);
+            return values;
+        }
+
+        // Mixes the bits of a key (the finalizer of MurmurHash3), so keys that differ only in the year spread out.
+        private static int hash(long key) {
+            key ^= key >>> 33;
+            key *= 0xFF51AFD7ED558CCDL;
+            key ^= key >>> 33;
+            key *= 0xC4CEB9FE1A85EC53L;
+            key ^= key >>> 33;
+            return (int) key;
+        }
+    }
+
+    // Writes a result as ARFF (when the name ends with .arff or .arff.gz) or as CSV.
+    static void write(DataFrame result, Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".arff") || name.endsWith(".arff.gz")) {
+            ArffWriter.write(result, "grouped", path, false);
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(csvLine(result.names()));
+            for (String[] row : result.toTextRows()) {
+                writer.write(csvLine(row));
+            }
+        }
+    }
+
+    // Joins the fields of a CSV line, quoting the ones that contain a comma, a quote or a line break.
+    private static String csvLine(String[] fields) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            String field = fields[i] == null ? "" : fields[i];
+            if (i > 0) {
+                line.append(',');
+            }
+            if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+                line.append('"').append(field.replace("\"", "\"\"")).append('"');
+            } else {
+                line.append(field);
+            }
+        }
+        return line.append('\n').toString();
+    }
+}
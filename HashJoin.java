@@ -0,0 +1,265 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Full outer hash join of any number of datasets on their Country and Year.
+// Each input is indexed once in a hash table keyed by CountryYearKey (interned country id plus int year), the rows of
+// the result so far probe it once, and a bitset records which keys of the input were matched, so the unmatched rows can
+// be appended without scanning the result again. Joining n inputs is linear in the total number of rows.
+// The number of keys that found (or didn't find) a match is added to the Metrics once per join.
+public class HashJoin {
+
+    // Interns the country names, so the keys compare two ints instead of two strings.
+    private final NominalDictionary countries = new NominalDictionary();
+    // Interns the years that are not whole numbers.
+    private final NominalDictionary textYears = new NominalDictionary();
+
+    // Builds the key of a country and a year, given as text. Null values get the key of the text "null", in the same way
+    // as the string keys of SimulatedAnnealingMerge.outerJoin.
+    public CountryYearKey key(String country, String year) {
+        int countryId = countries.encode(String.valueOf(country));
+        return new CountryYearKey(countryId, yearKey(String.valueOf(year)));
+    }
+
+    // Joins the rows of several datasets, in the same way as SimulatedAnnealingMerge.outerJoin joins two of them:
+    // a row takes the values of every later input row with the same Country and Year, without replacing the values it
+    // already has, and every header it still lacks is set to an empty string. Every row of the first input is kept; when a
+    // later input has several rows with the same key, the last one is used. Rows whose key doesn't appear in any earlier
+    // input are added after the existing rows.
+    public List<Map<String, String>> fullOuterJoin(List<List<Map<String, String>>> inputs, Set<String> headers) {
+        List<Map<String, String>> merged = new ArrayList<>();
+        // keys of the merged rows, in the same order, so they are only built once.
+        List<CountryYearKey> mergedKeys = new ArrayList<>();
+        if (inputs.isEmpty()) {
+            return merged;
+        }
+        Metrics.JoinEvent event = new Metrics.JoinEvent();
+        event.begin();
+        // probes of the merged rows that found (hits) or didn't find (misses) a row of the later inputs.
+        long hits = 0;
+        long misses = 0;
+        // the rows of the first input are copied as they are.
+        for (Map<String, String> row : inputs.get(0)) {
+            merged.add(new HashMap<>(row));
+            mergedKeys.add(key(row.get("Country"), row.get("Year")));
+        }
+        for (List<Map<String, String>> input : inputs.subList(1, inputs.size())) {
+            // indexes the input: each distinct key gets a slot, which holds the last row with that key.
+            Map<CountryYearKey, Integer> slots = new HashMap<>();
+            List<CountryYearKey> slotKeys = new ArrayList<>();
+            List<Map<String, String>> slotRows = new ArrayList<>();
+            for (Map<String, String> row : input) {
+                CountryYearKey key = key(row.get("Country"), row.get("Year"));
+                Integer slot = slots.get(key);
+                if (slot == null) {
+                    slots.put(key, slotKeys.size());
+                    slotKeys.add(key);
+                    slotRows.add(row);
+                } else {
+                    slotRows.set(slot, row);
+                }
+            }
+
+            // probes the index with every merged row, filling in the values that the row doesn't have yet.
+            BitSet matched = new BitSet(slotKeys.size());
+            for (int i = 0; i < merged.size(); i++) {
+                Integer slot = slots.get(mergedKeys.get(i));
+                if (slot != null) {
+                    matched.set(slot);
+                    Map<String, String> mergedRow = merged.get(i);
+                    slotRows.get(slot).forEach(mergedRow::putIfAbsent);
+                    hits++;
+                } else {
+                    misses++;
+                }
+            }
+
+            // adds a copy of every row whose key was not matched.
+            for (int slot = matched.nextClearBit(0); slot < slotKeys.size(); slot = matched.nextClearBit(slot + 1)) {
+                merged.add(new HashMap<>(slotRows.get(slot)));
+                mergedKeys.add(slotKeys.get(slot));
+            }
+        }
+        // adds all of the headers that a row still doesn't have, with a blank value.
+        for (Map<String, String> row : merged) {
+            headers.forEach(header -> row.putIfAbsent(header, ""));
+        }
+        recordJoin(event, inputs.size(), hits, misses, merged.size());
+        return merged;
+    }
+
+    // Joins several DataFrames on a country column and a year column.
+    // The result has the columns of all of the inputs, in order of first appearance, with the key columns only once.
+    // Each value comes from the first input (in input order) whose matching row has a value in that column.
+    // A column keeps the type it has in the first input that contains it; values of a different type are left missing.
+    public DataFrame fullOuterJoin(List<DataFrame> inputs, String countryColumn, String yearColumn) {
+        // collects the output columns and their types.
+        Map<String, Boolean> columns = new LinkedHashMap<>();
+        for (DataFrame input : inputs) {
+            for (int c = 0; c < input.columnCount(); c++) {
+                columns.putIfAbsent(input.name(c), input.isNominal(c));
+            }
+        }
+
+        Metrics.JoinEvent event = new Metrics.JoinEvent();
+        event.begin();
+        // keys of the later inputs that were (hits) or weren't (misses) already in the result.
+        long hits = 0;
+        long misses = 0;
+        // for every output row, the source row of each input (-1 when the input has no row with that key).
+        List<int[]> sources = new ArrayList<>();
+        Map<CountryYearKey, Integer> outputRows = new HashMap<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            DataFrame input = inputs.get(i);
+            CountryYearKey[] keys = frameKeys(input, countryColumn, yearColumn);
+            // indexes the input, keeping the last row of each key.
+            Map<CountryYearKey, Integer> slots = new HashMap<>();
+            for (int row = 0; row < keys.length; row++) {
+                slots.put(keys[row], row);
+            }
+            // links every key of the input to its output row, adding new output rows for the keys seen for the first time.
+            BitSet seen = new BitSet(keys.length);
+            for (int row = 0; row < keys.length; row++) {
+                int slotRow = slots.get(keys[row]);
+                if (seen.get(slotRow)) {
+                    continue;
+                }
+                seen.set(slotRow);
+                Integer outputRow = outputRows.get(keys[row]);
+                if (i > 0) {
+                    if (outputRow != null) {
+                        hits++;
+                    } else {
+                        misses++;
+                    }
+                }
+                if (outputRow == null) {
+                    outputRow = sources.size();
+                    outputRows.put(keys[row], outputRow);
+                    int[] source = new int[inputs.size()];
+                    Arrays.fill(source, -1);
+                    sources.add(source);
+                }
+                sources.get(outputRow)[i] = slotRow;
+            }
+        }
+
+        // builds the result, one row at a time.
+        String[] names = columns.keySet().toArray(new String[0]);
+        boolean[] nominal = new boolean[names.length];
+        for (int c = 0; c < names.length; c++) {
+            nominal[c] = columns.get(names[c]);
+        }
+        // position of every output column in every input (-1 when the input doesn't have it, or has a different type).
+        int[][] inputColumns = new int[inputs.size()][names.length];
+        for (int i = 0; i < inputs.size(); i++) {
+            for (int c = 0; c < names.length; c++) {
+                int column = inputs.get(i).columnIndex(names[c]);
+                inputColumns[i][c] = column >= 0 && inputs.get(i).isNominal(column) == nominal[c] ? column : -1;
+            }
+        }
+        DataFrame.Builder builder = DataFrame.builder(names, nominal);
+        for (int[] source : sources) {
+            for (int c = 0; c < names.length; c++) {
+                // takes the value of the first input that has one.
+                for (int i = 0; i < inputs.size(); i++) {
+                    int column = inputColumns[i][c];
+                    int row = source[i];
+                    if (row < 0 || column < 0 || inputs.get(i).isMissing(column, row)) {
+                        continue;
+                    }
+                    if (nominal[c]) {
+                        builder.setNominal(c, inputs.get(i).getNominal(column, row));
+                    } else {
+                        builder.setNumeric(c, inputs.get(i).getDouble(column, row));
+                    }
+                    break;
+                }
+            }
+            builder.endRow();
+        }
+        recordJoin(event, inputs.size(), hits, misses, sources.size());
+        return builder.build();
+    }
+
+    // Adds the hits and misses of a join to the Metrics, and commits its JFR event.
+    private static void recordJoin(Metrics.JoinEvent event, int inputs, long hits, long misses, long rows) {
+        Metrics.count("join_hits", hits);
+        Metrics.count("join_misses", misses);
+        Metrics.count("join_rows", rows);
+        if (hits + misses > 0) {
+            Metrics.gauge("join_hit_rate", (double) hits / (hits + misses));
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputs = inputs;
+            event.hits = hits;
+            event.misses = misses;
+            event.rows = rows;
+            event.commit();
+        }
+    }
+
+    // Builds the key of every row of a DataFrame. Country codes are translated to interned ids once per dictionary entry,
+    // so no strings are created per row.
+    private CountryYearKey[] frameKeys(DataFrame frame, String countryColumn, String yearColumn) {
+        int countryIndex = frame.columnIndex(countryColumn);
+        int yearIndex = frame.columnIndex(yearColumn);
+        if (countryIndex < 0 || yearIndex < 0) {
+            throw new IllegalArgumentException("Expected the columns " + countryColumn + " and " + yearColumn);
+        }
+        int nullCountry = countries.encode("null");
+        int[] countryIds = null;
+        if (frame.isNominal(countryIndex)) {
+            List<String> values = frame.dictionary(countryIndex).values();
+            countryIds = new int[values.size()];
+            for (int code = 0; code < countryIds.length; code++) {
+                countryIds[code] = countries.encode(values.get(code));
+            }
+        }
+        CountryYearKey[] keys = new CountryYearKey[frame.rowCount()];
+        for (int row = 0; row < keys.length; row++) {
+            int country;
+            if (frame.isMissing(countryIndex, row)) {
+                country = nullCountry;
+            } else if (countryIds != null) {
+                country = countryIds[frame.nominalColumn(countryIndex)[row]];
+            } else {
+                country = countries.encode(frame.getText(countryIndex, row));
+            }
+            long year;
+            if (frame.isMissing(yearIndex, row)) {
+                year = yearKey("null");
+            } else if (!frame.isNominal(yearIndex) && frame.getDouble(yearIndex, row) == (int) frame.getDouble(yearIndex, row)) {
+                year = (int) frame.getDouble(yearIndex, row);
+            } else {
+                year = yearKey(frame.getText(yearIndex, row));
+            }
+            keys[row] = new CountryYearKey(country, year);
+        }
+        return keys;
+    }
+
+    // Returns the key part of a year: the int value of a whole number written in its plain form, or an interned id otherwise.
+    private long yearKey(String year) {
+        int length = year.length();
+        // only plain integers ("2015", "-5") are converted, so "2015.0" and "2015" stay different, like the string keys.
+        boolean plain = length > 0 && length <= 10;
+        for (int i = 0; i < length && plain; i++) {
+            char c = year.charAt(i);
+            plain = (c >= '0' && c <= '9') || (i == 0 && c == '-' && length > 1);
+        }
+        if (plain && !(length > 1 && year.charAt(year.charAt(0) == '-' ? 1 : 0) == '0')) {
+            long value = Long.parseLong(year);
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return value;
+            }
+        }
+        return CountryYearKey.TEXT_YEAR_OFFSET + textYears.encode(year);
+    }
+}
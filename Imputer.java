@@ -0,0 +1,1019 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+// Fills in the missing values of a dataset, e.g. to produce Imputed_Mortality_and_Nutrition_Data.csv from the merged
+// mortality and nutrition data.
+// The rows are split into one partition per country, and the partitions are imputed in parallel on the columnar data.
+// Strategies, applied in order to the numeric columns (except the year), each one filling what the previous ones left:
+//   interpolate  linear interpolation between the years of the same country, carrying the first and last values of the
+//                country to the years before and after them. A country with no value in a column is left missing.
+//   mean         the mean of the column over all of the countries.
+//   median       the median of the column over all of the countries.
+//   knn          the mean of the k rows (of any country) that are nearest on the columns most correlated with the missing
+//                one, with each column scaled by its standard deviation.
+// The means, medians, correlations and neighbours all come from the input values, never from imputed ones, so the
+// result of a partition only depends on its own rows and on those input statistics.
+// mean and median fill every value that can be filled, so they can only be the last strategy (a chain like mean,median
+// is rejected, since median could never apply), and each strategy can be used once.
+//
+// imputeFile writes the result as a stream: each country is written as soon as it and the ones before it are done.
+// It also keeps, next to the output, a fingerprint of every country's input rows and what its imputed values depended
+// on: the columns it filled with the mean or the median, and for the columns it filled with knn, the partitions that
+// gave its neighbours and the distance of its kth neighbours. On the next run, a country whose rows are the same is
+// copied from the previous output, unless a statistic it used has moved, a partition that gave it a neighbour has
+// changed, or a row of a changed partition is now at least as near as its kth neighbours. So editing one country only
+// re-imputes the countries that fell back to a statistic of the edited columns, or that could use it as a neighbour.
+public class Imputer {
+
+    public enum Strategy {
+        INTERPOLATE, MEAN, MEDIAN, KNN;
+
+        // Parses a strategy name, e.g. "interpolate" or "knn".
+        public static Strategy parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // Default number of neighbours of the knn strategy.
+    public static final int DEFAULT_NEIGHBOURS = 5;
+    // The knn strategy compares rows on the columns most correlated with the missing one: at most this many, with at
+    // least this absolute correlation (or on all of the other columns when none is correlated enough).
+    private static final int KNN_FEATURES = 3;
+    private static final double KNN_MIN_CORRELATION = 0.3;
+    // Suffix of the file with the fingerprints of the last run, next to the output.
+    public static final String STATE_SUFFIX = ".imputed";
+
+    private final String groupColumn;
+    private final String yearColumn;
+    private final List<Strategy> strategies;
+    private final int neighbours;
+
+    // Creates an imputer that partitions the rows by a nominal column (e.g. Country) and orders the rows of a partition by
+    // a numeric column (e.g. Year, or null to keep the file order).
+    public Imputer(String groupColumn, String yearColumn, List<Strategy> strategies, int neighbours) {
+        if (strategies.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one strategy");
+        }
+        if (neighbours < 1) {
+            throw new IllegalArgumentException("Expected at least one neighbour");
+        }
+        if (EnumSet.copyOf(strategies).size() != strategies.size()) {
+            throw new IllegalArgumentException("Each strategy can only be used once: " + strategies);
+        }
+        for (int i = 0; i < strategies.size() - 1; i++) {
+            if (strategies.get(i) == Strategy.MEAN || strategies.get(i) == Strategy.MEDIAN) {
+                throw new IllegalArgumentException("mean and median fill every value that can be filled, so no strategy"
+                        + " can apply after them: " + strategies);
+            }
+        }
+        this.groupColumn = groupColumn;
+        this.yearColumn = yearColumn;
+        this.strategies = new ArrayList<>(strategies);
+        this.neighbours = neighbours;
+    }
+
+    public static void main(String[] args) {
+        // Defines the merged dataset, and where its imputed version is saved (.csv, or .arff / .arff.gz).
+        String inputPath = "/Users/dontronolone/Downloads/merged_output.csv";  // Update with the path to your dataset
+        String outputPath = "/Users/dontronolone/Downloads/Imputed_Mortality_and_Nutrition_Data.csv";
+
+        // --strategy=interpolate,mean picks the strategies (in order), and --k=5 the number of neighbours of knn.
+        List<Strategy> strategies = Arrays.asList(Strategy.INTERPOLATE, Strategy.MEAN);
+        int neighbours = DEFAULT_NEIGHBOURS;
+        for (String arg : args) {
+            if (arg.startsWith("--strategy=")) {
+                strategies = new ArrayList<>();
+                for (String name : arg.substring("--strategy=".length()).split(",")) {
+                    strategies.add(Strategy.parse(name));
+                }
+            } else if (arg.startsWith("--k=")) {
+                neighbours = Integer.parseInt(arg.substring("--k=".length()));
+            }
+        }
+
+        try {
+            Imputer imputer = new Imputer("Country", "Year", strategies, neighbours);
+            Result result = imputer.imputeFile(Paths.get(inputPath), Paths.get(outputPath));
+            System.out.println("Imputed " + result.filledValues() + " values in " + result.imputedPartitions()
+                    + " countries (" + result.reusedPartitions() + " unchanged countries copied from the last run)");
+            System.out.println("Imputed dataset saved to: " + outputPath);
+        } catch (IllegalArgumentException e) {
+            // e.g. a chain of strategies where one can never apply.
+            System.err.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Imputes a DataFrame in memory, returning a new one (the input is not modified).
+    public DataFrame impute(DataFrame frame) {
+        Plan plan = new Plan(frame);
+        double[][] out = plan.copyColumns();
+        IntStream.range(0, plan.partitionCount()).parallel().forEach(p -> plan.impute(p, out, null));
+        return plan.toFrame(out);
+    }
+
+    // Imputes a CSV (or any file the DataFrame loaders read) into an output file, reusing the countries of the previous
+    // output whose input didn't change. The output is written next to its final name and then moved over it.
+    public Result imputeFile(Path input, Path output) throws IOException {
+        DataFrame frame = isArff(input)
+                ? InstancesConverter.loadCachedFrame(input.toString())
+                : ColumnarCache.loadCsv(input, Collections.singleton(groupColumn));
+        Plan plan = new Plan(frame);
+        long[] fingerprints = plan.fingerprints();
+
+        // the previous output, by country, when it was made with the same settings.
+        Path statePath = Paths.get(output + STATE_SUFFIX);
+        Map<String, PartitionState> previousStates = readState(statePath, plan.settingsFingerprint());
+        Map<String, int[]> previousRows = new HashMap<>();
+        DataFrame previousOutput = null;
+        if (!previousStates.isEmpty() && Files.isRegularFile(output)) {
+            previousOutput = isArff(output)
+                    ? InstancesConverter.loadCachedFrame(output.toString())
+                    : ColumnarCache.loadCsv(output, Collections.singleton(groupColumn));
+            previousRows = groupRows(previousOutput, previousOutput.columnIndex(groupColumn));
+        }
+        DataFrame previous = previousOutput;
+
+        // the countries whose rows changed since the last run (or that were added or removed), and their rows.
+        Set<String> changedKeys = new HashSet<>(previousStates.keySet());
+        int changedRowCount = 0;
+        int[] changedRows = new int[frame.rowCount()];
+        for (int p = 0; p < plan.partitionCount(); p++) {
+            PartitionState state = previousStates.get(plan.key(p));
+            if (state != null && state.fingerprint == fingerprints[p]) {
+                changedKeys.remove(plan.key(p));
+            } else {
+                changedKeys.add(plan.key(p));
+                for (int row : plan.rows(p)) {
+                    changedRows[changedRowCount++] = row;
+                }
+            }
+        }
+        int[] changed = Arrays.copyOf(changedRows, changedRowCount);
+
+        // starts every country on the common pool: the ones whose previous result still holds are copied, and the
+        // others are imputed.
+        double[][] out = plan.copyColumns();
+        Dependencies[] dependencies = new Dependencies[plan.partitionCount()];
+        boolean[] reused = new boolean[plan.partitionCount()];
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int p = 0; p < plan.partitionCount(); p++) {
+            int partition = p;
+            PartitionState state = previousStates.get(plan.key(p));
+            int[] rows = previousRows.get(plan.key(p));
+            boolean candidate = state != null && state.fingerprint == fingerprints[p] && rows != null;
+            tasks.add(CompletableFuture.runAsync(() -> {
+                if (candidate && plan.isStillValid(partition, state, changedKeys, changed, out)
+                        && plan.copyFrom(partition, previous, rows, out)) {
+                    dependencies[partition] = state.dependencies;
+                    reused[partition] = true;
+                } else {
+                    plan.reset(partition, out);
+                    dependencies[partition] = new Dependencies();
+                    plan.impute(partition, out, dependencies[partition]);
+                }
+            }));
+        }
+
+        // writes the countries in order, each one as soon as it is done.
+        Path temporary = Paths.get(output + ".tmp");
+        try (RowWriter writer = isArff(output) ? new ArffRowWriter(temporary, frame) : new CsvRowWriter(temporary, frame)) {
+            for (int p = 0; p < plan.partitionCount(); p++) {
+                tasks.get(p).join();
+                for (int row : plan.rows(p)) {
+                    writer.writeRow(out, row);
+                }
+            }
+        }
+        Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeState(statePath, plan, fingerprints, dependencies);
+        int reusedCount = 0;
+        for (boolean copied : reused) {
+            if (copied) {
+                reusedCount++;
+            }
+        }
+
+        long filled = 0;
+        for (int c : plan.targets) {
+            filled += frame.missingCount(c);
+            for (double value : out[c]) {
+                if (Double.isNaN(value)) {
+                    filled--;
+                }
+            }
+        }
+        return new Result(plan.partitionCount() - reusedCount, reusedCount, filled);
+    }
+
+    // Counts of an imputeFile run.
+    public static final class Result {
+        private final int imputedPartitions;
+        private final int reusedPartitions;
+        private final long filledValues;
+
+        Result(int imputedPartitions, int reusedPartitions, long filledValues) {
+            this.imputedPartitions = imputedPartitions;
+            this.reusedPartitions = reusedPartitions;
+            this.filledValues = filledValues;
+        }
+
+        // Returns the number of countries that were imputed.
+        public int imputedPartitions() {
+            return imputedPartitions;
+        }
+
+        // Returns the number of countries that were copied from the previous output.
+        public int reusedPartitions() {
+            return reusedPartitions;
+        }
+
+        // Returns the number of missing values of the input that have a value in the output.
+        public long filledValues() {
+            return filledValues;
+        }
+    }
+
+    // Everything the partitions share: the partitions themselves, the columns to impute, and the input statistics.
+    private final class Plan {
+        private final DataFrame frame;
+        private final int groupIndex;
+        private final int yearIndex;
+        // numeric columns that are imputed (all but the year).
+        private final int[] targets;
+        private final List<String> keys = new ArrayList<>();
+        private final List<int[]> partitions = new ArrayList<>();
+        private final double[] means;
+        private final double[] medians;
+        private final double[] stdDevs;
+        // for knn, per target column: the columns rows are compared on, and the rows that have a value to give.
+        private final int[][] knnFeatures;
+        private final int[][] donors;
+        // partition of every row, to record which partitions give neighbours.
+        private final int[] rowPartitions;
+
+        Plan(DataFrame frame) {
+            this.frame = frame;
+            this.groupIndex = frame.columnIndex(groupColumn);
+            if (groupIndex < 0 || !frame.isNominal(groupIndex)) {
+                throw new IllegalArgumentException("Expected a nominal column named " + groupColumn);
+            }
+            this.yearIndex = yearColumn == null ? -1 : frame.columnIndex(yearColumn);
+            if (yearIndex >= 0 && frame.isNominal(yearIndex)) {
+                throw new IllegalArgumentException("Expected a numeric column named " + yearColumn);
+            }
+            int[] numeric = new int[frame.columnCount()];
+            int count = 0;
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (!frame.isNominal(c) && c != yearIndex) {
+                    numeric[count++] = c;
+                }
+            }
+            this.targets = Arrays.copyOf(numeric, count);
+
+            // partitions, in order of first appearance (rows without a country are a partition of their own).
+            for (Map.Entry<String, int[]> entry : groupRows(frame, groupIndex).entrySet()) {
+                keys.add(entry.getKey());
+                partitions.add(entry.getValue());
+            }
+            this.rowPartitions = new int[frame.rowCount()];
+            for (int p = 0; p < partitions.size(); p++) {
+                for (int row : partitions.get(p)) {
+                    rowPartitions[row] = p;
+                }
+            }
+
+            // column statistics, by the index of the column in the frame.
+            int columns = frame.columnCount();
+            this.means = new double[columns];
+            this.medians = new double[columns];
+            this.stdDevs = new double[columns];
+            for (int c : targets) {
+                double[] present = presentValues(frame.numericColumn(c));
+                double sum = 0;
+                for (double value : present) {
+                    sum += value;
+                }
+                means[c] = present.length == 0 ? Double.NaN : sum / present.length;
+                double squares = 0;
+                for (double value : present) {
+                    squares += (value - means[c]) * (value - means[c]);
+                }
+                stdDevs[c] = present.length < 2 ? 0 : Math.sqrt(squares / (present.length - 1));
+                if (strategies.contains(Strategy.MEDIAN)) {
+                    Arrays.sort(present);
+                    int middle = present.length / 2;
+                    medians[c] = present.length == 0 ? Double.NaN
+                            : present.length % 2 == 1 ? present[middle] : (present[middle - 1] + present[middle]) / 2;
+                }
+            }
+
+            this.knnFeatures = new int[targets.length][];
+            this.donors = new int[targets.length][];
+            if (strategies.contains(Strategy.KNN)) {
+                CorrelationAccumulator correlations = new CorrelationAccumulator(targets.length);
+                correlations.addRowsPairwise(frame, targets);
+                for (int t = 0; t < targets.length; t++) {
+                    knnFeatures[t] = correlatedColumns(correlations, t);
+                    double[] column = frame.numericColumn(targets[t]);
+                    int[] rows = new int[frame.rowCount()];
+                    int n = 0;
+                    for (int r = 0; r < column.length; r++) {
+                        if (!Double.isNaN(column[r])) {
+                            rows[n++] = r;
+                        }
+                    }
+                    donors[t] = Arrays.copyOf(rows, n);
+                }
+            }
+        }
+
+        int partitionCount() {
+            return partitions.size();
+        }
+
+        String key(int partition) {
+            return keys.get(partition);
+        }
+
+        int[] rows(int partition) {
+            return partitions.get(partition);
+        }
+
+        // Returns copies of the numeric columns (null for the nominal ones), which the partitions impute in place. The
+        // partitions have disjoint rows, so they can write to the same arrays from different threads.
+        double[][] copyColumns() {
+            double[][] out = new double[frame.columnCount()][];
+            for (int c = 0; c < out.length; c++) {
+                if (!frame.isNominal(c)) {
+                    out[c] = frame.numericColumn(c).clone();
+                }
+            }
+            return out;
+        }
+
+        // Imputes the rows of one partition, applying the strategies in order. What the values depend on is recorded in
+        // dependencies, unless it is null.
+        void impute(int partition, double[][] out, Dependencies dependencies) {
+            int[] rows = partitions.get(partition);
+            for (Strategy strategy : strategies) {
+                switch (strategy) {
+                    case INTERPOLATE:
+                        // rows without a country have no years to interpolate between.
+                        if (!keys.get(partition).isEmpty()) {
+                            interpolate(rows, out);
+                        }
+                        break;
+                    case MEAN:
+                        fill(rows, out, means, dependencies == null ? null : dependencies.meanColumns);
+                        break;
+                    case MEDIAN:
+                        fill(rows, out, medians, dependencies == null ? null : dependencies.medianColumns);
+                        break;
+                    case KNN:
+                        nearestNeighbours(rows, out, dependencies);
+                        break;
+                }
+            }
+        }
+
+        // Puts the input values back in the numeric columns of a partition.
+        void reset(int partition, double[][] out) {
+            for (int c : targets) {
+                double[] input = frame.numericColumn(c);
+                for (int row : partitions.get(partition)) {
+                    out[c][row] = input[row];
+                }
+            }
+        }
+
+        // Checks if the previous result of a partition, whose own rows haven't changed, still holds: the statistics it
+        // used must be the same, no partition that gave it a neighbour may have changed, and no row of a changed
+        // partition may be as near as its kth neighbours. The last check runs the strategies before knn on the
+        // partition's rows of out (the caller resets them if the result doesn't hold).
+        boolean isStillValid(int partition, PartitionState state, Set<String> changedKeys, int[] changedRows,
+                             double[][] out) {
+            Dependencies dependencies = state.dependencies;
+            if (dependencyFingerprint(dependencies) != state.dependencyFingerprint) {
+                return false;
+            }
+            for (String key : dependencies.donorPartitions) {
+                if (changedKeys.contains(key)) {
+                    return false;
+                }
+            }
+            if (dependencies.knnRadius.isEmpty()) {
+                return true;
+            }
+            int[] rows = partitions.get(partition);
+            // only interpolate can come before knn.
+            int interpolate = strategies.indexOf(Strategy.INTERPOLATE);
+            if (interpolate >= 0 && interpolate < strategies.indexOf(Strategy.KNN) && !keys.get(partition).isEmpty()) {
+                interpolate(rows, out);
+            }
+            for (Map.Entry<Integer, Double> entry : dependencies.knnRadius.entrySet()) {
+                int t = entry.getKey();
+                double radius = entry.getValue();
+                double[] column = out[targets[t]];
+                double[] input = frame.numericColumn(targets[t]);
+                for (int row : rows) {
+                    if (!Double.isNaN(column[row])) {
+                        continue;
+                    }
+                    for (int donor : changedRows) {
+                        if (Double.isNaN(input[donor])) {
+                            continue;
+                        }
+                        // a tie could go either way, depending on the order of the rows, so it counts as nearer.
+                        double distance = distance(out, row, donor, knnFeatures[t]);
+                        if (!Double.isNaN(distance) && distance <= radius) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        // Fingerprint of the statistics that a partition's values depended on: the means and medians of the columns it
+        // filled with them, and for the columns it filled with knn, the columns the rows were compared on and their scale.
+        long dependencyFingerprint(Dependencies dependencies) {
+            long hash = 0;
+            for (int c = dependencies.meanColumns.nextSetBit(0); c >= 0; c = dependencies.meanColumns.nextSetBit(c + 1)) {
+                hash = mix(mix(hash, c), Double.doubleToLongBits(means[c]));
+            }
+            for (int c = dependencies.medianColumns.nextSetBit(0); c >= 0; c = dependencies.medianColumns.nextSetBit(c + 1)) {
+                hash = mix(mix(hash, -1 - c), Double.doubleToLongBits(medians[c]));
+            }
+            for (int t : dependencies.knnRadius.keySet()) {
+                hash = mix(hash, targets[t]);
+                for (int c : knnFeatures[t]) {
+                    hash = mix(mix(hash, c), Double.doubleToLongBits(stdDevs[c]));
+                }
+            }
+            return hash;
+        }
+
+        // Linear interpolation over the years of a partition.
+        private void interpolate(int[] rows, double[][] out) {
+            // orders the rows by year; rows without a year keep their place at the end, and are not interpolated.
+            int[] ordered = rows.clone();
+            int withYear = ordered.length;
+            double[] years = new double[ordered.length];
+            if (yearIndex >= 0) {
+                double[] yearValues = frame.numericColumn(yearIndex);
+                Integer[] boxed = new Integer[ordered.length];
+                for (int i = 0; i < ordered.length; i++) {
+                    boxed[i] = ordered[i];
+                }
+                Arrays.sort(boxed, (a, b) -> Double.compare(sortKey(yearValues[a]), sortKey(yearValues[b])));
+                withYear = 0;
+                for (int i = 0; i < ordered.length; i++) {
+                    ordered[i] = boxed[i];
+                    years[i] = yearValues[ordered[i]];
+                    if (!Double.isNaN(years[i])) {
+                        withYear++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < ordered.length; i++) {
+                    years[i] = i;
+                }
+            }
+            for (int c : targets) {
+                double[] column = out[c];
+                // position of the last known value, walking forwards.
+                int previous = -1;
+                for (int i = 0; i < withYear; i++) {
+                    if (Double.isNaN(column[ordered[i]])) {
+                        continue;
+                    }
+                    double value = column[ordered[i]];
+                    if (previous < 0) {
+                        // carries the first value back to the earlier years.
+                        for (int j = 0; j < i; j++) {
+                            column[ordered[j]] = value;
+                        }
+                    } else {
+                        double previousValue = column[ordered[previous]];
+                        double span = years[i] - years[previous];
+                        for (int j = previous + 1; j < i; j++) {
+                            column[ordered[j]] = span == 0 ? (previousValue + value) / 2
+                                    : previousValue + (value - previousValue) * (years[j] - years[previous]) / span;
+                        }
+                    }
+                    previous = i;
+                }
+                // carries the last value forward to the later years.
+                if (previous >= 0) {
+                    for (int j = previous + 1; j < withYear; j++) {
+                        column[ordered[j]] = column[ordered[previous]];
+                    }
+                }
+            }
+        }
+
+        // Fills the missing values of a partition with a value per column, recording the columns that had missing values
+        // in used (unless it is null).
+        private void fill(int[] rows, double[][] out, double[] values, BitSet used) {
+            for (int c : targets) {
+                double[] column = out[c];
+                for (int row : rows) {
+                    if (Double.isNaN(column[row])) {
+                        column[row] = values[c];
+                        if (used != null) {
+                            used.set(c);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Fills the missing values of a partition with the mean of their k nearest donor rows. The rows are compared on
+        // their values before this step, so a value filled in one column doesn't change the neighbours of another.
+        // The distance of the kth neighbours and the partitions of the neighbours are recorded in dependencies (unless
+        // it is null).
+        private void nearestNeighbours(int[] rows, double[][] out, Dependencies dependencies) {
+            double[] bestDistances = new double[neighbours];
+            int[] bestRows = new int[neighbours];
+            double[][] filled = new double[targets.length][];
+            for (int t = 0; t < targets.length; t++) {
+                double[] column = out[targets[t]];
+                double[] input = frame.numericColumn(targets[t]);
+                int[] features = knnFeatures[t];
+                for (int r = 0; r < rows.length; r++) {
+                    int row = rows[r];
+                    if (!Double.isNaN(column[row])) {
+                        continue;
+                    }
+                    if (filled[t] == null) {
+                        filled[t] = new double[rows.length];
+                        Arrays.fill(filled[t], Double.NaN);
+                    }
+                    // keeps the k nearest donors, sorted by distance, with an insertion sort.
+                    int found = 0;
+                    for (int donor : donors[t]) {
+                        double distance = distance(out, row, donor, features);
+                        if (Double.isNaN(distance) || (found == neighbours && distance >= bestDistances[found - 1])) {
+                            continue;
+                        }
+                        int i = found < neighbours ? found++ : found - 1;
+                        while (i > 0 && bestDistances[i - 1] > distance) {
+                            bestDistances[i] = bestDistances[i - 1];
+                            bestRows[i] = bestRows[i - 1];
+                            i--;
+                        }
+                        bestDistances[i] = distance;
+                        bestRows[i] = donor;
+                    }
+                    if (found > 0) {
+                        double sum = 0;
+                        for (int i = 0; i < found; i++) {
+                            sum += input[bestRows[i]];
+                        }
+                        filled[t][r] = sum / found;
+                    }
+                    if (dependencies != null) {
+                        // with fewer than k neighbours, any new donor would be one of them.
+                        double radius = found < neighbours ? Double.POSITIVE_INFINITY : bestDistances[found - 1];
+                        dependencies.knnRadius.merge(t, radius, Math::max);
+                        for (int i = 0; i < found; i++) {
+                            dependencies.donorPartitions.add(keys.get(rowPartitions[bestRows[i]]));
+                        }
+                    }
+                }
+            }
+            for (int t = 0; t < targets.length; t++) {
+                if (filled[t] != null) {
+                    double[] column = out[targets[t]];
+                    for (int r = 0; r < rows.length; r++) {
+                        if (!Double.isNaN(filled[t][r])) {
+                            column[rows[r]] = filled[t][r];
+                        }
+                    }
+                }
+            }
+        }
+
+        // Returns the mean squared scaled difference between a row (with its values so far) and a donor (with its input
+        // values) over the features both have, or NaN if they have none in common.
+        private double distance(double[][] out, int row, int donor, int[] features) {
+            double sum = 0;
+            int shared = 0;
+            for (int c : features) {
+                double a = out[c][row];
+                double b = frame.numericColumn(c)[donor];
+                if (Double.isNaN(a) || Double.isNaN(b) || stdDevs[c] == 0) {
+                    continue;
+                }
+                double d = (a - b) / stdDevs[c];
+                sum += d * d;
+                shared++;
+            }
+            return shared == 0 ? Double.NaN : sum / shared;
+        }
+
+        // Returns the frame columns most correlated with a target column (by its index in targets).
+        private int[] correlatedColumns(CorrelationAccumulator correlations, int target) {
+            Integer[] others = new Integer[targets.length - 1];
+            int n = 0;
+            for (int t = 0; t < targets.length; t++) {
+                if (t != target) {
+                    others[n++] = t;
+                }
+            }
+            double[] strength = new double[targets.length];
+            for (int t = 0; t < targets.length; t++) {
+                double r = t == target ? Double.NaN : correlations.correlation(target, t);
+                strength[t] = Double.isNaN(r) ? 0 : Math.abs(r);
+            }
+            Arrays.sort(others, (a, b) -> Double.compare(strength[b], strength[a]));
+            int[] columns = new int[Math.min(KNN_FEATURES, others.length)];
+            int count = 0;
+            for (int i = 0; i < columns.length && strength[others[i]] >= KNN_MIN_CORRELATION; i++) {
+                columns[count++] = targets[others[i]];
+            }
+            if (count > 0) {
+                return Arrays.copyOf(columns, count);
+            }
+            // nothing is correlated enough: compares on all of the other columns.
+            int[] all = new int[others.length];
+            for (int i = 0; i < others.length; i++) {
+                all[i] = targets[others[i]];
+            }
+            return all;
+        }
+
+        // Copies the imputed values of a partition from the previous output. Returns false if its rows don't match.
+        boolean copyFrom(int partition, DataFrame previous, int[] previousRows, double[][] out) {
+            int[] rows = partitions.get(partition);
+            if (previousRows.length != rows.length) {
+                return false;
+            }
+            int[] previousColumns = new int[frame.columnCount()];
+            for (int c : targets) {
+                previousColumns[c] = previous.columnIndex(frame.name(c));
+                // ARFF outputs have underscores in place of the spaces of the names.
+                if (previousColumns[c] < 0) {
+                    previousColumns[c] = previous.columnIndex(frame.name(c).replace(' ', '_'));
+                }
+                if (previousColumns[c] < 0 || previous.isNominal(previousColumns[c])) {
+                    return false;
+                }
+            }
+            for (int c : targets) {
+                double[] column = previous.numericColumn(previousColumns[c]);
+                for (int i = 0; i < rows.length; i++) {
+                    out[c][rows[i]] = column[previousRows[i]];
+                }
+            }
+            return true;
+        }
+
+        // Fingerprint of the settings. The statistics are not part of it: each partition records the ones it used.
+        long settingsFingerprint() {
+            long hash = mix(0, strategies.toString().hashCode());
+            hash = mix(hash, neighbours);
+            hash = mix(hash, groupColumn.hashCode());
+            hash = mix(hash, yearColumn == null ? 0 : yearColumn.hashCode());
+            for (String name : frame.names()) {
+                hash = mix(hash, name.hashCode());
+            }
+            return hash;
+        }
+
+        // Returns the fingerprint of every partition's input rows.
+        long[] fingerprints() {
+            return IntStream.range(0, partitions.size()).parallel().mapToLong(p -> {
+                long hash = mix(0, keys.get(p).hashCode());
+                for (int row : partitions.get(p)) {
+                    for (int c = 0; c < frame.columnCount(); c++) {
+                        hash = mix(hash, frame.isNominal(c) ? String.valueOf(frame.getNominal(c, row)).hashCode()
+                                : Double.doubleToLongBits(frame.numericColumn(c)[row]));
+                    }
+                }
+                return hash;
+            }).toArray();
+        }
+
+        // Builds the imputed DataFrame, sharing the nominal columns of the input.
+        DataFrame toFrame(double[][] out) {
+            int columns = frame.columnCount();
+            boolean[] nominal = new boolean[columns];
+            int[][] codes = new int[columns][];
+            NominalDictionary[] dictionaries = new NominalDictionary[columns];
+            long[][] missing = new long[columns][];
+            for (int c = 0; c < columns; c++) {
+                nominal[c] = frame.isNominal(c);
+                if (nominal[c]) {
+                    codes[c] = frame.nominalColumn(c);
+                    dictionaries[c] = frame.dictionary(c);
+                    missing[c] = frame.missingBitmap(c);
+                } else {
+                    missing[c] = new long[(frame.rowCount() + 63) >>> 6];
+                    for (int r = 0; r < frame.rowCount(); r++) {
+                        if (Double.isNaN(out[c][r])) {
+                            missing[c][r >>> 6] |= 1L << r;
+                        }
+                    }
+                }
+            }
+            return DataFrame.fromColumns(frame.names(), nominal, out, codes, dictionaries, missing, frame.rowCount());
+        }
+    }
+
+    // Groups the rows of a frame by the value of a nominal column, in order of first appearance. Rows without a value are
+    // grouped under the empty string.
+    private static Map<String, int[]> groupRows(DataFrame frame, int column) {
+        Map<String, int[]> groups = new LinkedHashMap<>();
+        if (column < 0 || !frame.isNominal(column)) {
+            return groups;
+        }
+        int[] codes = frame.nominalColumn(column);
+        int[] counts = new int[frame.dictionary(column).size() + 1];
+        for (int code : codes) {
+            counts[code + 1]++;
+        }
+        int[][] rows = new int[counts.length][];
+        int[] filled = new int[counts.length];
+        List<Integer> order = new ArrayList<>();
+        for (int r = 0; r < codes.length; r++) {
+            int g = codes[r] + 1;
+            if (rows[g] == null) {
+                rows[g] = new int[counts[g]];
+                order.add(g);
+            }
+            rows[g][filled[g]++] = r;
+        }
+        for (int g : order) {
+            groups.put(g == 0 ? "" : frame.dictionary(column).decode(g - 1), rows[g]);
+        }
+        return groups;
+    }
+
+    // What the imputed values of a partition depend on, besides its own rows.
+    private static final class Dependencies {
+        // columns (by index in the frame) that were filled with the mean or the median.
+        final BitSet meanColumns = new BitSet();
+        final BitSet medianColumns = new BitSet();
+        // for the columns filled with knn (by index in the targets), the largest distance of a kth neighbour over the
+        // missing values (infinity when a value had fewer than k neighbours).
+        final Map<Integer, Double> knnRadius = new TreeMap<>();
+        // partitions that gave a neighbour.
+        final Set<String> donorPartitions = new TreeSet<>();
+    }
+
+    // A partition's line of the state file: the fingerprint of its rows, and what its values depended on.
+    private static final class PartitionState {
+        final long fingerprint;
+        final long dependencyFingerprint;
+        final Dependencies dependencies;
+
+        PartitionState(long fingerprint, long dependencyFingerprint, Dependencies dependencies) {
+            this.fingerprint = fingerprint;
+            this.dependencyFingerprint = dependencyFingerprint;
+            this.dependencies = dependencies;
+        }
+    }
+
+    // Reads the state of the last run, by partition, or nothing if it was made with other settings.
+    // Every line after the settings is: key, fingerprint, dependency fingerprint and the dependencies, separated by tabs.
+    // The dependencies are separated by spaces: mean=column, median=column, knn=target:radius (the bits of the double,
+    // in hex) and donor=line (the number of the line of the partition, from 0 for the first partition).
+    private static Map<String, PartitionState> readState(Path path, long settings) throws IOException {
+        Map<String, PartitionState> states = new LinkedHashMap<>();
+        if (!Files.isRegularFile(path)) {
+            return states;
+        }
+        List<String> keys = new ArrayList<>();
+        List<String[]> fields = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.equals("settings\t" + Long.toHexString(settings))) {
+                return states;
+            }
+            while ((line = reader.readLine()) != null) {
+                // the key can contain anything, so the other fields are found from the end of the line.
+                int third = line.lastIndexOf('\t');
+                int second = third < 0 ? -1 : line.lastIndexOf('\t', third - 1);
+                int first = second < 0 ? -1 : line.lastIndexOf('\t', second - 1);
+                if (first < 0) {
+                    return new LinkedHashMap<>();
+                }
+                keys.add(line.substring(0, first));
+                fields.add(new String[]{line.substring(first + 1, second), line.substring(second + 1, third),
+                        line.substring(third + 1)});
+            }
+        }
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                String[] parts = fields.get(i);
+                Dependencies dependencies = new Dependencies();
+                for (String token : parts[2].split(" ")) {
+                    if (token.startsWith("mean=")) {
+                        dependencies.meanColumns.set(Integer.parseInt(token.substring("mean=".length())));
+                    } else if (token.startsWith("median=")) {
+                        dependencies.medianColumns.set(Integer.parseInt(token.substring("median=".length())));
+                    } else if (token.startsWith("knn=")) {
+                        int colon = token.indexOf(':');
+                        dependencies.knnRadius.put(Integer.parseInt(token.substring("knn=".length(), colon)),
+                                Double.longBitsToDouble(Long.parseUnsignedLong(token.substring(colon + 1), 16)));
+                    } else if (token.startsWith("donor=")) {
+                        dependencies.donorPartitions.add(keys.get(Integer.parseInt(token.substring("donor=".length()))));
+                    }
+                }
+                states.put(keys.get(i), new PartitionState(Long.parseUnsignedLong(parts[0], 16),
+                        Long.parseUnsignedLong(parts[1], 16), dependencies));
+            }
+        } catch (RuntimeException e) {
+            // a damaged state only means that every partition is imputed again.
+            return new LinkedHashMap<>();
+        }
+        return states;
+    }
+
+    // Writes the state of this run: the settings on the first line, then one line per partition.
+    private static void writeState(Path path, Plan plan, long[] fingerprints, Dependencies[] dependencies)
+            throws IOException {
+        Map<String, Integer> lines = new HashMap<>();
+        for (int p = 0; p < fingerprints.length; p++) {
+            lines.put(plan.key(p), p);
+        }
+        Path temporary = Paths.get(path + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            writer.write("settings\t" + Long.toHexString(plan.settingsFingerprint()) + "\n");
+            StringBuilder line = new StringBuilder();
+            for (int p = 0; p < fingerprints.length; p++) {
+                Dependencies partition = dependencies[p];
+                line.setLength(0);
+                line.append(plan.key(p)).append('\t').append(Long.toHexString(fingerprints[p]))
+                        .append('\t').append(Long.toHexString(plan.dependencyFingerprint(partition))).append('\t');
+                int length = line.length();
+                for (int c = partition.meanColumns.nextSetBit(0); c >= 0; c = partition.meanColumns.nextSetBit(c + 1)) {
+                    line.append(" mean=").append(c);
+                }
+                for (int c = partition.medianColumns.nextSetBit(0); c >= 0; c = partition.medianColumns.nextSetBit(c + 1)) {
+                    line.append(" median=").append(c);
+                }
+                for (Map.Entry<Integer, Double> entry : partition.knnRadius.entrySet()) {
+                    line.append(" knn=").append(entry.getKey()).append(':')
+                            .append(Long.toHexString(Double.doubleToLongBits(entry.getValue())));
+                }
+                for (String key : partition.donorPartitions) {
+                    line.append(" donor=").append(lines.get(key));
+                }
+                // drops the space before the first dependency.
+                if (line.length() > length) {
+                    line.deleteCharAt(length);
+                }
+                writer.write(line.append('\n').toString());
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Mixes a value into a hash (multiply and xor-shift, with the SplitMix64 constants).
+    private static long mix(long hash, long value) {
+        long z = (hash ^ value) * 0xBF58476D1CE4E5B9L + 0x9E3779B97F4A7C15L;
+        return z ^ (z >>> 31);
+    }
+
+    // Sorts rows without a year after all of the others.
+    private static double sortKey(double year) {
+        return Double.isNaN(year) ? Double.POSITIVE_INFINITY : year;
+    }
+
+    // Returns the values of a column that are not missing.
+    private static double[] presentValues(double[] column) {
+        double[] values = new double[column.length];
+        int n = 0;
+        for (double value : column) {
+            if (!Double.isNaN(value)) {
+                values[n++] = value;
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    private static boolean isArff(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".arff") || name.endsWith(".arff.gz");
+    }
+
+    // Writes the rows of the output, from the nominal columns of the input and the imputed numeric columns.
+    private interface RowWriter extends AutoCloseable {
+        void writeRow(double[][] out, int row) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    // Writes CSV, with the header of the input and whole numbers written without a decimal part.
+    private static final class CsvRowWriter implements RowWriter {
+        private final DataFrame frame;
+        private final Writer writer;
+        private final StringBuilder line = new StringBuilder();
+
+        CsvRowWriter(Path path, DataFrame frame) throws IOException {
+            this.frame = frame;
+            this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+            for (int c = 0; c < frame.columnCount(); c++) {
+                line.append(c == 0 ? "" : ",").append(quote(frame.name(c)));
+            }
+            writer.write(line.append('\n').toString());
+        }
+
+        @Override
+        public void writeRow(double[][] out, int row) throws IOException {
+            line.setLength(0);
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (c > 0) {
+                    line.append(',');
+                }
+                if (frame.isNominal(c)) {
+                    String value = frame.getNominal(c, row);
+                    line.append(value == null ? "" : quote(value));
+                } else if (!Double.isNaN(out[c][row])) {
+                    line.append(DataFrame.formatNumber(out[c][row]));
+                }
+            }
+            writer.write(line.append('\n').toString());
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        // Quotes a field if it contains a comma, a quote or a line break.
+        private static String quote(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+                return value;
+            }
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+    }
+
+    // Writes ARFF through an ArffWriter, with the nominal columns declared with the values of their dictionaries.
+    private static final class ArffRowWriter implements RowWriter {
+        private final DataFrame frame;
+        private final ArffWriter writer;
+        private final double[] values;
+
+        ArffRowWriter(Path path, DataFrame frame) throws IOException {
+            this.frame = frame;
+            this.values = new double[frame.columnCount()];
+            // the temporary file doesn't end with .gz, so compression follows the name of the final file.
+            String name = path.getFileName().toString();
+            this.writer = new ArffWriter(path, name.endsWith(".gz.tmp"), false);
+            writer.writeRelation("imputed");
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (frame.isNominal(c)) {
+                    writer.writeNominalAttribute(frame.name(c), frame.dictionary(c).values());
+                } else {
+                    writer.writeNumericAttribute(frame.name(c));
+                }
+            }
+            writer.writeData();
+        }
+
+        @Override
+        public void writeRow(double[][] out, int row) throws IOException {
+            for (int c = 0; c < values.length; c++) {
+                values[c] = frame.isNominal(c)
+                        ? (frame.isMissing(c, row) ? Double.NaN : frame.nominalColumn(c)[row])
+                        : out[c][row];
+            }
+            writer.writeRow(values);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+// Converts between Weka Instances and DataFrames, so the Weka entry points can load their ARFF files through the
+// ColumnarCache instead of parsing the text with DataSource on every run.
+public class InstancesConverter {
+
+    // Loads an ARFF (or any other file that DataSource can read) as Instances, through the ColumnarCache.
+    // The class index is not set.
+    public static Instances loadCached(String filePath) throws IOException {
+        return toInstances(loadCachedFrame(filePath), relationName(Paths.get(filePath)));
+    }
+
+    // Loads an ARFF (or any other file that DataSource can read) as a DataFrame, through the ColumnarCache.
+    public static DataFrame loadCachedFrame(String filePath) throws IOException {
+        return ColumnarCache.load(Paths.get(filePath), "weka", source -> toFrame(new DataSource(source.toString()).getDataSet()));
+    }
+
+    // Converts Instances to a DataFrame. Numeric (and date) attributes become numeric columns, and nominal (and string)
+    // attributes become nominal columns whose dictionary has the values in attribute order, so the codes are the same as
+    // the Weka value indexes.
+    public static DataFrame toFrame(Instances data) {
+        String[] names = new String[data.numAttributes()];
+        boolean[] nominal = new boolean[names.length];
+        for (int a = 0; a < names.length; a++) {
+            names[a] = data.attribute(a).name();
+            nominal[a] = data.attribute(a).isNominal() || data.attribute(a).isString();
+        }
+        DataFrame.Builder builder = DataFrame.builder(names, nominal);
+        for (int a = 0; a < names.length; a++) {
+            if (nominal[a]) {
+                // fills the dictionary in attribute order.
+                NominalDictionary dictionary = new NominalDictionary();
+                for (int v = 0; v < data.attribute(a).numValues(); v++) {
+                    dictionary.encode(data.attribute(a).value(v));
+                }
+                builder.useDictionary(a, dictionary);
+            }
+        }
+        for (Instance instance : data) {
+            for (int a = 0; a < names.length; a++) {
+                if (instance.isMissing(a)) {
+                    continue;
+                }
+                if (nominal[a]) {
+                    builder.setNominal(a, instance.stringValue(a));
+                } else {
+                    builder.setNumeric(a, instance.value(a));
+                }
+            }
+            builder.endRow();
+        }
+        return builder.build();
+    }
+
+    // Converts a DataFrame to Instances. Numeric columns become numeric attributes, and nominal columns become nominal
+    // attributes with the values of their dictionary, in order. Missing values stay missing.
+    public static Instances toInstances(DataFrame frame, String relationName) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        for (int c = 0; c < frame.columnCount(); c++) {
+            attributes.add(frame.isNominal(c)
+                    ? new Attribute(frame.name(c), new ArrayList<>(frame.dictionary(c).values()))
+                    : new Attribute(frame.name(c)));
+        }
+        Instances data = new Instances(relationName, attributes, frame.rowCount());
+        for (int row = 0; row < frame.rowCount(); row++) {
+            double[] values = new double[frame.columnCount()];
+            for (int c = 0; c < values.length; c++) {
+                if (frame.isMissing(c, row)) {
+                    values[c] = Utils.missingValue();
+                } else if (frame.isNominal(c)) {
+                    values[c] = frame.nominalColumn(c)[row];
+                } else {
+                    values[c] = frame.getDouble(c, row);
+                }
+            }
+            data.add(new DenseInstance(1.0, values));
+        }
+        return data;
+    }
+
+    // Reads the @relation name from the header of an ARFF file, without reading the data (the file name is used if there's
+    // no @relation line before the data).
+    static String relationName(Path path) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.regionMatches(true, 0, "@relation", 0, 9)) {
+                    String name = trimmed.substring(9).trim();
+                    // quoted names are unquoted, like Weka does.
+                    return name.length() > 1 && (name.startsWith("'") || name.startsWith("\"")) ? name.substring(1, name.length() - 1) : name;
+                }
+                if (trimmed.regionMatches(true, 0, "@data", 0, 5)) {
+                    break;
+                }
+            }
+        }
+        return path.getFileName().toString();
+    }
+}
@@ -0,0 +1,185 @@
+import weka.classifiers.functions.LinearRegression;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+// Immutable linear model, target = intercept + sum(coefficient * feature), exported from a trained RidgeRegression or
+// Weka LinearRegression so it can score data without Weka's Instance objects.
+// The batch methods score whole columns: each feature is added to all of the rows in one tight loop over two double[]
+// arrays, which the JIT can unroll and vectorize. Missing (NaN) values take the training mean of their feature, like
+// Weka's ReplaceMissingValues does; since a NaN makes the sum NaN, those rows are found and fixed after the loops, so the
+// loops themselves have no branch.
+public final class LinearModel {
+
+    private final double[] coefficients;
+    private final double intercept;
+    // Training means of the features, used in place of missing values.
+    private final double[] means;
+    private final String[] featureNames;
+    private final String targetName;
+
+    // The arrays are copied. Null names give x1, x2, ...
+    public LinearModel(double[] coefficients, double intercept, double[] means, String[] featureNames, String targetName) {
+        if (means.length != coefficients.length || (featureNames != null && featureNames.length != coefficients.length)) {
+            throw new IllegalArgumentException("Expected one mean and one name per coefficient");
+        }
+        this.coefficients = coefficients.clone();
+        this.intercept = intercept;
+        this.means = means.clone();
+        this.featureNames = new String[coefficients.length];
+        for (int i = 0; i < coefficients.length; i++) {
+            this.featureNames[i] = featureNames == null ? "x" + (i + 1) : featureNames[i];
+        }
+        this.targetName = targetName == null ? "y" : targetName;
+    }
+
+    // Exports a trained Weka LinearRegression. The training data gives the names of the features and their means (over
+    // the rows with a class value, which are the ones Weka trains on). Only models of numeric attributes can be exported,
+    // since Weka's coefficients refer to its own transformed attributes when it converts nominal or removes constant ones.
+    public static LinearModel fromWeka(LinearRegression regression, Instances trainData) {
+        double[] wekaCoefficients = regression.coefficients();
+        int classIndex = trainData.classIndex();
+        if (wekaCoefficients.length != trainData.numAttributes() + 1) {
+            throw new IllegalArgumentException("The model uses transformed attributes (nominal or constant attributes?)");
+        }
+        int k = trainData.numAttributes() - 1;
+        double[] coefficients = new double[k];
+        double[] means = new double[k];
+        String[] names = new String[k];
+        int i = 0;
+        for (int a = 0; a < trainData.numAttributes(); a++) {
+            if (a == classIndex) {
+                continue;
+            }
+            if (!trainData.attribute(a).isNumeric()) {
+                throw new IllegalArgumentException("Attribute " + trainData.attribute(a).name() + " is not numeric");
+            }
+            coefficients[i] = wekaCoefficients[a];
+            names[i] = trainData.attribute(a).name();
+            // mean of the present values, over the rows that have a class value.
+            double sum = 0;
+            long count = 0;
+            for (Instance instance : trainData) {
+                if (!instance.classIsMissing() && !instance.isMissing(a)) {
+                    sum += instance.value(a);
+                    count++;
+                }
+            }
+            means[i] = count == 0 ? 0 : sum / count;
+            i++;
+        }
+        return new LinearModel(coefficients, wekaCoefficients[wekaCoefficients.length - 1], means, names,
+                trainData.classAttribute().name());
+    }
+
+    // Returns the number of features.
+    public int features() {
+        return coefficients.length;
+    }
+
+    public double[] coefficients() {
+        return coefficients.clone();
+    }
+
+    public double intercept() {
+        return intercept;
+    }
+
+    public String featureName(int feature) {
+        return featureNames[feature];
+    }
+
+    public String targetName() {
+        return targetName;
+    }
+
+    // Returns the feature with the given name, or -1.
+    public int featureIndex(String name) {
+        return Arrays.asList(featureNames).indexOf(name);
+    }
+
+    // Predicts the target of a single row of features.
+    public double predict(double[] features) {
+        double prediction = intercept;
+        for (int i = 0; i < coefficients.length; i++) {
+            double value = Double.isNaN(features[i]) ? means[i] : features[i];
+            prediction += coefficients[i] * value;
+        }
+        return prediction;
+    }
+
+    // Predicts a batch of rows given as one array per feature, all of the same length.
+    public double[] predict(double[][] columns) {
+        int rows = columns.length == 0 ? 0 : columns[0].length;
+        double[] out = new double[rows];
+        predict(columns, 0, rows, out, 0);
+        return out;
+    }
+
+    // Predicts the rows from..to of a batch of feature columns, writing the predictions to out starting at outOffset.
+    public void predict(double[][] columns, int from, int to, double[] out, int outOffset) {
+        if (columns.length != coefficients.length) {
+            throw new IllegalArgumentException("Expected " + coefficients.length + " feature columns");
+        }
+        int length = to - from;
+        Arrays.fill(out, outOffset, outOffset + length, intercept);
+        for (int i = 0; i < coefficients.length; i++) {
+            double coefficient = coefficients[i];
+            double[] column = columns[i];
+            // no branch, so the loop can be vectorized; missing values turn the sum into NaN, and are fixed below.
+            for (int r = 0; r < length; r++) {
+                out[outOffset + r] += coefficient * column[from + r];
+            }
+        }
+        for (int r = 0; r < length; r++) {
+            if (Double.isNaN(out[outOffset + r])) {
+                out[outOffset + r] = predictRow(columns, from + r);
+            }
+        }
+    }
+
+    // Predicts the rows of a DataFrame, finding the features by name. Throws an IllegalArgumentException if a feature is
+    // missing from the frame or is not a numeric column.
+    public double[] predict(DataFrame frame) {
+        double[][] columns = new double[coefficients.length][];
+        for (int i = 0; i < coefficients.length; i++) {
+            int column = frame.columnIndex(featureNames[i]);
+            if (column < 0) {
+                throw new IllegalArgumentException("Missing feature column: " + featureNames[i]);
+            }
+            if (frame.isNominal(column)) {
+                throw new IllegalArgumentException("Feature column is not numeric: " + featureNames[i]);
+            }
+            columns[i] = frame.numericColumn(column);
+        }
+        double[] out = new double[frame.rowCount()];
+        predict(columns, 0, frame.rowCount(), out, 0);
+        return out;
+    }
+
+    // Predicts one row of a batch, replacing its missing values by the means.
+    private double predictRow(double[][] columns, int row) {
+        double prediction = intercept;
+        for (int i = 0; i < coefficients.length; i++) {
+            double value = columns[i][row];
+            prediction += coefficients[i] * (Double.isNaN(value) ? means[i] : value);
+        }
+        return prediction;
+    }
+
+    // Prints the model as an equation, in the same layout as Weka's LinearRegression.
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append("\nLinear Regression Model\n\n");
+        text.append(targetName).append(" =\n\n");
+        for (int i = 0; i < coefficients.length; i++) {
+            if (coefficients[i] != 0) {
+                text.append(String.format("%12.4f", coefficients[i])).append(" * ").append(featureNames[i]).append(" +\n");
+            }
+        }
+        text.append(String.format("%12.4f", intercept)).append('\n');
+        return text.toString();
+    }
+}
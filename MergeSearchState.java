@@ -0,0 +1,314 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// State of the simulated annealing search over a merged dataset.
+// The rows are scanned once, to build a bitmap of the missing cells of every column. After that, the search only works
+// on counts: dropping or restoring a column updates the score in O(1), dropping or restoring a row in O(columns), and any
+// move can be undone by making the opposite move, so the search never copies or rescans the rows. The rows are only
+// touched again when a solution is turned back into a dataset.
+//
+// The score is the same as SimulatedAnnealingMerge.calculateMissingDataScore: the number of missing cells over all of
+// the headers, where every cell of a dropped column (or row) counts as missing. The dropped cells can also be given a
+// different weight (dropPenalty), to make dropping sparse columns and rows worthwhile; a weight of 1 gives the original
+// score.
+public class MergeSearchState {
+
+    // Rows of the merged dataset (never modified).
+    private final List<Map<String, String>> rows;
+    // Number of rows.
+    private final int rowCount;
+    // Headers, indexed by column number.
+    private final String[] headers;
+    // Missing cells of each column, one bit per row (shared by the copies, never modified).
+    private final long[][] missing;
+    // Weight of each dropped cell.
+    private final double dropPenalty;
+    // Number of missing values of each column, counting only the rows that are not dropped.
+    private final int[] nullCounts;
+    // Marks the columns that are currently dropped.
+    private final boolean[] dropped;
+    // Rows that are currently dropped.
+    private final BitSet droppedRows;
+    // Number of columns and rows that are not dropped.
+    private int activeColumns;
+    private int activeRows;
+    // Current score, kept up to date by every move.
+    private double score;
+    // Best score found so far, and the columns that were dropped at that point.
+    private double bestScore;
+    private boolean[] bestDropped;
+
+    // Scans the rows once to find the missing values (absent or empty) of every header.
+    public MergeSearchState(List<Map<String, String>> rows, Set<String> headers, double dropPenalty) {
+        this.rows = rows;
+        this.rowCount = rows.size();
+        this.headers = headers.toArray(new String[0]);
+        this.missing = new long[this.headers.length][(rows.size() + 63) >>> 6];
+        this.nullCounts = new int[this.headers.length];
+        this.dropped = new boolean[this.headers.length];
+        this.droppedRows = new BitSet(rows.size());
+        this.dropPenalty = dropPenalty;
+        for (int r = 0; r < rows.size(); r++) {
+            Map<String, String> row = rows.get(r);
+            for (int c = 0; c < this.headers.length; c++) {
+                String value = row.get(this.headers[c]);
+                if (value == null || value.isEmpty()) {
+                    missing[c][r >>> 6] |= 1L << r;
+                    nullCounts[c]++;
+                }
+            }
+        }
+        activeColumns = this.headers.length;
+        activeRows = rows.size();
+        // with nothing dropped, the score is the total number of missing values.
+        for (int count : nullCounts) {
+            score += count;
+        }
+        bestScore = score;
+        bestDropped = dropped.clone();
+    }
+
+    // Builds the state straight from the missing value bitmaps of a DataFrame (e.g. one joined by HashJoin), without
+    // converting it to rows of text. Such a state has no rows, so buildRows can't be used; its solutions are applied to
+    // the DataFrame instead (see Pipeline).
+    public MergeSearchState(DataFrame frame, double dropPenalty) {
+        this.rows = null;
+        this.rowCount = frame.rowCount();
+        this.headers = frame.names();
+        int words = (frame.rowCount() + 63) >>> 6;
+        this.missing = new long[headers.length][];
+        this.nullCounts = new int[headers.length];
+        this.dropped = new boolean[headers.length];
+        this.droppedRows = new BitSet(frame.rowCount());
+        this.dropPenalty = dropPenalty;
+        for (int c = 0; c < headers.length; c++) {
+            missing[c] = Arrays.copyOf(frame.missingBitmap(c), words);
+            nullCounts[c] = frame.missingCount(c);
+            score += nullCounts[c];
+        }
+        activeColumns = headers.length;
+        activeRows = frame.rowCount();
+        bestScore = score;
+        bestDropped = dropped.clone();
+    }
+
+    // Creates an independent copy of another state, sharing the rows and the missing bitmap (which never change).
+    public MergeSearchState(MergeSearchState other) {
+        this.rows = other.rows;
+        this.rowCount = other.rowCount;
+        this.headers = other.headers;
+        this.missing = other.missing;
+        this.dropPenalty = other.dropPenalty;
+        this.nullCounts = other.nullCounts.clone();
+        this.dropped = other.dropped.clone();
+        this.droppedRows = (BitSet) other.droppedRows.clone();
+        this.activeColumns = other.activeColumns;
+        this.activeRows = other.activeRows;
+        this.score = other.score;
+        this.bestScore = other.bestScore;
+        this.bestDropped = other.bestDropped.clone();
+    }
+
+    // Returns the number of columns.
+    public int columnCount() {
+        return headers.length;
+    }
+
+    // Returns the number of rows.
+    public int rowCount() {
+        return rowCount;
+    }
+
+    // Returns the header of a column.
+    public String header(int column) {
+        return headers[column];
+    }
+
+    // Returns the number of missing values of a column, in the rows that are not dropped.
+    public int nullCount(int column) {
+        return nullCounts[column];
+    }
+
+    // Checks if a column is currently dropped.
+    public boolean isDropped(int column) {
+        return dropped[column];
+    }
+
+    // Checks if a row is currently dropped.
+    public boolean isRowDropped(int row) {
+        return droppedRows.get(row);
+    }
+
+    // Returns the first row at or after from that is not dropped, wrapping around to the first row, or -1 if every row
+    // is dropped.
+    public int nextActiveRow(int from) {
+        int row = droppedRows.nextClearBit(from);
+        if (row >= rowCount()) {
+            row = droppedRows.nextClearBit(0);
+        }
+        return row < rowCount() ? row : -1;
+    }
+
+    // Returns the number of columns that are not dropped.
+    public int activeColumns() {
+        return activeColumns;
+    }
+
+    // Returns the number of rows that are not dropped.
+    public int activeRows() {
+        return activeRows;
+    }
+
+    // Returns the current score. Lower scores are better.
+    public double score() {
+        return score;
+    }
+
+    // Returns the best score recorded by saveIfBest.
+    public double bestScore() {
+        return bestScore;
+    }
+
+    // Returns the change of score that dropping a column would cause, without dropping it.
+    public double dropDelta(int column) {
+        return dropPenalty * activeRows - nullCounts[column];
+    }
+
+    // Drops a column and returns the change of score. Calling restoreColumn undoes it.
+    public double dropColumn(int column) {
+        if (dropped[column]) {
+            throw new IllegalStateException("Column " + headers[column] + " is already dropped");
+        }
+        double delta = dropDelta(column);
+        dropped[column] = true;
+        activeColumns--;
+        score += delta;
+        return delta;
+    }
+
+    // Restores a dropped column and returns the change of score. Calling dropColumn undoes it.
+    public double restoreColumn(int column) {
+        if (!dropped[column]) {
+            throw new IllegalStateException("Column " + headers[column] + " is not dropped");
+        }
+        double delta = -dropDelta(column);
+        dropped[column] = false;
+        activeColumns++;
+        score += delta;
+        return delta;
+    }
+
+    // Drops a row and returns the change of score. Calling restoreRow undoes it.
+    public double dropRow(int row) {
+        if (droppedRows.get(row)) {
+            throw new IllegalStateException("Row " + row + " is already dropped");
+        }
+        // the row's missing cells in the columns that are not dropped stop counting, and all of its cells become dropped.
+        int missingCells = updateNullCounts(row, -1);
+        double delta = dropPenalty * activeColumns - missingCells;
+        droppedRows.set(row);
+        activeRows--;
+        score += delta;
+        return delta;
+    }
+
+    // Restores a dropped row and returns the change of score. Calling dropRow undoes it.
+    public double restoreRow(int row) {
+        if (!droppedRows.get(row)) {
+            throw new IllegalStateException("Row " + row + " is not dropped");
+        }
+        int missingCells = updateNullCounts(row, 1);
+        double delta = missingCells - dropPenalty * activeColumns;
+        droppedRows.clear(row);
+        activeRows++;
+        score += delta;
+        return delta;
+    }
+
+    // Returns the column with the most missing values among the columns that are not dropped, or -1 if none of them
+    // has a missing value (the same choice as SimulatedAnnealingMerge.selectColumnToDrop).
+    public int selectColumnToDrop() {
+        int best = -1;
+        for (int c = 0; c < headers.length; c++) {
+            if (!dropped[c] && nullCounts[c] > 0 && (best < 0 || nullCounts[c] > nullCounts[best])) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    // Records the current state as the best one if its score is lower than the best score so far.
+    public boolean saveIfBest() {
+        if (score < bestScore) {
+            bestScore = score;
+            bestDropped = dropped.clone();
+            return true;
+        }
+        return false;
+    }
+
+    // Returns a copy of the columns that were dropped in the best state.
+    public boolean[] bestDropped() {
+        return bestDropped.clone();
+    }
+
+    // Returns a copy of the columns that are currently dropped.
+    public boolean[] droppedColumns() {
+        return dropped.clone();
+    }
+
+    // Returns a copy of the rows that are currently dropped.
+    public BitSet droppedRows() {
+        return (BitSet) droppedRows.clone();
+    }
+
+    // Builds the dataset of the best state: a copy of every row, without the dropped columns.
+    public List<Map<String, String>> bestRows() {
+        return buildRows(bestDropped);
+    }
+
+    // Builds a dataset from the rows, without the given dropped columns.
+    public List<Map<String, String>> buildRows(boolean[] droppedColumns) {
+        return buildRows(droppedColumns, new BitSet());
+    }
+
+    // Builds a dataset from the rows, without the given dropped columns and rows.
+    public List<Map<String, String>> buildRows(boolean[] droppedColumns, BitSet droppedRowSet) {
+        if (rows == null) {
+            throw new IllegalStateException("The state was built from a DataFrame, and has no rows");
+        }
+        List<Map<String, String>> result = new ArrayList<>(rows.size() - droppedRowSet.cardinality());
+        for (int r = droppedRowSet.nextClearBit(0); r < rows.size(); r = droppedRowSet.nextClearBit(r + 1)) {
+            Map<String, String> copy = new HashMap<>(rows.get(r));
+            for (int c = 0; c < headers.length; c++) {
+                if (droppedColumns[c]) {
+                    copy.remove(headers[c]);
+                }
+            }
+            result.add(copy);
+        }
+        return result;
+    }
+
+    // Adds the sign to the null count of every column where the row is missing. Returns the number of missing cells of
+    // the row in the columns that are not dropped.
+    private int updateNullCounts(int row, int sign) {
+        int word = row >>> 6;
+        long bit = 1L << row;
+        int missingCells = 0;
+        for (int c = 0; c < headers.length; c++) {
+            if ((missing[c][word] & bit) != 0) {
+                nullCounts[c] += sign;
+                if (!dropped[c]) {
+                    missingCells++;
+                }
+            }
+        }
+        return missingCells;
+    }
+}
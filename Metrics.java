@@ -0,0 +1,374 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters, timers and sampled curves of the stages (rows and bytes parsed, parse errors by column, join hits and
+// misses, annealing acceptance and temperature, cross validation fold times), shared by the whole process.
+// The stages add to the metrics once per chunk, fold or chain rather than once per row, and the counters are LongAdders,
+// so recording costs nothing measurable next to the work itself. Bad values are counted here instead of being printed.
+// With -Dmetrics.file=path, the metrics are written to that file when the program ends: as Prometheus text when the name
+// ends with .prom, and as JSON lines otherwise. The stages also commit the JFR events below, which show up in a flight
+// recording (java -XX:StartFlightRecording ...) and cost nothing when no recording is running.
+public final class Metrics {
+
+    // Largest number of points kept in a curve; past it, every other point is dropped and the interval doubles.
+    private static final int MAX_POINTS = 4096;
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Curve> CURVES = new ConcurrentHashMap<>();
+
+    static {
+        String file = System.getProperty("metrics.file");
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    write(Paths.get(file));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "metrics-writer"));
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // Adds to a counter.
+    public static void count(String name, long delta) {
+        count(name, null, null, delta);
+    }
+
+    // Adds to a counter with a label (e.g. parse_errors{column="Year"}).
+    public static void count(String name, String label, String value, long delta) {
+        if (delta != 0) {
+            COUNTERS.computeIfAbsent(key(name, label, value), k -> new Counter(name, label, value)).adder.add(delta);
+        }
+    }
+
+    // Returns the value of a counter (0 if it was never added to).
+    public static long counter(String name) {
+        return counter(name, null, null);
+    }
+
+    public static long counter(String name, String label, String value) {
+        Counter counter = COUNTERS.get(key(name, label, value));
+        return counter == null ? 0 : counter.adder.sum();
+    }
+
+    // Records a duration in nanoseconds.
+    public static void time(String name, long nanos) {
+        time(name, null, null, nanos);
+    }
+
+    public static void time(String name, String label, String value, long nanos) {
+        Timer timer = TIMERS.computeIfAbsent(key(name, label, value), k -> new Timer(name, label, value));
+        timer.count.increment();
+        timer.nanos.add(nanos);
+        timer.max.accumulate(nanos);
+    }
+
+    // Sets a gauge to its latest value.
+    public static void gauge(String name, double value) {
+        gauge(name, null, null, value);
+    }
+
+    public static void gauge(String name, String label, String value, double gaugeValue) {
+        GAUGES.computeIfAbsent(key(name, label, value), k -> new Gauge(name, label, value)).value = gaugeValue;
+    }
+
+    // Adds the points of a curve (e.g. the temperature of an annealing chain), given as pairs of x and y values.
+    public static void curve(String name, String label, String value, double[] xs, double[] ys, int count) {
+        Curve curve = CURVES.computeIfAbsent(key(name, label, value), k -> new Curve(name, label, value));
+        synchronized (curve) {
+            for (int i = 0; i < count; i++) {
+                curve.add(xs[i], ys[i]);
+            }
+        }
+    }
+
+    // Clears all of the metrics.
+    public static void reset() {
+        COUNTERS.clear();
+        TIMERS.clear();
+        GAUGES.clear();
+        CURVES.clear();
+    }
+
+    // Writes the metrics to a file, as Prometheus text if its name ends with .prom and as JSON lines otherwise.
+    // The file is written next to its final name and then moved over it, so a reader never sees half of it.
+    public static void write(Path file) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            if (file.getFileName().toString().endsWith(".prom")) {
+                writePrometheus(writer);
+            } else {
+                writeJsonLines(writer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Writes the metrics in the Prometheus text format. Timers are summaries in seconds (with a _max gauge), and curves,
+    // which the format can't hold, are written as their last point.
+    public static void writePrometheus(Writer writer) throws IOException {
+        String type = null;
+        for (Counter counter : new TreeMap<>(COUNTERS).values()) {
+            type = typeLine(writer, type, counter.name, "counter");
+            writer.write(counter.name + labels(counter) + " " + counter.adder.sum() + "\n");
+        }
+        for (Timer timer : new TreeMap<>(TIMERS).values()) {
+            type = typeLine(writer, type, timer.name + "_seconds", "summary");
+            writer.write(timer.name + "_seconds_count" + labels(timer) + " " + timer.count.sum() + "\n");
+            writer.write(timer.name + "_seconds_sum" + labels(timer) + " " + number(timer.nanos.sum() / 1e9) + "\n");
+        }
+        for (Timer timer : new TreeMap<>(TIMERS).values()) {
+            type = typeLine(writer, type, timer.name + "_seconds_max", "gauge");
+            writer.write(timer.name + "_seconds_max" + labels(timer) + " " + number(timer.max.get() / 1e9) + "\n");
+        }
+        for (Gauge gauge : new TreeMap<>(GAUGES).values()) {
+            type = typeLine(writer, type, gauge.name, "gauge");
+            writer.write(gauge.name + labels(gauge) + " " + number(gauge.value) + "\n");
+        }
+        for (Curve curve : new TreeMap<>(CURVES).values()) {
+            synchronized (curve) {
+                if (curve.size > 0) {
+                    type = typeLine(writer, type, curve.name, "gauge");
+                    writer.write(curve.name + labels(curve) + " " + number(curve.ys[curve.size - 1]) + "\n");
+                }
+            }
+        }
+    }
+
+    // Writes the metrics as JSON lines, one object per metric, with all of the points of the curves.
+    public static void writeJsonLines(Writer writer) throws IOException {
+        for (Counter counter : new TreeMap<>(COUNTERS).values()) {
+            writer.write(jsonStart("counter", counter) + ",\"value\":" + counter.adder.sum() + "}\n");
+        }
+        for (Timer timer : new TreeMap<>(TIMERS).values()) {
+            writer.write(jsonStart("timer", timer) + ",\"count\":" + timer.count.sum()
+                    + ",\"totalSeconds\":" + number(timer.nanos.sum() / 1e9)
+                    + ",\"maxSeconds\":" + number(timer.max.get() / 1e9) + "}\n");
+        }
+        for (Gauge gauge : new TreeMap<>(GAUGES).values()) {
+            writer.write(jsonStart("gauge", gauge) + ",\"value\":" + number(gauge.value) + "}\n");
+        }
+        for (Curve curve : new TreeMap<>(CURVES).values()) {
+            StringBuilder points = new StringBuilder();
+            synchronized (curve) {
+                for (int i = 0; i < curve.size; i++) {
+                    points.append(i == 0 ? "" : ",").append('[').append(number(curve.xs[i])).append(',')
+                            .append(number(curve.ys[i])).append(']');
+                }
+            }
+            writer.write(jsonStart("curve", curve) + ",\"points\":[" + points + "]}\n");
+        }
+    }
+
+    // Writes the # TYPE line of a metric when it's the first one with that name.
+    private static String typeLine(Writer writer, String previous, String name, String type) throws IOException {
+        if (!name.equals(previous)) {
+            writer.write("# TYPE " + name + " " + type + "\n");
+        }
+        return name;
+    }
+
+    private static String labels(Metric metric) {
+        return metric.label == null ? "" : "{" + metric.label + "=\"" + escape(metric.value) + "\"}";
+    }
+
+    private static String jsonStart(String type, Metric metric) {
+        String start = "{\"type\":\"" + type + "\",\"name\":\"" + escape(metric.name) + "\"";
+        if (metric.label != null) {
+            start += ",\"labels\":{\"" + escape(metric.label) + "\":\"" + escape(metric.value) + "\"}";
+        }
+        return start;
+    }
+
+    // Escapes a quote, a backslash and a line break (the same rules in Prometheus labels and JSON strings).
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c == '\n') {
+                escaped.append("\\n");
+            } else if (c < ' ') {
+                escaped.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    // Formats a number; JSON has no NaN or infinity, so those are written as null.
+    private static String number(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "null";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? String.valueOf((long) value) : String.valueOf(value);
+    }
+
+    // Key of a metric in the maps; sorting the keys sorts the metrics by name and then by label value.
+    private static String key(String name, String label, String value) {
+        return label == null ? name : name + "\u0000" + label + "\u0000" + value;
+    }
+
+    private static class Metric {
+        final String name;
+        final String label;
+        final String value;
+
+        Metric(String name, String label, String value) {
+            this.name = name;
+            this.label = label;
+            this.value = value;
+        }
+    }
+
+    private static final class Counter extends Metric {
+        final LongAdder adder = new LongAdder();
+
+        Counter(String name, String label, String value) {
+            super(name, label, value);
+        }
+    }
+
+    private static final class Timer extends Metric {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Timer(String name, String label, String value) {
+            super(name, label, value);
+        }
+    }
+
+    private static final class Gauge extends Metric {
+        volatile double value;
+
+        Gauge(String name, String label, String value) {
+            super(name, label, value);
+        }
+    }
+
+    // Points of a curve. When it's full, every other point is dropped, so a long run keeps an evenly spread outline.
+    private static final class Curve extends Metric {
+        double[] xs = new double[MAX_POINTS];
+        double[] ys = new double[MAX_POINTS];
+        int size;
+        // only one point in every stride is kept.
+        int stride = 1;
+        long offered;
+
+        Curve(String name, String label, String value) {
+            super(name, label, value);
+        }
+
+        void add(double x, double y) {
+            if (offered++ % stride != 0) {
+                return;
+            }
+            if (size == MAX_POINTS) {
+                for (int i = 0; i < MAX_POINTS / 2; i++) {
+                    xs[i] = xs[2 * i];
+                    ys[i] = ys[2 * i];
+                }
+                size = MAX_POINTS / 2;
+                stride *= 2;
+                if ((offered - 1) % stride != 0) {
+                    return;
+                }
+            }
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+    }
+
+    // A chunk of a CSV file that was parsed.
+    @Name("datasets.ParseChunk")
+    @Label("Parse Chunk")
+    @Category("Datasets")
+    @Description("A chunk of a CSV file parsed by ChunkedCSVParser")
+    public static final class ParseChunkEvent extends Event {
+        @Label("File")
+        public String file;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Rows")
+        public long rows;
+        @Label("Parse Errors")
+        public long errors;
+    }
+
+    // A join of several datasets.
+    @Name("datasets.Join")
+    @Label("Join")
+    @Category("Datasets")
+    @Description("A full outer join by HashJoin")
+    public static final class JoinEvent extends Event {
+        @Label("Inputs")
+        public int inputs;
+        @Label("Hits")
+        public long hits;
+        @Label("Misses")
+        public long misses;
+        @Label("Rows")
+        public long rows;
+    }
+
+    // A simulated annealing chain.
+    @Name("datasets.AnnealingChain")
+    @Label("Annealing Chain")
+    @Category("Datasets")
+    @Description("A simulated annealing chain of the merge search")
+    public static final class AnnealingChainEvent extends Event {
+        @Label("Chain")
+        public int chain;
+        @Label("Iterations")
+        public long iterations;
+        @Label("Accepted Moves")
+        public long accepted;
+        @Label("Final Temperature")
+        public double temperature;
+        @Label("Best Score")
+        public double bestScore;
+    }
+
+    // The training of a cross validation fold.
+    @Name("datasets.CrossValidationFold")
+    @Label("Cross Validation Fold")
+    @Category("Datasets")
+    @Description("The training of one fold of a cross validation")
+    public static final class FoldEvent extends Event {
+        @Label("Model")
+        public String model;
+        @Label("Fold")
+        public int fold;
+        @Label("Training Rows")
+        public long trainRows;
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Dictionary used to encode the values of a nominal column (like Country) as small integer codes.
+// Each distinct value gets the next free code, in the order the values are first seen.
+public class NominalDictionary {
+
+    // Maps each value to its code.
+    private final Map<String, Integer> codes = new HashMap<>();
+    // Holds the values, indexed by their code.
+    private final List<String> values = new ArrayList<>();
+
+    // Returns the code of a value, adding the value to the dictionary if it's the first time it's seen.
+    public int encode(String value) {
+        // checks if the value already has a code
+        Integer code = codes.get(value);
+        if (code == null) {
+            // if it doesn't, the next code is the current size of the dictionary.
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+        }
+        return code;
+    }
+
+    // Returns the code of a value, or -1 if the value is not in the dictionary. It never adds new values.
+    public int lookup(String value) {
+        Integer code = codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    // Returns the value that has the given code.
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    // Returns the number of distinct values in the dictionary.
+    public int size() {
+        return values.size();
+    }
+
+    // Returns the values of the dictionary, in code order.
+    public List<String> values() {
+        return values;
+    }
+}
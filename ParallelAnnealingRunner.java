@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Runs several independent simulated annealing chains over the same merged dataset on a thread pool.
+// Every chain works on its own copy of a MergeSearchState, with its own schedule and its own SplittableRandom, split
+// from a single seed in chain order, so a run is reproducible whatever the number of threads.
+// Each move drops or restores a random column or row. The chains publish their improvements to a shared best solution
+// with compare-and-set; ties are won by the lowest chain number, so the final result doesn't depend on timing either.
+// A chain stops early when it hasn't improved for schedule.patience() iterations, or when a lower numbered chain has
+// already found a solution with no missing data (which it could only tie).
+public class ParallelAnnealingRunner {
+
+    // The chains look at the shared best solution once every this many iterations.
+    private static final int SHARED_CHECK_INTERVAL = 256;
+    // The temperature and the acceptance rate of every chain are recorded once every this many iterations.
+    private static final int CURVE_INTERVAL = 1024;
+
+    // State that every chain starts from.
+    private final MergeSearchState initial;
+    // Number of threads that run the chains.
+    private final int threads;
+
+    public ParallelAnnealingRunner(MergeSearchState initial, int threads) {
+        this.initial = initial;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Runs one chain per schedule, using the seed to derive the random generator of each chain, and returns the best
+    // solution found by any of them (or the starting state, if no chain improved it).
+    public Solution run(List<AnnealingSchedule> schedules, long seed) throws InterruptedException {
+        AtomicReference<Solution> best = new AtomicReference<>(
+                new Solution(initial.score(), -1, initial.droppedColumns(), initial.droppedRows()));
+        // without rows, no move changes anything, so the starting state is the answer.
+        if (initial.rowCount() == 0) {
+            return best.get();
+        }
+        // splits the random generators on this thread, so each chain always gets the same one.
+        SplittableRandom root = new SplittableRandom(seed);
+        List<Callable<Void>> chains = new ArrayList<>();
+        for (int i = 0; i < schedules.size(); i++) {
+            int chain = i;
+            SplittableRandom random = root.split();
+            chains.add(() -> {
+                runChain(chain, schedules.get(chain), random, best);
+                return null;
+            });
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, schedules.size())));
+        try {
+            for (Future<Void> future : pool.invokeAll(chains)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Annealing chain failed", e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return best.get();
+    }
+
+    // Runs a single chain.
+    private void runChain(int chain, AnnealingSchedule schedule, SplittableRandom random, AtomicReference<Solution> best) {
+        MergeSearchState state = new MergeSearchState(initial);
+        // rows that this chain has dropped, so a random one can be restored in O(1).
+        RowPool droppedRows = new RowPool(state.rowCount());
+        double temperature = schedule.initialTemperature();
+        double chainBest = state.score();
+        int sinceImprovement = 0;
+        // what the chain did, kept in locals and added to the Metrics when it ends.
+        Metrics.AnnealingChainEvent event = new Metrics.AnnealingChainEvent();
+        event.begin();
+        long iterations = 0;
+        long accepted = 0;
+        long acceptedInInterval = 0;
+        int points = 0;
+        double[] xs = new double[schedule.iterations() / CURVE_INTERVAL + 1];
+        double[] temperatures = new double[xs.length];
+        double[] acceptanceRates = new double[xs.length];
+
+        for (int i = 0; i < schedule.iterations(); i++) {
+            // stops if a lower numbered chain already has a perfect solution.
+            if (i % SHARED_CHECK_INTERVAL == 0) {
+                Solution shared = best.get();
+                if (shared.score <= 0 && shared.chain < chain) {
+                    break;
+                }
+            }
+
+            // makes a random move, remembering how to undo it.
+            int kind = random.nextInt(4);
+            int target;
+            double delta;
+            if (kind == 0 && state.activeColumns() > 0) {
+                target = nthColumn(state, false, random.nextInt(state.activeColumns()));
+                delta = state.dropColumn(target);
+            } else if (kind == 1 && state.activeColumns() < state.columnCount()) {
+                target = nthColumn(state, true, random.nextInt(state.columnCount() - state.activeColumns()));
+                delta = state.restoreColumn(target);
+            } else if (kind == 3 && droppedRows.size() > 0) {
+                target = droppedRows.removeRandom(random);
+                delta = state.restoreRow(target);
+            } else if (state.activeRows() > 0) {
+                // drops a random row (also the fallback when the chosen kind of move isn't possible).
+                kind = 2;
+                target = randomActiveRow(state, random);
+                delta = state.dropRow(target);
+                droppedRows.add(target);
+            } else {
+                kind = 3;
+                target = droppedRows.removeRandom(random);
+                delta = state.restoreRow(target);
+            }
+
+            // Metropolis acceptance: better moves are always kept, worse ones with a probability that falls with the temperature.
+            boolean keep = delta <= 0 || random.nextDouble() < Math.exp(-delta / temperature);
+            iterations++;
+            if (keep) {
+                accepted++;
+                acceptedInInterval++;
+            }
+            if (iterations % CURVE_INTERVAL == 0) {
+                xs[points] = iterations;
+                temperatures[points] = temperature;
+                acceptanceRates[points++] = (double) acceptedInInterval / CURVE_INTERVAL;
+                acceptedInInterval = 0;
+            }
+            if (!keep) {
+                undo(state, droppedRows, kind, target);
+                sinceImprovement++;
+            } else if (state.score() < chainBest) {
+                chainBest = state.score();
+                sinceImprovement = 0;
+                publish(best, new Solution(chainBest, chain, state.droppedColumns(), state.droppedRows()));
+            } else {
+                sinceImprovement++;
+            }
+            if (sinceImprovement >= schedule.patience()) {
+                break;
+            }
+            temperature *= schedule.coolingRate();
+        }
+
+        String label = String.valueOf(chain);
+        Metrics.count("annealing_iterations", iterations);
+        Metrics.count("annealing_accepted_moves", accepted);
+        Metrics.gauge("annealing_acceptance_rate", "chain", label, iterations == 0 ? 0 : (double) accepted / iterations);
+        Metrics.curve("annealing_temperature", "chain", label, xs, temperatures, points);
+        Metrics.curve("annealing_interval_acceptance_rate", "chain", label, xs, acceptanceRates, points);
+        event.end();
+        if (event.shouldCommit()) {
+            event.chain = chain;
+            event.iterations = iterations;
+            event.accepted = accepted;
+            event.temperature = temperature;
+            event.bestScore = chainBest;
+            event.commit();
+        }
+    }
+
+    // Undoes a move with the opposite move.
+    private static void undo(MergeSearchState state, RowPool droppedRows, int kind, int target) {
+        switch (kind) {
+            case 0:
+                state.restoreColumn(target);
+                break;
+            case 1:
+                state.dropColumn(target);
+                break;
+            case 2:
+                droppedRows.remove(target);
+                state.restoreRow(target);
+                break;
+            default:
+                state.dropRow(target);
+                droppedRows.add(target);
+                break;
+        }
+    }
+
+    // Replaces the shared best solution if the candidate is better, retrying if another chain replaced it in the meantime.
+    private static void publish(AtomicReference<Solution> best, Solution candidate) {
+        Solution current;
+        do {
+            current = best.get();
+            if (!candidate.isBetterThan(current)) {
+                return;
+            }
+        } while (!best.compareAndSet(current, candidate));
+    }
+
+    // Returns the n-th column that is (or isn't) dropped.
+    private static int nthColumn(MergeSearchState state, boolean dropped, int n) {
+        for (int c = 0; c < state.columnCount(); c++) {
+            if (state.isDropped(c) == dropped && n-- == 0) {
+                return c;
+            }
+        }
+        throw new IllegalStateException("No such column");
+    }
+
+    // Returns a random row that is not dropped: the first one from a random row onwards, found in the bitmap without
+    // retrying, so it stays fast when almost every row is dropped.
+    private static int randomActiveRow(MergeSearchState state, SplittableRandom random) {
+        return state.nextActiveRow(random.nextInt(state.rowCount()));
+    }
+
+    // Best solution found by the chains: its score, the chain that found it, and what it drops.
+    public static final class Solution {
+        private final double score;
+        private final int chain;
+        private final boolean[] droppedColumns;
+        private final BitSet droppedRows;
+
+        Solution(double score, int chain, boolean[] droppedColumns, BitSet droppedRows) {
+            this.score = score;
+            this.chain = chain;
+            this.droppedColumns = droppedColumns;
+            this.droppedRows = droppedRows;
+        }
+
+        public double score() {
+            return score;
+        }
+
+        // Number of the chain that found the solution (-1 for the starting state).
+        public int chain() {
+            return chain;
+        }
+
+        public boolean[] droppedColumns() {
+            return droppedColumns.clone();
+        }
+
+        public BitSet droppedRows() {
+            return (BitSet) droppedRows.clone();
+        }
+
+        // Lower scores are better; on a tie, the lower chain number wins.
+        boolean isBetterThan(Solution other) {
+            return score < other.score || (score == other.score && chain < other.chain);
+        }
+    }
+
+    // Set of row numbers that supports adding, removing and picking a random element in O(1).
+    private static final class RowPool {
+        private final int[] items;
+        // position of each row in items, or -1.
+        private final int[] positions;
+        private int size;
+
+        RowPool(int rows) {
+            items = new int[rows];
+            positions = new int[rows];
+            Arrays.fill(positions, -1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        void add(int row) {
+            positions[row] = size;
+            items[size++] = row;
+        }
+
+        void remove(int row) {
+            int position = positions[row];
+            int last = items[--size];
+            items[position] = last;
+            positions[last] = position;
+            positions[row] = -1;
+        }
+
+        int removeRandom(SplittableRandom random) {
+            int row = items[random.nextInt(size)];
+            remove(row);
+            return row;
+        }
+    }
+}
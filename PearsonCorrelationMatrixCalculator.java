@@ -1,41 +1,61 @@
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
-import java.io.BufferedReader;
 import java.io.FileWriter;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
 public class PearsonCorrelationMatrixCalculator {
 
+    // Columns of the correlation matrix.
+    static final String[] LABELS = {
+            "Under-five mortality rate","Under-five deaths",
+            "BMI-for-age <-3 SD","BMI-for-age >+3 SD","Height-for-age <-3 SD (Severe Stunting)","Height-for-age >+3 SD",
+            "Weight-for-age (>+3 SD)","Weight-for-height <-3 SD (severe wasting)"
+    };
+
     public static void main(String[] args) {
-        // Define the path to the input CSV file
+        // Define the path to the input CSV file (or XLSX workbook), or to a directory of CSV files (the first argument that
+        // isn't an option overrides it)
         String filePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_new.csv";
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                filePath = arg;
+                break;
+            }
+        }
         // Define the path to the output CSV file for the matrix
         String outputFilePath = "/Users/dontronolone/Downloads/correlation_matrix.csv";
+        // With --pairwise, rows with missing values are used for the pairs of columns that they do have.
+        boolean pairwise = Arrays.asList(args).contains("--pairwise");
 
         // Define the labels to be used for the correlation matrix.
-        String[] labels = {
-                "Under-five mortality rate","Under-five deaths",
-                "BMI-for-age <-3 SD","BMI-for-age >+3 SD","Height-for-age <-3 SD (Severe Stunting)","Height-for-age >+3 SD",
-                "Weight-for-age (>+3 SD)","Weight-for-height <-3 SD (severe wasting)"
-        };
+        String[] labels = LABELS;
 
         try {
-            // Load the data from the CSV, according to the provided labels.
-            double[][] data = loadData(filePath, labels);
+            List<Path> files = Files.isDirectory(Paths.get(filePath))
+                    ? listCsvFiles(filePath)
+                    : Collections.singletonList(Paths.get(filePath));
+            // Calculates the correlation matrix in a single parallel pass over the file(s), without keeping the rows in memory.
+            // (loadData and computeCorrelationMatrix still give the same matrix for callers that want the rows.)
+            // The matrix is kept in the ResultCache, so running again on the same files and labels doesn't read the data
+            // (--no-cache always calculates it).
+            double[][] correlationMatrix = Arrays.asList(args).contains("--no-cache")
+                    ? computeFiles(files, labels, pairwise)
+                    : computeCached(ResultCache.openDefault(), files, labels, pairwise);
 
             // Checks for possible errors when loading data (if there's no data or if the data shape is incorrect)
-            if (data.length == 0 || data[0].length != labels.length) {
+            if (correlationMatrix == null) {
                 System.err.println("Data shape is incorrect. Ensure each row has the same number of columns as labels.");
                 return;
             }
 
-            // Creates a new Pearson Correlation object from Apache Commons Library
-            PearsonsCorrelation correlation = new PearsonsCorrelation();
-            // Calculates the correlation matrix using all the loaded data and gets the matrix as a 2d array.
-            double[][] correlationMatrix = correlation.computeCorrelationMatrix(data).getData();
-
             // Writes the correlation matrix to the CSV file.
             writeMatrixToCSV(correlationMatrix, labels, outputFilePath);
             // Prints a confirmation message on the console.
@@ -47,57 +67,210 @@ public class PearsonCorrelationMatrixCalculator {
         }
     }
 
-    // Load data from a CSV file, filtering the data based on the provided labels.
-    public static double[][] loadData(String filePath, String[] labels) throws IOException {
-        // Create a new list that will hold each row of data as an array of doubles
-        List<double[]> dataList = new ArrayList<>();
-        // Creates a buffered reader to read the csv files line by line.
-        BufferedReader reader = new BufferedReader(new FileReader(filePath));
-
-        // reads the first line (headers) and discards it.
-        String line = reader.readLine();
-        int rowCount = 0;
-        // loops through all of the lines of the file.
-        while ((line = reader.readLine()) != null) {
-            // splits the line using the comma separator
-            String[] tokens = line.split(",");
-            // creates a list of doubles to store the double values from each line
-            List<Double> numericValues = new ArrayList<>();
-
-            // loops through all of the elements of each line (starting at index 2, since the first two are not numbers).
-            for (int i = 2; i < tokens.length; i++) {
-                try {
-                    // tries to parse the string to a double, and if possible add it to the list
-                    numericValues.add(Double.parseDouble(tokens[i]));
-                } catch (NumberFormatException e) {
-                    // if it's not a number, it throws an error on the console, showing which line has a non numeric value.
-                    System.err.println("Non-numeric value encountered in row " + rowCount + ": " + tokens[i]);
+    // Calculates the correlation matrix of rows that are already in memory, using the Apache Commons library.
+    public static double[][] computeCorrelationMatrix(double[][] data) {
+        // Creates a new Pearson Correlation object from Apache Commons Library
+        PearsonsCorrelation correlation = new PearsonsCorrelation();
+        // Calculates the correlation matrix using all the loaded data and gets the matrix as a 2d array.
+        return correlation.computeCorrelationMatrix(data).getData();
+    }
+
+    // Calculates the correlation matrix of the label columns while the file streams in, chunk by chunk.
+    // The rows are kept or skipped in the same way as loadData, but only the O(k^2) accumulators stay in memory.
+    // Returns null if the file doesn't have one numeric column per label, or if no row is complete.
+    public static double[][] computeStreaming(String filePath, String[] labels) throws IOException {
+        return computeFiles(Collections.singletonList(Paths.get(filePath)), labels, false);
+    }
+
+    // Calculates the correlation matrix over all of the CSV files in a directory, as if they were a single file.
+    public static double[][] computeDirectory(String directory, String[] labels, boolean pairwise) throws IOException {
+        return computeFiles(listCsvFiles(directory), labels, pairwise);
+    }
+
+    // Lists the CSV files of a directory, sorted by name so the result doesn't depend on the order of the directory listing.
+    static List<Path> listCsvFiles(String directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(directory), "*.csv")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    // Same as computeFiles, but the matrix is read from the cache when it was already calculated for files with the same
+    // contents, the same labels and the same pairwise setting.
+    public static double[][] computeCached(ResultCache cache, List<Path> files, String[] labels, boolean pairwise)
+            throws IOException {
+        ResultCache.Key key = cache.key("pearson-correlation").param("labels", labels).param("pairwise", pairwise);
+        for (Path file : files) {
+            key.file(file);
+        }
+        return cache.getOrCompute(key, ResultCache.MATRIX, () -> computeFiles(files, labels, pairwise));
+    }
+
+    // Calculates the correlation matrix of the label columns over several CSV files (or XLSX workbooks).
+    // Every chunk of every CSV file is reduced on its own thread into a partial CorrelationAccumulator, and the partial
+    // states are merged pairwise with Chan's formula. A workbook is streamed a chunk of rows at a time by
+    // XlsxReader.forEachChunk, so it doesn't have to be in memory either. Without pairwise, only the rows that have all of
+    // the labels are used (like loadData); with pairwise, each pair of columns uses every row where both of its values
+    // are present. Files that don't have the label columns are skipped with a message. Returns null if no row could be
+    // used.
+    public static double[][] computeFiles(List<Path> files, String[] labels, boolean pairwise) throws IOException {
+        ChunkedCSVParser parser = new ChunkedCSVParser();
+        // finds the label columns of each file, skipping the files that don't have them.
+        // Files with an up to date ColumnarCache (written by loadFrame) are read from it instead of being parsed again.
+        List<Path> usable = new ArrayList<>();
+        List<Path> workbooks = new ArrayList<>();
+        List<DataFrame> cached = new ArrayList<>();
+        for (Path file : files) {
+            boolean workbook = XlsxReader.isXlsx(file.toString());
+            String[] headers;
+            if (workbook) {
+                try (XlsxReader reader = new XlsxReader(file)) {
+                    headers = reader.readHeader();
                 }
+            } else {
+                headers = parser.readHeader(file);
             }
-
-            // Ensure the row has the expected number of columns (same as labels.length)
-            if (numericValues.size() == labels.length) {
-               // If it has the same number of labels, converts the list of doubles to an array of doubles, and saves it to the data list.
-                dataList.add(numericValues.stream().mapToDouble(Double::doubleValue).toArray());
+            if (labelColumns(headers, labels) == null) {
+                System.err.println("Skipping " + file + ": expected one numeric column per label.");
+                continue;
+            }
+            if (workbook) {
+                workbooks.add(file);
+                continue;
+            }
+            DataFrame frame = ColumnarCache.readIfFresh(file, ColumnarCache.csvVariant(
+                    headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0])));
+            if (frame != null) {
+                cached.add(frame);
             } else {
-                 // if the list doesn’t have the correct number of columns, print the error message with the row count.
-                System.err.println("Row " + rowCount + " has incorrect number of columns. Expected " + labels.length);
+                usable.add(file);
+            }
+        }
+        LongAdder skippedRows = new LongAdder();
+        // The first two columns are never used, so they don't need to be parsed as nominal values.
+        CorrelationAccumulator accumulator = parser.reduce(usable, Collections.emptySet(), (headers, chunk) -> {
+            // each chunk updates its own accumulator, and is then discarded.
+            CorrelationAccumulator partial = new CorrelationAccumulator(labels.length);
+            addRows(partial, chunk, labels, pairwise, skippedRows);
+            return partial;
+        }, CorrelationAccumulator::merge);
+        // adds the cached files, which are already in memory, and the workbooks, a chunk at a time.
+        CorrelationAccumulator rest = new CorrelationAccumulator(labels.length);
+        for (DataFrame frame : cached) {
+            addRows(rest, frame, labels, pairwise, skippedRows);
+        }
+        for (Path file : workbooks) {
+            try (XlsxReader reader = new XlsxReader(file)) {
+                reader.forEachChunk(Collections.emptySet(), chunk -> addRows(rest, chunk, labels, pairwise, skippedRows));
             }
+        }
+        if (!cached.isEmpty() || !workbooks.isEmpty()) {
+            accumulator = accumulator == null ? rest : accumulator.merge(rest);
+        }
+        // if some rows were skipped, print a single message with the number of rows.
+        Metrics.count("correlation_rows_skipped", skippedRows.sum());
+        if (skippedRows.sum() > 0) {
+            System.err.println(skippedRows.sum() + " rows have missing or non-numeric values and were skipped.");
+        }
+        // with pairwise, a pair can have rows even if the first column has none, so every pair is checked.
+        return accumulator == null || accumulator.isEmpty() ? null : accumulator.correlationMatrix();
+    }
+
+    // Adds the rows of a chunk (or of a whole file) to an accumulator, counting the skipped ones.
+    private static void addRows(CorrelationAccumulator accumulator, DataFrame rows, String[] labels, boolean pairwise,
+                                LongAdder skippedRows) {
+        int[] columns = labelColumns(rows.names(), labels);
+        if (pairwise) {
+            accumulator.addRowsPairwise(rows, columns);
+        } else {
+            skippedRows.add(accumulator.addCompleteRows(rows, columns));
+        }
+    }
+
+    // Finds the columns of the labels in a header. If the header contains every label, the columns are found by name;
+    // otherwise the numeric columns are expected to start at index 2 (the first two are not numbers), in label order.
+    // Returns null if the header has neither layout.
+    static int[] labelColumns(String[] headers, String[] labels) {
+        List<String> names = Arrays.asList(headers);
+        int[] columns = new int[labels.length];
+        if (names.containsAll(Arrays.asList(labels))) {
+            for (int j = 0; j < labels.length; j++) {
+                columns[j] = names.indexOf(labels[j]);
+            }
+            return columns;
+        }
+        if (headers.length - 2 != labels.length) {
+            return null;
+        }
+        for (int j = 0; j < labels.length; j++) {
+            columns[j] = j + 2;
+        }
+        return columns;
+    }
+
+    // Load data from a CSV file, filtering the data based on the provided labels.
+    // The file is read into a columnar DataFrame, and only the rows that have a number in every label column are kept.
+    public static double[][] loadData(String filePath, String[] labels) throws IOException {
+        // Reads the whole file into columns.
+        return completeRows(loadFrame(filePath), labels);
+    }
 
-            rowCount++;
+    // Returns the rows of a frame that have a number in every label column, as arrays of the label values.
+    public static double[][] completeRows(DataFrame frame, String[] labels) {
+        // finds the label columns in the same way as computeFiles: by name, or from index 2 in label order.
+        int[] labelColumns = labelColumns(frame.names(), labels);
+        if (labelColumns == null) {
+            System.err.println("File has no column named after every label, and " + (frame.columnCount() - 2)
+                    + " numeric columns. Expected one numeric column per label.");
+            return new double[0][];
+        }
+        // gets the arrays of all of the label columns.
+        double[][] columns = new double[labels.length][];
+        for (int j = 0; j < labels.length; j++) {
+            columns[j] = frame.numericColumn(labelColumns[j]);
         }
-        // Closes the reader.
-        reader.close();
 
+        // Creates a new list that will hold each complete row of data as an array of doubles
+        List<double[]> dataList = new ArrayList<>();
+        int skippedRows = 0;
+        // loops through all of the rows, copying the values of the rows that are complete.
+        for (int row = 0; row < frame.rowCount(); row++) {
+            double[] values = new double[labels.length];
+            boolean complete = true;
+            for (int j = 0; j < labels.length && complete; j++) {
+                values[j] = columns[j][row];
+                // missing and non numeric values are stored as NaN.
+                complete = !Double.isNaN(values[j]);
+            }
+            if (complete) {
+                dataList.add(values);
+            } else {
+                skippedRows++;
+            }
+        }
+        // if some rows were skipped, print a single message with the number of rows.
+        Metrics.count("correlation_rows_skipped", skippedRows);
+        if (skippedRows > 0) {
+            System.err.println(skippedRows + " rows have missing or non-numeric values and were skipped.");
+        }
         // Convert List to 2D array
-        // Creates a matrix (2d array of doubles) to store all of the collected values.
-        double[][] data = new double[dataList.size()][];
-        // loops all the elements of the list and saves them in the new 2d array.
-        for (int i = 0; i < dataList.size(); i++) {
-            data[i] = dataList.get(i);
-        }
-        // returns the 2d array
-        return data;
+        return dataList.toArray(new double[0][]);
+    }
+
+    // Reads a CSV file into a columnar DataFrame. The first column (the country) is nominal, and all of the others are numeric.
+    // Empty and non numeric values are recorded as missing. The file is parsed in parallel chunks by ChunkedCSVParser, or
+    // read from its ColumnarCache if that is up to date.
+    public static DataFrame loadFrame(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        // An XLSX workbook is read straight from its first sheet.
+        if (XlsxReader.isXlsx(filePath)) {
+            return XlsxReader.load(path);
+        }
+        // reads the headers, to find the name of the first column.
+        String[] headers = new ChunkedCSVParser().readHeader(path);
+        return ColumnarCache.loadCsv(path, headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0]));
     }
 
     // write the correlation matrix to a csv file, using a given path, and a set of labels for the columns and the rows.
@@ -0,0 +1,459 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+// Lazy pipeline of DataFrame stages, e.g. load -> merge -> impute -> split -> train, with every intermediate result
+// passed in memory instead of being written to a CSV or ARFF file and parsed again by the next step.
+// Building a pipeline only records its stages; nothing runs until a result is asked for (collect, trainRidge, writeArff).
+// There are two kinds of stages:
+//   - whole-table stages (load, merge, anneal, impute, selectFeatures), which need all of their input at once. Their result is kept, so
+//     pipelines that share them (like the two sides of a split) only run them once.
+//   - row stages (filter, dropMissing, split, select, drop), which only look at one row at a time. All of the row stages
+//     after a whole-table stage are fused into a single pass over its rows, and the result is copied once at the end,
+//     however many of them there are.
+//
+// main runs a pipeline described by a properties file (see pipeline.properties).
+public final class Pipeline {
+
+    // Decides if a row is kept. The position is the number of rows that reached the filter before this one, which
+    // doesn't depend on how the rows were numbered by the earlier stages.
+    public interface RowFilter {
+        boolean keep(DataFrame frame, int row, long position);
+    }
+
+    // Computes a whole table from the results of the input pipelines.
+    private interface TableStage {
+        DataFrame apply(List<DataFrame> inputs) throws IOException;
+    }
+
+    private final List<Pipeline> inputs;
+    // exactly one of these is set.
+    private final TableStage table;
+    private final RowFilter filter;
+    // Columns kept by a select or drop stage (null for other stages), decided from the names of the input columns.
+    private final ColumnChoice columns;
+    // Result of the stage, once it has run.
+    private DataFrame result;
+
+    private Pipeline(List<Pipeline> inputs, TableStage table, RowFilter filter, ColumnChoice columns) {
+        this.inputs = inputs;
+        this.table = table;
+        this.filter = filter;
+        this.columns = columns;
+    }
+
+    public static void main(String[] args) {
+        // The properties file that describes the pipeline.
+        String configPath = args.length > 0 ? args[0] : "/Users/dontronolone/Downloads/pipeline.properties";  // Update with the path to your config
+        try {
+            Properties config = new Properties();
+            try (Reader reader = Files.newBufferedReader(Paths.get(configPath), StandardCharsets.UTF_8)) {
+                config.load(reader);
+            }
+            run(config);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Loads a CSV file (parsed with ChunkedCSVParser, with the given nominal columns) or an ARFF file through its
+    // ColumnarCache, or an XLSX workbook (its first sheet, with the given nominal columns), which isn't cached.
+    public static Pipeline load(String path, Set<String> nominalColumns) {
+        return new Pipeline(Collections.emptyList(), frames -> {
+            String name = path.toLowerCase(Locale.ROOT);
+            if (XlsxReader.isXlsx(path)) {
+                return XlsxReader.load(Paths.get(path), nominalColumns);
+            }
+            return name.endsWith(".arff") || name.endsWith(".arff.gz")
+                    ? InstancesConverter.loadCachedFrame(path)
+                    : ColumnarCache.loadCsv(Paths.get(path), nominalColumns);
+        }, null, null);
+    }
+
+    // Starts a pipeline from a DataFrame that is already in memory.
+    public static Pipeline of(DataFrame frame) {
+        return new Pipeline(Collections.emptyList(), frames -> frame, null, null);
+    }
+
+    // Full outer join with other pipelines on their Country and Year columns (HashJoin).
+    public Pipeline merge(List<Pipeline> others) {
+        List<Pipeline> all = new ArrayList<>();
+        all.add(this);
+        all.addAll(others);
+        return new Pipeline(all, frames -> new HashJoin().fullOuterJoin(frames, "Country", "Year"), null, null);
+    }
+
+    // Drops the sparse columns and rows chosen by SimulatedAnnealingMerge's parallel annealing search.
+    public Pipeline anneal(int chains, long seed) {
+        return new Pipeline(Collections.singletonList(this), frames -> {
+            DataFrame frame = frames.get(0);
+            try {
+                ParallelAnnealingRunner.Solution best = SimulatedAnnealingMerge.parallelAnnealingSearch(frame, chains, seed);
+                boolean[] dropped = best.droppedColumns();
+                List<String> kept = new ArrayList<>();
+                for (int c = 0; c < frame.columnCount(); c++) {
+                    if (!dropped[c]) {
+                        kept.add(frame.name(c));
+                    }
+                }
+                BitSet droppedRows = best.droppedRows();
+                return of(frame).select(kept).filter((f, row, position) -> !droppedRows.get(row)).collect();
+            } catch (InterruptedException e) {
+                // keeps the interrupt, and the table without any drop.
+                Thread.currentThread().interrupt();
+                return frame;
+            }
+        }, null, null);
+    }
+
+    // Fills in the missing values.
+    public Pipeline impute(Imputer imputer) {
+        return new Pipeline(Collections.singletonList(this), frames -> imputer.impute(frames.get(0)), null, null);
+    }
+
+    // Drops the numeric features that are redundant with another one for predicting a target (FeatureSelector), keeping
+    // the target and the nominal columns.
+    public Pipeline selectFeatures(String target, double threshold) {
+        return new Pipeline(Collections.singletonList(this), frames -> {
+            DataFrame frame = frames.get(0);
+            int targetColumn = frame.columnIndex(target);
+            if (targetColumn < 0 || frame.isNominal(targetColumn)) {
+                throw new IllegalArgumentException("Expected a numeric column named " + target);
+            }
+            FeatureSelector.Selection selection = new FeatureSelector(threshold)
+                    .select(frame, numericFeatures(frame, targetColumn), targetColumn);
+            for (String dropped : selection.dropped()) {
+                System.out.println("Dropped redundant feature: " + dropped);
+            }
+            Set<Integer> kept = new HashSet<>();
+            for (int column : selection.kept()) {
+                kept.add(column);
+            }
+            List<String> names = new ArrayList<>();
+            for (int c = 0; c < frame.columnCount(); c++) {
+                if (c == targetColumn || frame.isNominal(c) || kept.contains(c)) {
+                    names.add(frame.name(c));
+                }
+            }
+            return of(frame).select(names).collect();
+        }, null, null);
+    }
+
+    // Keeps the rows that pass a filter.
+    public Pipeline filter(RowFilter rowFilter) {
+        return new Pipeline(Collections.singletonList(this), null, rowFilter, null);
+    }
+
+    // Keeps the rows that have a value in a column.
+    public Pipeline dropMissing(String column) {
+        return filter(new RowFilter() {
+            // the column is looked up once per table, not once per row.
+            private volatile ColumnOf lookup;
+
+            @Override
+            public boolean keep(DataFrame frame, int row, long position) {
+                ColumnOf current = lookup;
+                if (current == null || current.frame != frame) {
+                    current = new ColumnOf(frame, frame.columnIndex(column));
+                    lookup = current;
+                }
+                return current.column >= 0 && !frame.isMissing(current.column, row);
+            }
+        });
+    }
+
+    // A column index, and the table it belongs to.
+    private static final class ColumnOf {
+        private final DataFrame frame;
+        private final int column;
+
+        ColumnOf(DataFrame frame, int column) {
+            this.frame = frame;
+            this.column = column;
+        }
+    }
+
+    // Keeps only the given columns, in the given order.
+    public Pipeline select(List<String> names) {
+        return new Pipeline(Collections.singletonList(this), null, null, new ColumnChoice(names, true));
+    }
+
+    // Removes the given columns.
+    public Pipeline drop(List<String> names) {
+        return new Pipeline(Collections.singletonList(this), null, null, new ColumnChoice(names, false));
+    }
+
+    // Splits the rows into a training and a test set, with the same seeded hash of the row position as
+    // StreamingSplitter, so a split of the same rows is always the same.
+    public Split split(double trainFraction, long seed) {
+        if (!(trainFraction > 0 && trainFraction < 1)) {
+            throw new IllegalArgumentException("Expected a training fraction between 0 and 1");
+        }
+        return new Split(
+                filter((frame, row, position) -> StreamingSplitter.unitHash(seed, position) < trainFraction),
+                filter((frame, row, position) -> StreamingSplitter.unitHash(seed, position) >= trainFraction));
+    }
+
+    // The two sides of a split. They share every stage before the split, which only runs once.
+    public static final class Split {
+        private final Pipeline train;
+        private final Pipeline test;
+
+        Split(Pipeline train, Pipeline test) {
+            this.train = train;
+            this.test = test;
+        }
+
+        public Pipeline train() {
+            return train;
+        }
+
+        public Pipeline test() {
+            return test;
+        }
+    }
+
+    // Runs the pipeline (only the stages that haven't run yet) and returns its table.
+    public synchronized DataFrame collect() throws IOException {
+        if (result != null) {
+            return result;
+        }
+        if (table != null) {
+            List<DataFrame> frames = new ArrayList<>();
+            for (Pipeline input : inputs) {
+                frames.add(input.collect());
+            }
+            result = table.apply(frames);
+            return result;
+        }
+        // the row stages back to the last whole-table stage, in order.
+        List<Pipeline> stages = new ArrayList<>();
+        Pipeline source = this;
+        while (source.table == null) {
+            stages.add(0, source);
+            source = source.inputs.get(0);
+        }
+        result = fuse(source.collect(), stages);
+        return result;
+    }
+
+    // Runs the row stages over a table in one pass, and copies the kept rows and columns once.
+    private static DataFrame fuse(DataFrame frame, List<Pipeline> stages) {
+        // the columns that are left after the select and drop stages.
+        List<String> names = new ArrayList<>(Arrays.asList(frame.names()));
+        List<RowFilter> filters = new ArrayList<>();
+        for (Pipeline stage : stages) {
+            if (stage.columns != null) {
+                names = stage.columns.apply(names);
+            } else {
+                filters.add(stage.filter);
+            }
+        }
+        // the rows that pass every filter, each filter only seeing the rows that passed the ones before it.
+        int[] kept = new int[frame.rowCount()];
+        int count = 0;
+        long[] positions = new long[filters.size()];
+        for (int row = 0; row < frame.rowCount(); row++) {
+            boolean keep = true;
+            for (int f = 0; f < filters.size() && keep; f++) {
+                keep = filters.get(f).keep(frame, row, positions[f]++);
+            }
+            if (keep) {
+                kept[count++] = row;
+            }
+        }
+        return gather(frame, names, kept, count);
+    }
+
+    // Copies some rows and columns of a table.
+    private static DataFrame gather(DataFrame frame, List<String> names, int[] rows, int count) {
+        int columns = names.size();
+        boolean[] nominal = new boolean[columns];
+        double[][] numeric = new double[columns][];
+        int[][] codes = new int[columns][];
+        NominalDictionary[] dictionaries = new NominalDictionary[columns];
+        long[][] missing = new long[columns][];
+        for (int c = 0; c < columns; c++) {
+            int source = frame.columnIndex(names.get(c));
+            nominal[c] = frame.isNominal(source);
+            missing[c] = new long[(count + 63) >>> 6];
+            if (nominal[c]) {
+                int[] in = frame.nominalColumn(source);
+                int[] out = new int[count];
+                for (int i = 0; i < count; i++) {
+                    out[i] = in[rows[i]];
+                }
+                codes[c] = out;
+                dictionaries[c] = frame.dictionary(source);
+            } else {
+                double[] in = frame.numericColumn(source);
+                double[] out = new double[count];
+                for (int i = 0; i < count; i++) {
+                    out[i] = in[rows[i]];
+                }
+                numeric[c] = out;
+            }
+            for (int i = 0; i < count; i++) {
+                if (frame.isMissing(source, rows[i])) {
+                    missing[c][i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return DataFrame.fromColumns(names.toArray(new String[0]), nominal, numeric, codes, dictionaries, missing, count);
+    }
+
+    // Fits a ridge regression of a target column on every other numeric column.
+    public LinearModel trainRidge(String target) throws IOException {
+        DataFrame frame = collect();
+        int targetColumn = frame.columnIndex(target);
+        if (targetColumn < 0 || frame.isNominal(targetColumn)) {
+            throw new IllegalArgumentException("Expected a numeric column named " + target);
+        }
+        return new RidgeRegression().fit(frame, numericFeatures(frame, targetColumn), targetColumn);
+    }
+
+    // Returns every numeric column except the target.
+    private static int[] numericFeatures(DataFrame frame, int targetColumn) {
+        int[] features = new int[frame.columnCount()];
+        int count = 0;
+        for (int c = 0; c < frame.columnCount(); c++) {
+            if (c != targetColumn && !frame.isNominal(c)) {
+                features[count++] = c;
+            }
+        }
+        return Arrays.copyOf(features, count);
+    }
+
+    // Writes the table as an ARFF file (compressed if the name ends with .gz).
+    public void writeArff(Path path, String relationName) throws IOException {
+        ArffWriter.write(collect(), relationName, path, false);
+    }
+
+    // Columns kept by a select (the given names, in order) or a drop (all but the given names).
+    private static final class ColumnChoice {
+        private final List<String> names;
+        private final boolean select;
+
+        ColumnChoice(List<String> names, boolean select) {
+            this.names = new ArrayList<>(names);
+            this.select = select;
+        }
+
+        List<String> apply(List<String> available) {
+            if (select) {
+                for (String name : names) {
+                    if (!available.contains(name)) {
+                        throw new IllegalArgumentException("No column named " + name);
+                    }
+                }
+                return names;
+            }
+            Set<String> dropped = new HashSet<>(names);
+            List<String> kept = new ArrayList<>();
+            for (String name : available) {
+                if (!dropped.contains(name)) {
+                    kept.add(name);
+                }
+            }
+            return kept;
+        }
+    }
+
+    // Builds and runs the pipeline described by a config (see pipeline.properties for the keys).
+    static void run(Properties config) throws IOException {
+        Set<String> nominal = new LinkedHashSet<>(list(config, "nominal", "Country"));
+        List<String> paths = list(config, "inputs", "");
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException("The config has no inputs");
+        }
+
+        // load -> merge -> anneal -> impute -> select / drop
+        Pipeline pipeline = load(paths.get(0), nominal);
+        if (paths.size() > 1) {
+            List<Pipeline> others = new ArrayList<>();
+            for (String path : paths.subList(1, paths.size())) {
+                others.add(load(path, nominal));
+            }
+            pipeline = pipeline.merge(others);
+        }
+        int chains = Integer.parseInt(config.getProperty("merge.chains", "0").trim());
+        if (chains > 0) {
+            pipeline = pipeline.anneal(chains, Long.parseLong(config.getProperty("merge.seed", "1").trim()));
+        }
+        List<String> strategies = list(config, "impute", "");
+        if (!strategies.isEmpty()) {
+            List<Imputer.Strategy> parsed = new ArrayList<>();
+            for (String strategy : strategies) {
+                parsed.add(Imputer.Strategy.parse(strategy));
+            }
+            int neighbours = Integer.parseInt(config.getProperty("impute.k", String.valueOf(Imputer.DEFAULT_NEIGHBOURS)).trim());
+            pipeline = pipeline.impute(new Imputer("Country", "Year", parsed, neighbours));
+        }
+        List<String> selected = list(config, "select", "");
+        if (!selected.isEmpty()) {
+            pipeline = pipeline.select(selected);
+        }
+        List<String> dropped = list(config, "drop", "");
+        if (!dropped.isEmpty()) {
+            pipeline = pipeline.drop(dropped);
+        }
+        String target = config.getProperty("train.target", "").trim();
+        if (!target.isEmpty()) {
+            pipeline = pipeline.dropMissing(target);
+            String threshold = config.getProperty("select.threshold", "").trim();
+            if (!threshold.isEmpty()) {
+                pipeline = pipeline.selectFeatures(target, Double.parseDouble(threshold));
+            }
+        }
+        String output = config.getProperty("output", "").trim();
+        if (!output.isEmpty()) {
+            pipeline.writeArff(Paths.get(output), "pipeline");
+            System.out.println("Dataset saved to: " + output);
+        }
+
+        // split -> train -> evaluate
+        double trainFraction = Double.parseDouble(config.getProperty("split.train", "0.8").trim());
+        Split split = pipeline.split(trainFraction, Long.parseLong(config.getProperty("split.seed", "42").trim()));
+        String trainOutput = config.getProperty("output.train", "").trim();
+        String testOutput = config.getProperty("output.test", "").trim();
+        if (!trainOutput.isEmpty()) {
+            split.train().writeArff(Paths.get(trainOutput), "train");
+        }
+        if (!testOutput.isEmpty()) {
+            split.test().writeArff(Paths.get(testOutput), "test");
+        }
+        if (!target.isEmpty()) {
+            LinearModel model = split.train().trainRidge(target);
+            System.out.println(model);
+            DataFrame test = split.test().collect();
+            double[] predictions = model.predict(test);
+            double[] actual = test.numericColumn(test.columnIndex(target));
+            System.out.println("=== Evaluation on the test set ===");
+            System.out.println(new RidgeRegression.CrossValidation(actual, predictions));
+        }
+    }
+
+    // Reads a comma separated list from a config.
+    private static List<String> list(Properties config, String key, String defaultValue) {
+        List<String> values = new ArrayList<>();
+        for (String value : config.getProperty(key, defaultValue).split(",")) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values;
+    }
+}
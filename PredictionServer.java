@@ -0,0 +1,261 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Small local HTTP service that scores a LinearModel.
+//   GET  /model                      the model, as JSON.
+//   GET  /predict?Year=2015&...      the prediction of one row, given by feature name (absent features are missing).
+//   POST /predict                    one row per line, comma separated, in the order of the model's features (or in the
+//                                    order of a header line with the feature names); empty or ? values are missing.
+//                                    Answers with one prediction per line.
+// A POST body is parsed straight from its bytes into one double[] per feature, and the whole batch is scored with
+// LinearModel.predict in a single pass per feature. Every request runs on its own virtual thread when the JVM has them
+// (Java 21 and later), or on a fixed pool of platform threads otherwise.
+public class PredictionServer {
+
+    private final LinearModel model;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Creates a server for a model on a local port (0 picks a free one). It starts answering after start().
+    public PredictionServer(LinearModel model, int port) throws IOException {
+        this.model = model;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/model", this::handleModel);
+        server.createContext("/predict", this::handlePredict);
+    }
+
+    public static void main(String[] args) throws IOException {
+        // Defines the dataset the model is trained on, and the port of the service.
+        String filePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_no_country.arff";  // Update with the path to your dataset
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+
+        // Trains the built-in ridge regression on every other numeric column, and serves it.
+        DataFrame frame = InstancesConverter.loadCachedFrame(filePath);
+        int target = frame.columnIndex("Under-five_mortality_rate");
+        int[] features = new int[frame.columnCount()];
+        int count = 0;
+        for (int c = 0; c < frame.columnCount(); c++) {
+            if (c != target && !frame.isNominal(c)) {
+                features[count++] = c;
+            }
+        }
+        LinearModel model = new RidgeRegression().fit(frame, Arrays.copyOf(features, count), target);
+        PredictionServer server = new PredictionServer(model, port);
+        server.start();
+        System.out.println("Serving predictions of " + model.targetName() + " on http://localhost:" + server.port() + "/predict");
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stops accepting requests, waits up to the given number of seconds for the current ones, and stops the threads.
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    // Returns the port the server listens on.
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    // Answers GET /model.
+    private void handleModel(HttpExchange exchange) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"target\":").append(quote(model.targetName())).append(",\"intercept\":").append(model.intercept());
+        json.append(",\"features\":[");
+        double[] coefficients = model.coefficients();
+        for (int i = 0; i < coefficients.length; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"name\":").append(quote(model.featureName(i)))
+                    .append(",\"coefficient\":").append(coefficients[i]).append('}');
+        }
+        json.append("]}\n");
+        respond(exchange, 200, "application/json", json.toString());
+    }
+
+    // Answers GET and POST /predict.
+    private void handlePredict(HttpExchange exchange) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                double[] row = parseQuery(exchange.getRequestURI().getRawQuery());
+                respond(exchange, 200, "text/plain", model.predict(row) + "\n");
+            } else if ("POST".equals(exchange.getRequestMethod())) {
+                byte[] body;
+                try (InputStream in = exchange.getRequestBody()) {
+                    body = in.readAllBytes();
+                }
+                double[] predictions = predictBatch(body);
+                StringBuilder text = new StringBuilder(predictions.length * 20);
+                for (double prediction : predictions) {
+                    text.append(prediction).append('\n');
+                }
+                respond(exchange, 200, "text/plain", text.toString());
+            } else {
+                respond(exchange, 405, "text/plain", "Expected GET or POST\n");
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+        }
+    }
+
+    // Parses a POST body into feature columns and scores them as one batch.
+    double[] predictBatch(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        int end = body.length;
+        // counts the lines, to size the columns.
+        int lines = 0;
+        for (int i = 0; i < end; i++) {
+            if (body[i] == '\n') {
+                lines++;
+            }
+        }
+        if (end > 0 && body[end - 1] != '\n') {
+            lines++;
+        }
+        // the feature of each field of a line: the model's order, unless the first line is a header.
+        int[] fieldFeature = new int[model.features()];
+        for (int i = 0; i < fieldFeature.length; i++) {
+            fieldFeature[i] = i;
+        }
+        int position = 0;
+        int lineEnd = lineEnd(body, 0);
+        if (lines > 0 && isHeader(buffer, 0, lineEnd)) {
+            String[] names = ChunkedCSVParser.splitLine(new String(body, 0, trimEnd(body, 0, lineEnd), StandardCharsets.UTF_8));
+            fieldFeature = new int[names.length];
+            for (int f = 0; f < names.length; f++) {
+                fieldFeature[f] = model.featureIndex(names[f].trim());
+                if (fieldFeature[f] < 0) {
+                    throw new IllegalArgumentException("Unknown feature " + names[f]);
+                }
+            }
+            position = lineEnd + 1;
+            lines--;
+        }
+
+        double[][] columns = new double[model.features()][lines];
+        for (double[] column : columns) {
+            Arrays.fill(column, Double.NaN);
+        }
+        int row = 0;
+        while (position < end) {
+            lineEnd = lineEnd(body, position);
+            int last = trimEnd(body, position, lineEnd);
+            // blank lines are skipped.
+            if (last == position) {
+                position = lineEnd + 1;
+                continue;
+            }
+            // splits the line at the commas, parsing each field in place.
+            int field = 0;
+            int start = position;
+            for (int i = position; i <= last; i++) {
+                if (i == last || body[i] == ',') {
+                    if (field >= fieldFeature.length) {
+                        throw new IllegalArgumentException("Line " + (row + 1) + " has too many values");
+                    }
+                    columns[fieldFeature[field]][row] = ChunkedCSVParser.parseDouble(buffer, start, i);
+                    field++;
+                    start = i + 1;
+                }
+            }
+            row++;
+            position = lineEnd + 1;
+        }
+        double[] predictions = new double[row];
+        model.predict(columns, 0, row, predictions, 0);
+        return predictions;
+    }
+
+    // Parses the query of a GET request (feature=value pairs) into a row.
+    private double[] parseQuery(String query) {
+        double[] row = new double[model.features()];
+        Arrays.fill(row, Double.NaN);
+        if (query == null) {
+            return row;
+        }
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0) {
+                continue;
+            }
+            String name = URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8);
+            int feature = model.featureIndex(name);
+            if (feature < 0) {
+                throw new IllegalArgumentException("Unknown feature " + name);
+            }
+            String value = URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            try {
+                row[feature] = value.isEmpty() || value.equals("?") ? Double.NaN : Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number: " + value);
+            }
+        }
+        return row;
+    }
+
+    // Checks if a line is a header: a field that is neither a number nor a missing value.
+    private static boolean isHeader(ByteBuffer buffer, int from, int to) {
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ',' || buffer.get(i) == '\r') {
+                boolean missing = i == start || (i - start == 1 && buffer.get(start) == '?');
+                if (!missing && Double.isNaN(ChunkedCSVParser.parseDouble(buffer, start, i))) {
+                    return true;
+                }
+                start = i + 1;
+            }
+        }
+        return false;
+    }
+
+    // Returns the position of the newline that ends the line starting at from (or the end of the body).
+    private static int lineEnd(byte[] body, int from) {
+        int i = from;
+        while (i < body.length && body[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    // Returns the end of a line without its carriage return.
+    private static int trimEnd(byte[] body, int from, int to) {
+        return to > from && body[to - 1] == '\r' ? to - 1 : to;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    // Creates the executor of the requests: a virtual thread per request when the JVM supports them (looked up by name,
+    // so the code still compiles and runs on Java 17), or a fixed pool of platform threads.
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+        }
+    }
+}
@@ -0,0 +1,190 @@
+// Mergeable quantile sketch with a relative error guarantee (the DDSketch scheme), used for percentiles of large groups
+// without keeping their values.
+// A positive value x goes to bucket ceil(log_gamma(x)), with gamma = (1 + a) / (1 - a), so every value of a bucket is
+// within a relative error a of the bucket's representative value; negative values use a second set of buckets, and zeros
+// are counted apart. A quantile walks the bucket counts. Two sketches with the same accuracy are merged by adding their
+// counts, so partial sketches built on different threads give the same result as one sketch over all of the values.
+// The buckets are a dense array of counts around the used indexes. If it grows past maxBuckets, the lowest buckets are
+// folded into one, which only loses accuracy for the smallest values (the low quantiles of a very wide range).
+public final class QuantileSketch {
+
+    // Default relative accuracy (1%).
+    public static final double DEFAULT_ACCURACY = 0.01;
+    // Default largest number of buckets of each sign (enough for 1% over more than 17 orders of magnitude).
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final int maxBuckets;
+    private final Buckets positive;
+    private final Buckets negative;
+    private long zeros;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    public QuantileSketch(double accuracy, int maxBuckets) {
+        if (!(accuracy > 0 && accuracy < 1)) {
+            throw new IllegalArgumentException("Expected an accuracy in (0, 1): " + accuracy);
+        }
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.logGamma = Math.log(gamma);
+        this.maxBuckets = maxBuckets;
+        this.positive = new Buckets(maxBuckets);
+        this.negative = new Buckets(maxBuckets);
+    }
+
+    // Adds a value (NaN values are ignored).
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        // values too close to 0 to have a bucket of their own are counted as zeros.
+        if (value > Double.MIN_NORMAL) {
+            positive.add(index(value), 1);
+        } else if (value < -Double.MIN_NORMAL) {
+            negative.add(index(-value), 1);
+        } else {
+            zeros++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    // Adds the values of another sketch, which must have the same accuracy.
+    public QuantileSketch merge(QuantileSketch other) {
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Can't merge sketches of different accuracies");
+        }
+        positive.addAll(other.positive);
+        negative.addAll(other.negative);
+        zeros += other.zeros;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        return this;
+    }
+
+    // Returns the number of values.
+    public long count() {
+        return count;
+    }
+
+    // Returns the value at a quantile q in [0, 1] (e.g. 0.5 for the median), within the relative accuracy, or NaN if
+    // the sketch is empty. The lowest and highest quantiles are the exact minimum and maximum.
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("Expected a quantile in [0, 1]: " + q);
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (q == 0) {
+            return min;
+        }
+        if (q == 1) {
+            return max;
+        }
+        // rank of the value, counted from 0 (the same rank as the lower of the two middle values for a median).
+        long rank = (long) Math.floor(q * (count - 1));
+        double value;
+        if (rank < negative.total) {
+            // the negative buckets are walked from the most negative value, which has the highest index.
+            value = -representative(negative.indexAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zeros) {
+            value = 0;
+        } else {
+            value = representative(positive.indexAtRank(rank - negative.total - zeros));
+        }
+        // the representative value of a bucket can be slightly past the extreme values.
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    // Value that is within the relative accuracy of every value of a bucket.
+    private double representative(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    // Counts of the buckets of one sign, in a dense array that starts at the bucket offset.
+    private static final class Buckets {
+        private final int maxBuckets;
+        private long[] counts = new long[0];
+        private int offset;
+        private long total;
+
+        Buckets(int maxBuckets) {
+            this.maxBuckets = maxBuckets;
+        }
+
+        void add(int index, long n) {
+            if (counts.length == 0) {
+                counts = new long[16];
+                offset = index - 8;
+            }
+            if (index < offset || index >= offset + counts.length) {
+                index = grow(index);
+            }
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        void addAll(Buckets other) {
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        // Makes room for an index, and returns the index to use (the lowest bucket, when the index was folded into it).
+        private int grow(int index) {
+            int low = Math.min(offset, index);
+            int high = Math.max(offset + counts.length, index + 1);
+            if (high - low > maxBuckets) {
+                // folds the lowest buckets into the lowest one that is kept.
+                low = high - maxBuckets;
+                long[] kept = new long[maxBuckets];
+                for (int i = 0; i < counts.length; i++) {
+                    int target = Math.max(low, offset + i);
+                    if (target < high) {
+                        kept[target - low] += counts[i];
+                    }
+                }
+                counts = kept;
+                offset = low;
+                return Math.max(low, index);
+            }
+            // grows by at least half, so a series of new extremes doesn't copy the array every time.
+            int size = Math.min(maxBuckets, Math.max(high - low, counts.length + counts.length / 2));
+            int newOffset = index < offset ? high - size : low;
+            long[] grown = new long[size];
+            System.arraycopy(counts, 0, grown, offset - newOffset, counts.length);
+            counts = grown;
+            offset = newOffset;
+            return index;
+        }
+
+        // Returns the index of the bucket of the value at a rank (counted from the lowest index).
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {
+                    return offset + i;
+                }
+            }
+            return offset + counts.length - 1;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+
+// Sufficient statistics of a linear regression of a target on k feature columns: for every pair of columns, the number of
+// rows where both are present, the sum of each one's values over those rows, and the sum of their products.
+// That's all RidgeRegression needs to build X^T X and X^T y, so a model can be fitted in O(k^3) without looking at the
+// rows again. The sums are plain sums, so they can be added to (new rows), merged (rows added on another thread) and
+// subtracted (the rows of a cross validation fold), which Welford's running means can't do.
+// To keep the sums from cancelling, every column is shifted by a value close to its data (by default, its first value),
+// so the sums are of x - shift instead of x.
+// Rows without a target value are skipped, like Weka's LinearRegression skips them. A missing feature value (NaN) only
+// leaves out the pairs of that column, which gives the same X^T X as Weka's replacement of missing values by the mean.
+public class RegressionStatistics {
+
+    // Number of feature columns; column k is the target.
+    private final int k;
+    // Number of columns including the target.
+    private final int d;
+    // Value subtracted from each column (NaN until the column's first value is seen).
+    private final double[] shift;
+    // Per pair (i, j), stored at i * d + j:
+    // number of rows where both columns are present,
+    private final long[] count;
+    // sum of (x_i - shift_i) over those rows,
+    private final double[] sum;
+    // and sum of (x_i - shift_i) * (x_j - shift_j) over those rows (symmetric, so only i >= j is used).
+    private final double[] product;
+
+    // Creates empty statistics for k features and a target.
+    public RegressionStatistics(int k) {
+        this.k = k;
+        this.d = k + 1;
+        this.shift = new double[d];
+        Arrays.fill(shift, Double.NaN);
+        this.count = new long[d * d];
+        this.sum = new double[d * d];
+        this.product = new double[d * d];
+    }
+
+    // Creates an independent copy of other statistics.
+    public RegressionStatistics(RegressionStatistics other) {
+        this.k = other.k;
+        this.d = other.d;
+        this.shift = other.shift.clone();
+        this.count = other.count.clone();
+        this.sum = other.sum.clone();
+        this.product = other.product.clone();
+    }
+
+    // Creates empty statistics that use the same shifts as these, so they can be merged or subtracted without rebasing.
+    public RegressionStatistics emptyCopy() {
+        RegressionStatistics copy = new RegressionStatistics(k);
+        System.arraycopy(shift, 0, copy.shift, 0, d);
+        return copy;
+    }
+
+    // Returns the number of feature columns.
+    public int features() {
+        return k;
+    }
+
+    // Returns the number of rows that were added (with a target value).
+    public long rows() {
+        return count[k * d + k];
+    }
+
+    // Adds a row: k feature values (NaN when missing) and the target. Returns false, without adding it, if the target is
+    // missing.
+    public boolean add(double[] features, double target) {
+        if (Double.isNaN(target)) {
+            return false;
+        }
+        if (Double.isNaN(shift[k])) {
+            shift[k] = target;
+        }
+        double y = target - shift[k];
+        // the target pairs with every present feature, and with itself.
+        for (int i = 0; i < k; i++) {
+            double value = features[i];
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            if (Double.isNaN(shift[i])) {
+                shift[i] = value;
+            }
+            double x = value - shift[i];
+            for (int j = 0; j <= i; j++) {
+                if (Double.isNaN(features[j])) {
+                    continue;
+                }
+                double xj = features[j] - shift[j];
+                count[i * d + j]++;
+                sum[i * d + j] += x;
+                product[i * d + j] += x * xj;
+                if (j != i) {
+                    count[j * d + i]++;
+                    sum[j * d + i] += xj;
+                }
+            }
+            count[i * d + k]++;
+            count[k * d + i]++;
+            sum[i * d + k] += x;
+            sum[k * d + i] += y;
+            product[k * d + i] += x * y;
+        }
+        count[k * d + k]++;
+        sum[k * d + k] += y;
+        product[k * d + k] += y * y;
+        return true;
+    }
+
+    // Adds the rows of a DataFrame, using the given numeric columns as the features and another one as the target.
+    // Returns the number of rows that were skipped because their target is missing.
+    public long addRows(DataFrame frame, int[] featureColumns, int targetColumn) {
+        if (featureColumns.length != k) {
+            throw new IllegalArgumentException("Expected " + k + " feature columns");
+        }
+        double[][] columns = new double[k][];
+        for (int i = 0; i < k; i++) {
+            columns[i] = frame.numericColumn(featureColumns[i]);
+        }
+        double[] target = frame.numericColumn(targetColumn);
+        double[] row = new double[k];
+        long skipped = 0;
+        for (int r = 0; r < frame.rowCount(); r++) {
+            for (int i = 0; i < k; i++) {
+                row[i] = columns[i][r];
+            }
+            if (!add(row, target[r])) {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+
+    // Adds other statistics to these ones (as if their rows had been added here). Returns these statistics.
+    public RegressionStatistics merge(RegressionStatistics other) {
+        return combine(other, 1);
+    }
+
+    // Removes the rows of other statistics, which must have been added to these ones. Returns these statistics.
+    public RegressionStatistics subtract(RegressionStatistics other) {
+        return combine(other, -1);
+    }
+
+    // Number of rows where both columns are present (column k is the target).
+    public long count(int i, int j) {
+        return count[i * d + j];
+    }
+
+    // Mean of a column over the rows where it is present, or NaN if it is never present.
+    public double mean(int i) {
+        long n = count[i * d + i];
+        return n == 0 ? Double.NaN : shift[i] + sum[i * d + i] / n;
+    }
+
+    // Sum of (x_i - mean_i) * (x_j - mean_j) over the rows where both are present, i.e. the co-moment of the columns
+    // once every missing value is replaced by the mean of its column.
+    public double coMoment(int i, int j) {
+        double a = mean(i) - shift[i];
+        double b = mean(j) - shift[j];
+        int p = i * d + j;
+        int q = j * d + i;
+        long n = count[p];
+        if (n == 0) {
+            return 0;
+        }
+        // sum((x - s_i - a)(y - s_j - b)) = product - b * sum_i - a * sum_j + n * a * b
+        double pairProduct = i >= j ? product[p] : product[q];
+        return pairProduct - b * sum[p] - a * sum[q] + n * a * b;
+    }
+
+    // Adds (sign 1) or subtracts (sign -1) other statistics.
+    private RegressionStatistics combine(RegressionStatistics other, int sign) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("Expected statistics of " + k + " features");
+        }
+        RegressionStatistics source = other;
+        // adopts the other shifts for the columns that have none yet, and rebases the other statistics if they differ.
+        for (int i = 0; i < d; i++) {
+            if (Double.isNaN(shift[i])) {
+                shift[i] = other.shift[i];
+            } else if (!Double.isNaN(other.shift[i]) && other.shift[i] != shift[i]) {
+                if (source == other) {
+                    source = new RegressionStatistics(other);
+                }
+                source.rebase(i, shift[i]);
+            }
+        }
+        for (int p = 0; p < d * d; p++) {
+            count[p] += sign * source.count[p];
+            sum[p] += sign * source.sum[p];
+            product[p] += sign * source.product[p];
+        }
+        return this;
+    }
+
+    // Changes the shift of a column, updating its sums: x - s' = (x - s) + delta, with delta = s - s'.
+    private void rebase(int i, double newShift) {
+        double delta = shift[i] - newShift;
+        for (int j = 0; j < d; j++) {
+            int p = i * d + j;
+            int q = j * d + i;
+            // the products use the old sums of both columns, so they are updated first.
+            if (j == i) {
+                product[p] += 2 * delta * sum[p] + count[p] * delta * delta;
+            } else {
+                int lower = i > j ? p : q;
+                product[lower] += delta * sum[q];
+            }
+        }
+        for (int j = 0; j < d; j++) {
+            sum[i * d + j] += count[i * d + j] * delta;
+        }
+        shift[i] = newShift;
+    }
+}
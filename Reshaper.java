@@ -0,0 +1,718 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Reshapes the GLOBAL_DATAFLOW export between its long layout (one row per country, year and indicator, with the value
+// in its own column) and the wide layout of Cleaned_GLOBAL_DATAFLOW (one row per country and year, one column per
+// indicator), in a fixed amount of memory.
+// pivot (long to wide) streams the long file chunk by chunk. The countries and indicators are numbered by the dictionaries
+// of the ingest step, as they are first seen, and every value becomes a record of a packed (country, year, indicator) key
+// and the value. The records are collected in a buffer of the memory budget; a full buffer is sorted by key and spilled
+// to a temporary run file, and the runs are then merged (a k-way merge with a heap over the runs' current records) into
+// the wide rows, which come out of the merge already grouped by country and year. When the input fits in the budget,
+// nothing is spilled.
+// unpivot (wide to long) needs no sorting: every value of every row of the wide file becomes a line, a chunk at a time.
+// Both read a CSV file or the first sheet of an XLSX workbook (e.g. GLOBAL_DATAFLOW_1995-2023.xlsx), which is streamed
+// a chunk of rows at a time as well.
+public class Reshaper {
+
+    // Default memory budget of the record buffer (64 MB).
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    // Bytes of a record in the buffer: the key and the value.
+    private static final int RECORD_BYTES = 16;
+    // Largest number of runs merged at once (more are first merged into longer runs).
+    private static final int MAX_FAN_IN = 64;
+    private static final int RUN_BUFFER_SIZE = 1 << 16;
+    // Bits of the key: country id (20), year (16) and indicator id (27), so the key is never negative.
+    private static final int YEAR_BITS = 16;
+    private static final int INDICATOR_BITS = 27;
+
+    // Columns of the long layout.
+    private final String countryColumn;
+    private final String yearColumn;
+    private final String indicatorColumn;
+    private final String valueColumn;
+    // Rows of the long file are only used if they have these values (e.g. the total of both sexes), when set.
+    private final Map<String, String> filters = new LinkedHashMap<>();
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // Countries and indicators of the last pivot, numbered in the order they are first seen.
+    private NominalDictionary countries = new NominalDictionary();
+    private NominalDictionary indicators = new NominalDictionary();
+
+    public Reshaper(String countryColumn, String yearColumn, String indicatorColumn, String valueColumn) {
+        this.countryColumn = countryColumn;
+        this.yearColumn = yearColumn;
+        this.indicatorColumn = indicatorColumn;
+        this.valueColumn = valueColumn;
+    }
+
+    public static void main(String[] args) {
+        // Defines the long export, and the wide table it is reshaped into (.csv, or .arff / .arff.gz).
+        // With --unpivot, the input is a wide table and the output the long layout.
+        String inputPath = "/Users/dontronolone/Downloads/GLOBAL_DATAFLOW_1995-2023.csv";  // Update with the path to your dataset
+        String outputPath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023.csv";
+        boolean unpivot = false;
+        // Columns of the UNICEF dataflow export; --country=, --year=, --indicator= and --value= change them.
+        String country = "REF_AREA:Geographic area";
+        String year = "TIME_PERIOD:Time period";
+        String indicator = "INDICATOR:Indicator";
+        String value = "OBS_VALUE:Observation Value";
+        List<String> filters = new ArrayList<>();
+        // The rows are buffered in at most this much memory (--memory=64m) before they are spilled to disk.
+        long memoryBudget = DEFAULT_MEMORY_BUDGET;
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--unpivot")) {
+                unpivot = true;
+            } else if (arg.startsWith("--country=")) {
+                country = arg.substring("--country=".length());
+            } else if (arg.startsWith("--year=")) {
+                year = arg.substring("--year=".length());
+            } else if (arg.startsWith("--indicator=")) {
+                indicator = arg.substring("--indicator=".length());
+            } else if (arg.startsWith("--value=")) {
+                value = arg.substring("--value=".length());
+            } else if (arg.startsWith("--where=")) {
+                // --where=COLUMN=VALUE, e.g. --where=SEX:Sex=_T:Total
+                filters.add(arg.substring("--where=".length()));
+            } else if (arg.startsWith("--memory=")) {
+                memoryBudget = parseBytes(arg.substring("--memory=".length()));
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.size() == 2) {
+            inputPath = paths.get(0);
+            outputPath = paths.get(1);
+        }
+
+        Reshaper reshaper = new Reshaper(country, year, indicator, value);
+        reshaper.setMemoryBudget(memoryBudget);
+        for (String filter : filters) {
+            int equals = filter.lastIndexOf('=');
+            reshaper.where(filter.substring(0, equals), filter.substring(equals + 1));
+        }
+        try {
+            if (unpivot) {
+                long lines = reshaper.unpivot(Paths.get(inputPath), Paths.get(outputPath));
+                System.out.println(lines + " values saved to: " + outputPath);
+            } else {
+                long rows = reshaper.pivot(Paths.get(inputPath), Paths.get(outputPath));
+                System.out.println(rows + " rows of " + reshaper.indicators.size() + " indicators saved to: " + outputPath);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Only uses the rows of the long file where a column has a value.
+    public Reshaper where(String column, String value) {
+        filters.put(column, value);
+        return this;
+    }
+
+    // Sets the memory used to buffer the records before they are spilled to disk.
+    public void setMemoryBudget(long bytes) {
+        if (bytes < RECORD_BYTES * 1024) {
+            throw new IllegalArgumentException("Expected a memory budget of at least " + RECORD_BYTES * 1024 + " bytes");
+        }
+        memoryBudget = bytes;
+    }
+
+    // Reshapes a long CSV file (or XLSX workbook) into a wide table with the country, the year and one column per indicator (in the order
+    // they are first seen). Rows without a country, a year, an indicator or a value are skipped; if a country, year and
+    // indicator has several values, the wide table has their mean. Returns the number of rows of the wide table.
+    public long pivot(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        // every pivot numbers its own countries and indicators, so the table only has the columns of its input.
+        countries = new NominalDictionary();
+        indicators = new NominalDictionary();
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, memoryBudget / RECORD_BYTES);
+        RecordBuffer buffer = new RecordBuffer(capacity);
+        List<Path> runs = new ArrayList<>();
+        // directory of the run files, created when the buffer is first spilled.
+        Path[] spillDirectory = new Path[1];
+        try {
+            Set<String> nominal = new HashSet<>(filters.keySet());
+            nominal.add(countryColumn);
+            nominal.add(indicatorColumn);
+            long[] skipped = new long[1];
+            // reads the records, spilling the buffer every time it's full.
+            forEachChunk(input, nominal, chunk -> {
+                try {
+                    skipped[0] += addRecords(chunk, buffer, () -> {
+                        if (spillDirectory[0] == null) {
+                            spillDirectory[0] = Files.createTempDirectory("reshape");
+                        }
+                        runs.add(buffer.spill(spillDirectory[0]));
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Metrics.count("reshape_rows_skipped", skipped[0]);
+            Metrics.count("reshape_runs_spilled", runs.size());
+
+            // merges the runs (and what is left in the buffer) into the wide rows.
+            List<RunReader> readers = new ArrayList<>();
+            try (WideWriter writer = openWide(output)) {
+                if (runs.isEmpty()) {
+                    buffer.sort();
+                    return writeWide(buffer.records(), writer);
+                }
+                if (buffer.size > 0) {
+                    runs.add(buffer.spill(spillDirectory[0]));
+                }
+                // merges the runs in passes, so no more than MAX_FAN_IN files are open at once.
+                while (runs.size() > MAX_FAN_IN) {
+                    List<Path> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                    runs.subList(0, MAX_FAN_IN).clear();
+                    runs.add(mergeRuns(group, spillDirectory[0]));
+                }
+                for (Path run : runs) {
+                    readers.add(new RunReader(run));
+                }
+                return writeWide(new MergedRecords(readers), writer);
+            } finally {
+                for (RunReader reader : readers) {
+                    reader.close();
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            // deletes the run files.
+            if (spillDirectory[0] != null) {
+                try (Stream<Path> files = Files.list(spillDirectory[0])) {
+                    for (Path file : (Iterable<Path>) files::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                Files.deleteIfExists(spillDirectory[0]);
+            }
+            Metrics.time("reshape_pivot", System.nanoTime() - start);
+        }
+    }
+
+    // Called when the record buffer is full.
+    private interface Spill {
+        void run() throws IOException;
+    }
+
+    // Adds the records of a chunk of the long file to the buffer, with the ids of the ingest dictionaries.
+    // Returns the number of rows that were skipped.
+    private long addRecords(DataFrame chunk, RecordBuffer buffer, Spill spill) throws IOException {
+        int country = column(chunk, countryColumn);
+        int year = column(chunk, yearColumn);
+        int indicator = column(chunk, indicatorColumn);
+        int value = column(chunk, valueColumn);
+        // codes of the chunk translated to the ids of the ingest step.
+        int[] countryIds = translate(chunk.dictionary(country), countries);
+        int[] indicatorIds = translate(chunk.dictionary(indicator), indicators);
+        int[] countryCodes = chunk.nominalColumn(country);
+        int[] indicatorCodes = chunk.nominalColumn(indicator);
+        double[] years = chunk.numericColumn(year);
+        double[] values = chunk.numericColumn(value);
+        // the filters, as the code of the wanted value in the chunk (-2 when the chunk doesn't have it).
+        int[][] filterCodes = new int[filters.size()][];
+        int[] wanted = new int[filters.size()];
+        int f = 0;
+        for (Map.Entry<String, String> filter : filters.entrySet()) {
+            int column = column(chunk, filter.getKey());
+            filterCodes[f] = chunk.nominalColumn(column);
+            int code = chunk.dictionary(column).lookup(filter.getValue());
+            wanted[f++] = code < 0 ? -2 : code;
+        }
+
+        long skipped = 0;
+        long added = 0;
+        rows:
+        for (int r = 0; r < chunk.rowCount(); r++) {
+            for (f = 0; f < wanted.length; f++) {
+                if (filterCodes[f][r] != wanted[f]) {
+                    continue rows;
+                }
+            }
+            double y = years[r];
+            if (countryCodes[r] < 0 || indicatorCodes[r] < 0 || Double.isNaN(values[r]) || !(y >= 0 && y < (1 << YEAR_BITS))) {
+                skipped++;
+                continue;
+            }
+            if (buffer.size == buffer.keys.length) {
+                spill.run();
+            }
+            buffer.add(key(countryIds[countryCodes[r]], (int) y, indicatorIds[indicatorCodes[r]]), values[r]);
+            added++;
+        }
+        Metrics.count("reshape_records", added);
+        return skipped;
+    }
+
+    private static int column(DataFrame frame, String name) {
+        int column = frame.columnIndex(name);
+        if (column < 0) {
+            throw new IllegalArgumentException("No column named " + name);
+        }
+        return column;
+    }
+
+    // Returns the id of every value of a chunk's dictionary in a dictionary of the whole input, adding the new ones.
+    private static int[] translate(NominalDictionary chunk, NominalDictionary ingest) {
+        List<String> values = chunk.values();
+        int[] ids = new int[values.size()];
+        for (int code = 0; code < ids.length; code++) {
+            ids[code] = ingest.encode(values.get(code));
+        }
+        return ids;
+    }
+
+    private static long key(int country, int year, int indicator) {
+        if (country >= 1 << (63 - YEAR_BITS - INDICATOR_BITS) || indicator >= 1 << INDICATOR_BITS) {
+            throw new IllegalArgumentException("Too many countries or indicators");
+        }
+        return ((long) country << (YEAR_BITS + INDICATOR_BITS)) | ((long) year << INDICATOR_BITS) | indicator;
+    }
+
+    // Writes the records, sorted by key, as wide rows. Returns the number of rows.
+    private long writeWide(Records records, WideWriter writer) throws IOException {
+        int width = indicators.size();
+        double[] row = new double[2 + width];
+        // sums and counts of the values of the current row, to average the duplicates.
+        double[] sums = new double[width];
+        int[] counts = new int[width];
+        long rows = 0;
+        long current = -1;
+        while (records.next()) {
+            long rowKey = records.key() >>> INDICATOR_BITS;
+            if (rowKey != current) {
+                if (current >= 0) {
+                    writer.writeRow(fillRow(row, current, sums, counts));
+                    rows++;
+                }
+                current = rowKey;
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+            }
+            int indicator = (int) (records.key() & ((1 << INDICATOR_BITS) - 1));
+            sums[indicator] += records.value();
+            counts[indicator]++;
+        }
+        if (current >= 0) {
+            writer.writeRow(fillRow(row, current, sums, counts));
+            rows++;
+        }
+        return rows;
+    }
+
+    // Fills a wide row: the country id, the year, and the mean of every indicator (NaN when it has no value).
+    private static double[] fillRow(double[] row, long rowKey, double[] sums, int[] counts) {
+        row[0] = rowKey >>> YEAR_BITS;
+        row[1] = rowKey & ((1 << YEAR_BITS) - 1);
+        for (int i = 0; i < sums.length; i++) {
+            row[2 + i] = counts[i] == 0 ? Double.NaN : sums[i] / counts[i];
+        }
+        return row;
+    }
+
+    // Writes the rows of a wide table.
+    private interface WideWriter extends Closeable {
+        // Writes a row: the country id, the year and the value of every indicator (NaN when missing).
+        void writeRow(double[] row) throws IOException;
+    }
+
+    // Opens the wide table: ARFF (with the countries as a nominal attribute) or CSV, depending on the file name.
+    private WideWriter openWide(Path output) throws IOException {
+        String name = output.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".arff") || name.endsWith(".arff.gz")) {
+            ArffWriter arff = ArffWriter.open(output, false);
+            arff.writeRelation("Cleaned_GLOBAL_DATAFLOW");
+            arff.writeNominalAttribute("Country", countries.values());
+            arff.writeNumericAttribute("Year");
+            for (String indicator : indicators.values()) {
+                arff.writeNumericAttribute(indicator);
+            }
+            arff.writeData();
+            return new WideWriter() {
+                @Override
+                public void writeRow(double[] row) throws IOException {
+                    arff.writeRow(row);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    arff.close();
+                }
+            };
+        }
+        BufferedWriter csv = Files.newBufferedWriter(output, StandardCharsets.UTF_8);
+        StringBuilder line = new StringBuilder("Country,Year");
+        for (String indicator : indicators.values()) {
+            line.append(',').append(quote(indicator));
+        }
+        csv.write(line.append('\n').toString());
+        return new WideWriter() {
+            @Override
+            public void writeRow(double[] row) throws IOException {
+                line.setLength(0);
+                line.append(quote(countries.decode((int) row[0]))).append(',').append((int) row[1]);
+                for (int i = 2; i < row.length; i++) {
+                    line.append(',');
+                    if (!Double.isNaN(row[i])) {
+                        line.append(DataFrame.formatNumber(row[i]));
+                    }
+                }
+                csv.write(line.append('\n').toString());
+            }
+
+            @Override
+            public void close() throws IOException {
+                csv.close();
+            }
+        };
+    }
+
+    // Reshapes a wide CSV file or XLSX workbook (the country, the year, and one column per indicator) into the long layout, with one line
+    // per value: country, year, indicator and value (named like the columns of this Reshaper). Missing values are left out.
+    // Returns the number of lines.
+    public long unpivot(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        String[] headers = readHeader(input);
+        Set<String> nominal = new HashSet<>();
+        nominal.add(headers.length == 0 ? countryColumn : headers[0]);
+        long[] lines = new long[1];
+        try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            writer.write(quote(countryColumn) + "," + quote(yearColumn) + "," + quote(indicatorColumn) + "," + quote(valueColumn) + "\n");
+            StringBuilder line = new StringBuilder();
+            forEachChunk(input, nominal, chunk -> {
+                try {
+                    // the first two columns are the country and the year, and all of the others are indicators.
+                    String[] names = new String[chunk.columnCount()];
+                    double[][] columns = new double[chunk.columnCount()][];
+                    for (int c = 2; c < chunk.columnCount(); c++) {
+                        names[c] = quote(chunk.name(c));
+                        columns[c] = chunk.isNominal(c) ? null : chunk.numericColumn(c);
+                    }
+                    for (int r = 0; r < chunk.rowCount(); r++) {
+                        String country = chunk.getText(0, r);
+                        String year = chunk.getText(1, r);
+                        if (country.isEmpty() || year.isEmpty()) {
+                            continue;
+                        }
+                        String prefix = quote(country) + "," + year + ",";
+                        for (int c = 2; c < columns.length; c++) {
+                            if (columns[c] == null || Double.isNaN(columns[c][r])) {
+                                continue;
+                            }
+                            line.setLength(0);
+                            line.append(prefix).append(names[c]).append(',').append(DataFrame.formatNumber(columns[c][r])).append('\n');
+                            writer.write(line.toString());
+                            lines[0]++;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            Metrics.time("reshape_unpivot", System.nanoTime() - start);
+        }
+        return lines[0];
+    }
+
+    // Hands the rows of a CSV file or of the first sheet of an XLSX workbook to the consumer, a chunk at a time.
+    private static void forEachChunk(Path input, Set<String> nominal, Consumer<DataFrame> consumer) throws IOException {
+        if (XlsxReader.isXlsx(input.toString())) {
+            try (XlsxReader reader = new XlsxReader(input)) {
+                reader.forEachChunk(nominal, consumer);
+            }
+        } else {
+            new ChunkedCSVParser().forEachChunk(input, nominal, consumer);
+        }
+    }
+
+    // Reads the column names of a CSV file or XLSX workbook.
+    private static String[] readHeader(Path input) throws IOException {
+        if (XlsxReader.isXlsx(input.toString())) {
+            try (XlsxReader reader = new XlsxReader(input)) {
+                return reader.readHeader();
+            }
+        }
+        return new ChunkedCSVParser().readHeader(input);
+    }
+
+    // Merges runs into one longer run, and deletes them.
+    private static Path mergeRuns(List<Path> runs, Path directory) throws IOException {
+        List<RunReader> readers = new ArrayList<>();
+        Path merged = Files.createTempFile(directory, "run", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(merged), RUN_BUFFER_SIZE))) {
+            for (Path run : runs) {
+                readers.add(new RunReader(run));
+            }
+            Records records = new MergedRecords(readers);
+            while (records.next()) {
+                out.writeLong(records.key());
+                out.writeDouble(records.value());
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        for (Path run : runs) {
+            Files.delete(run);
+        }
+        return merged;
+    }
+
+    // Records in key order (see compare).
+    private interface Records {
+        // Moves to the next record. Returns false at the end.
+        boolean next() throws IOException;
+
+        long key();
+
+        double value();
+    }
+
+    // Buffer of records, which is sorted before it's read or spilled.
+    private static final class RecordBuffer {
+        private final long[] keys;
+        private final double[] values;
+        private int size;
+
+        RecordBuffer(int capacity) {
+            keys = new long[capacity];
+            values = new double[capacity];
+        }
+
+        void add(long key, double value) {
+            keys[size] = key;
+            values[size++] = value;
+        }
+
+        void sort() {
+            sort(keys, values, 0, size - 1);
+        }
+
+        // Sorts the buffer, writes it to a new run file and empties it.
+        Path spill(Path directory) throws IOException {
+            sort();
+            Path run = Files.createTempFile(directory, "run", ".bin");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), RUN_BUFFER_SIZE))) {
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeDouble(values[i]);
+                }
+            }
+            size = 0;
+            return run;
+        }
+
+        Records records() {
+            return new Records() {
+                private int position = -1;
+
+                @Override
+                public boolean next() {
+                    return ++position < size;
+                }
+
+                @Override
+                public long key() {
+                    return keys[position];
+                }
+
+                @Override
+                public double value() {
+                    return values[position];
+                }
+            };
+        }
+
+        // Quicksort of the records (median of three pivots, insertion sort for short ranges).
+        private static void sort(long[] keys, double[] values, int low, int high) {
+            while (high - low > 16) {
+                int middle = (low + high) >>> 1;
+                if (compare(keys, values, middle, low) < 0) {
+                    swap(keys, values, middle, low);
+                }
+                if (compare(keys, values, high, low) < 0) {
+                    swap(keys, values, high, low);
+                }
+                if (compare(keys, values, high, middle) < 0) {
+                    swap(keys, values, high, middle);
+                }
+                long pivotKey = keys[middle];
+                double pivotValue = values[middle];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (Reshaper.compare(keys[i], values[i], pivotKey, pivotValue) < 0) {
+                        i++;
+                    }
+                    while (Reshaper.compare(keys[j], values[j], pivotKey, pivotValue) > 0) {
+                        j--;
+                    }
+                    if (i <= j) {
+                        swap(keys, values, i++, j--);
+                    }
+                }
+                // recurses into the shorter side, so the stack stays O(log n) deep.
+                if (j - low < high - i) {
+                    sort(keys, values, low, j);
+                    low = i;
+                } else {
+                    sort(keys, values, i, high);
+                    high = j;
+                }
+            }
+            for (int i = low + 1; i <= high; i++) {
+                long key = keys[i];
+                double value = values[i];
+                int j = i - 1;
+                while (j >= low && Reshaper.compare(keys[j], values[j], key, value) > 0) {
+                    keys[j + 1] = keys[j];
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                keys[j + 1] = key;
+                values[j + 1] = value;
+            }
+        }
+
+        private static int compare(long[] keys, double[] values, int i, int j) {
+            return Reshaper.compare(keys[i], values[i], keys[j], values[j]);
+        }
+
+        private static void swap(long[] keys, double[] values, int i, int j) {
+            long key = keys[i];
+            keys[i] = keys[j];
+            keys[j] = key;
+            double value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    // Reads the records of a run file.
+    private static final class RunReader implements Records, Closeable {
+        private final DataInputStream in;
+        private long key;
+        private double value;
+
+        RunReader(Path run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), RUN_BUFFER_SIZE));
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            try {
+                key = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            value = in.readDouble();
+            return true;
+        }
+
+        @Override
+        public long key() {
+            return key;
+        }
+
+        @Override
+        public double value() {
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // Merges sorted records: a heap holds every source by its current key, and the smallest one is taken each time.
+    private static final class MergedRecords implements Records {
+        private final PriorityQueue<Records> heap = new PriorityQueue<>((a, b) -> compare(a.key(), a.value(), b.key(), b.value()));
+        private final List<Records> pending = new ArrayList<>();
+        private Records current;
+
+        MergedRecords(List<? extends Records> sources) {
+            pending.addAll(sources);
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            // the sources are moved to their first record on the first call, and the current one to its next record.
+            for (Records source : pending) {
+                if (source.next()) {
+                    heap.add(source);
+                }
+            }
+            pending.clear();
+            if (current != null && current.next()) {
+                heap.add(current);
+            }
+            current = heap.poll();
+            return current != null;
+        }
+
+        @Override
+        public long key() {
+            return current.key();
+        }
+
+        @Override
+        public double value() {
+            return current.value();
+        }
+    }
+
+    // Orders the records by key, and the values of a key by value, so the duplicates of a key are always added in the
+    // same order and their mean doesn't depend on how the records were split into runs.
+    private static int compare(long key1, double value1, long key2, double value2) {
+        int compared = Long.compare(key1, key2);
+        return compared != 0 ? compared : Double.compare(value1, value2);
+    }
+
+    // Parses a number of bytes, with an optional k, m or g suffix (e.g. 64m).
+    static long parseBytes(String text) {
+        String trimmed = text.trim().toLowerCase(Locale.ROOT);
+        char unit = trimmed.isEmpty() ? ' ' : trimmed.charAt(trimmed.length() - 1);
+        int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+        return Long.parseLong(shift == 0 ? trimmed : trimmed.substring(0, trimmed.length() - 1)) << shift;
+    }
+
+    // Quotes a field if it contains a comma, a quote or a line break.
+    private static String quote(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
@@ -0,0 +1,519 @@
+import weka.classifiers.Evaluation;
+import weka.classifiers.functions.LinearRegression;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+// Content-addressed cache of computed results (correlation matrices, trained models and reports, merge results) on disk.
+// An entry is found by a key: the SHA-256 of the name of the stage, of the contents of its input files and of its
+// parameters (labels, ridge, folds, seed, annealing schedule, ...). So a result is reused exactly when the same stage runs
+// with the same parameters on the same bytes, wherever the files are and whatever their dates.
+// Hashing a large input still means reading it, so the hash of every file is remembered along with its size and
+// modification time, and an input that hasn't been touched since the last run isn't read at all.
+//
+// Each entry is one file, written next to its final name and then moved over it, with a CRC32C of its contents; an
+// entry that can't be read is ignored and recomputed. The directory is kept under a size limit by deleting the least
+// recently used entries (a hit updates the modification time of its entry, which is what the eviction orders by).
+public class ResultCache {
+
+    // Default size limit of the directory (256 MB).
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+    // Suffix of the entry files.
+    private static final String SUFFIX = ".result";
+    // Name of the file that remembers the hashes of the input files.
+    private static final String FILE_HASHES = "file-hashes.txt";
+    // First bytes of every entry ("RESCACH1").
+    private static final long MAGIC = 0x5245534341434831L;
+
+    private final Path directory;
+    private final long maxBytes;
+    // Hashes of the input files, by path: size, modification time and hash.
+    private final Map<String, String[]> fileHashes = new HashMap<>();
+    private boolean fileHashesLoaded;
+
+    public ResultCache(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    // Returns the cache in ~/.cache/java-datasets-exam (or in the directory of the resultcache.dir system property), with
+    // the size limit of the resultcache.maxBytes system property or the default one.
+    public static ResultCache openDefault() {
+        String directory = System.getProperty("resultcache.dir",
+                Paths.get(System.getProperty("user.home"), ".cache", "java-datasets-exam").toString());
+        long maxBytes = Long.parseLong(System.getProperty("resultcache.maxBytes", String.valueOf(DEFAULT_MAX_BYTES)));
+        return new ResultCache(Paths.get(directory), maxBytes);
+    }
+
+    // Computes a result that may throw a checked exception.
+    public interface Computation<T, E extends Exception> {
+        T compute() throws E;
+    }
+
+    // Writes and reads the results of one type.
+    public interface Codec<T> {
+        void write(DataOutputStream out, T value) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    // Starts the key of a stage.
+    public Key key(String stage) {
+        return new Key(stage);
+    }
+
+    // Builds a key from the name of a stage, its input files and its parameters, in the order they're added.
+    public final class Key {
+        private final MessageDigest digest = sha256();
+        private final StringBuilder description = new StringBuilder();
+
+        private Key(String stage) {
+            add("stage", stage);
+        }
+
+        // Adds the contents of an input file.
+        public Key file(Path file) throws IOException {
+            add("file", fileHash(file));
+            return this;
+        }
+
+        // Adds a parameter.
+        public Key param(String name, Object value) {
+            add(name, String.valueOf(value));
+            return this;
+        }
+
+        // Adds a parameter with several values (e.g. the labels).
+        public Key param(String name, String[] values) {
+            return param(name, String.join("\u0000", values));
+        }
+
+        private void add(String name, String value) {
+            // the lengths are hashed too, so different splits of the same text give different keys.
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+            digest.update(intBytes(nameBytes.length));
+            digest.update(nameBytes);
+            digest.update(intBytes(valueBytes.length));
+            digest.update(valueBytes);
+            description.append(name).append('=').append(value.length() > 64 ? value.substring(0, 64) + "..." : value).append(' ');
+        }
+
+        // Returns the hexadecimal SHA-256 of everything that was added.
+        public String hash() {
+            return hex(digest.digest());
+        }
+    }
+
+    // Returns the cached result of a key, or computes and stores it. A null result is returned but not stored.
+    // If the cache can't be read or written (e.g. a read-only directory), the result is still computed and returned.
+    public <T, E extends Exception> T getOrCompute(Key key, Codec<T> codec, Computation<T, E> computation) throws E {
+        String hash = key.hash();
+        T value = get(hash, codec);
+        if (value != null) {
+            return value;
+        }
+        value = computation.compute();
+        if (value != null) {
+            try {
+                put(hash, codec, value);
+            } catch (IOException e) {
+                System.err.println("Could not write result cache " + directory + ": " + e.getMessage());
+            }
+        }
+        return value;
+    }
+
+    // Returns the cached result of a key hash, or null if there's none (or it can't be read).
+    public <T> T get(String hash, Codec<T> codec) {
+        Path entry = directory.resolve(hash + SUFFIX);
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readLong() != MAGIC || !in.readUTF().equals(hash)) {
+                return null;
+            }
+            byte[] payload = new byte[in.readInt()];
+            in.readFully(payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if (in.readLong() != crc.getValue()) {
+                return null;
+            }
+            T value = codec.read(new DataInputStream(new ByteArrayInputStream(payload)));
+            // marks the entry as recently used.
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return value;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable result cache entry " + entry + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Stores the result of a key hash, and evicts the least recently used entries if the directory is over its limit.
+    public <T> void put(String hash, Codec<T> codec, T value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            codec.write(out, value);
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        Files.createDirectories(directory);
+        Path entry = directory.resolve(hash + SUFFIX);
+        Path temporary = directory.resolve(hash + SUFFIX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeLong(MAGIC);
+            out.writeUTF(hash);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeLong(crc.getValue());
+        }
+        Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict(entry);
+    }
+
+    // Deletes the least recently used entries until the directory is under its limit (never the entry just written).
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        Map<Path, Long> used = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                used.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                total += Files.size(entry);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        entries.sort((a, b) -> Long.compare(used.get(a), used.get(b)));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (!entry.equals(keep)) {
+                total -= Files.size(entry);
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    // Returns the SHA-256 of a file, from the remembered hashes if its size and modification time haven't changed.
+    synchronized String fileHash(Path file) throws IOException {
+        loadFileHashes();
+        String path = file.toAbsolutePath().normalize().toString();
+        String size = String.valueOf(Files.size(file));
+        String modified = String.valueOf(Files.getLastModifiedTime(file).toMillis());
+        String[] known = fileHashes.get(path);
+        if (known != null && known[0].equals(size) && known[1].equals(modified)) {
+            return known[2];
+        }
+        MessageDigest digest = sha256();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            // reads the file through memory mappings of up to 1 GB.
+            for (long pos = 0; pos < length; pos += 1L << 30) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(1L << 30, length - pos)));
+            }
+        }
+        String hash = hex(digest.digest());
+        fileHashes.put(path, new String[]{size, modified, hash});
+        saveFileHashes();
+        return hash;
+    }
+
+    // Reads the remembered file hashes (one line per file: size, modification time, hash and path, separated by tabs).
+    private void loadFileHashes() {
+        if (fileHashesLoaded) {
+            return;
+        }
+        fileHashesLoaded = true;
+        Path path = directory.resolve(FILE_HASHES);
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length == 4) {
+                    fileHashes.put(fields[3], new String[]{fields[0], fields[1], fields[2]});
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable file hashes " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Writes the remembered file hashes. A failure only means the files will be hashed again next time.
+    private void saveFileHashes() {
+        Path path = directory.resolve(FILE_HASHES);
+        Path temporary = directory.resolve(FILE_HASHES + ".tmp");
+        try {
+            Files.createDirectories(directory);
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String[]> entry : fileHashes.entrySet()) {
+                    String[] known = entry.getValue();
+                    writer.write(known[0] + "\t" + known[1] + "\t" + known[2] + "\t" + entry.getKey() + "\n");
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write file hashes " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Codec of a matrix, like a correlation matrix (rows may have different lengths).
+    public static final Codec<double[][]> MATRIX = new Codec<double[][]>() {
+        @Override
+        public void write(DataOutputStream out, double[][] matrix) throws IOException {
+            out.writeInt(matrix.length);
+            for (double[] row : matrix) {
+                out.writeInt(row.length);
+                for (double value : row) {
+                    out.writeDouble(value);
+                }
+            }
+        }
+
+        @Override
+        public double[][] read(DataInputStream in) throws IOException {
+            double[][] matrix = new double[in.readInt()][];
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = new double[in.readInt()];
+                for (int j = 0; j < matrix[i].length; j++) {
+                    matrix[i][j] = in.readDouble();
+                }
+            }
+            return matrix;
+        }
+    };
+
+    // Codec of text, like a printed report.
+    public static final Codec<String> TEXT = new Codec<String>() {
+        @Override
+        public void write(DataOutputStream out, String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        @Override
+        public String read(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    // Codec of the rows of a merge result. The columns are stored in the order of the first row's keys, and every row is
+    // read back into a LinkedHashMap in that order, so writeCsv writes the same header and values.
+    public static final Codec<List<Map<String, String>>> ROWS = new Codec<List<Map<String, String>>>() {
+        @Override
+        public void write(DataOutputStream out, List<Map<String, String>> rows) throws IOException {
+            List<String> headers = rows.isEmpty() ? new ArrayList<>() : new ArrayList<>(rows.get(0).keySet());
+            out.writeInt(headers.size());
+            for (String header : headers) {
+                TEXT.write(out, header);
+            }
+            out.writeInt(rows.size());
+            for (Map<String, String> row : rows) {
+                for (String header : headers) {
+                    String value = row.get(header);
+                    // absent keys are written as a flag, so they stay absent.
+                    out.writeBoolean(value != null);
+                    if (value != null) {
+                        TEXT.write(out, value);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public List<Map<String, String>> read(DataInputStream in) throws IOException {
+            String[] headers = new String[in.readInt()];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = TEXT.read(in);
+            }
+            int count = in.readInt();
+            List<Map<String, String>> rows = new ArrayList<>(count);
+            for (int r = 0; r < count; r++) {
+                Map<String, String> row = new LinkedHashMap<>();
+                for (String header : headers) {
+                    if (in.readBoolean()) {
+                        row.put(header, TEXT.read(in));
+                    }
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+    };
+
+    // Codec of a DataFrame, like a merge result: the names and types of the columns, then every row, with a flag for the
+    // missing values. Nominal values are stored as text, so they're read back into a new dictionary.
+    public static final Codec<DataFrame> FRAME = new Codec<DataFrame>() {
+        @Override
+        public void write(DataOutputStream out, DataFrame frame) throws IOException {
+            out.writeInt(frame.columnCount());
+            for (int c = 0; c < frame.columnCount(); c++) {
+                TEXT.write(out, frame.name(c));
+                out.writeBoolean(frame.isNominal(c));
+            }
+            out.writeInt(frame.rowCount());
+            for (int row = 0; row < frame.rowCount(); row++) {
+                for (int c = 0; c < frame.columnCount(); c++) {
+                    boolean present = !frame.isMissing(c, row);
+                    out.writeBoolean(present);
+                    if (present && frame.isNominal(c)) {
+                        TEXT.write(out, frame.getNominal(c, row));
+                    } else if (present) {
+                        out.writeDouble(frame.getDouble(c, row));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public DataFrame read(DataInputStream in) throws IOException {
+            String[] names = new String[in.readInt()];
+            boolean[] nominal = new boolean[names.length];
+            for (int c = 0; c < names.length; c++) {
+                names[c] = TEXT.read(in);
+                nominal[c] = in.readBoolean();
+            }
+            int count = in.readInt();
+            DataFrame.Builder builder = DataFrame.builder(names, nominal);
+            for (int row = 0; row < count; row++) {
+                for (int c = 0; c < names.length; c++) {
+                    if (!in.readBoolean()) {
+                        continue;
+                    }
+                    if (nominal[c]) {
+                        builder.setNominal(c, TEXT.read(in));
+                    } else {
+                        builder.setNumeric(c, in.readDouble());
+                    }
+                }
+                builder.endRow();
+            }
+            return builder.build();
+        }
+    };
+
+    // Codec of a Weka cross validation and model, which are both Serializable.
+    public static final Codec<WekaResult> WEKA_RESULT = new Codec<WekaResult>() {
+        @Override
+        public void write(DataOutputStream out, WekaResult result) throws IOException {
+            ObjectOutputStream objects = new ObjectOutputStream(new NonClosing(out));
+            objects.writeObject(result.evaluation);
+            objects.writeObject(result.model);
+            objects.flush();
+        }
+
+        @Override
+        public WekaResult read(DataInputStream in) throws IOException {
+            try (ObjectInputStream objects = new ObjectInputStream(in)) {
+                return new WekaResult((Evaluation) objects.readObject(), (LinearRegression) objects.readObject());
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Not a Weka result", e);
+            }
+        }
+    };
+
+    // Cross validation and model of WekaLinearRegression.
+    public static final class WekaResult {
+        private final Evaluation evaluation;
+        private final LinearRegression model;
+
+        public WekaResult(Evaluation evaluation, LinearRegression model) {
+            this.evaluation = evaluation;
+            this.model = model;
+        }
+
+        public Evaluation evaluation() {
+            return evaluation;
+        }
+
+        public LinearRegression model() {
+            return model;
+        }
+    }
+
+    // Keeps an ObjectOutputStream from closing the stream under it.
+    private static final class NonClosing extends OutputStream {
+        private final OutputStream out;
+
+        NonClosing(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder text = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            text.append(Character.forDigit((b >>> 4) & 15, 16)).append(Character.forDigit(b & 15, 16));
+        }
+        return text.toString();
+    }
+}
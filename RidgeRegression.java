@@ -0,0 +1,290 @@
+import java.util.Random;
+
+// Ridge regression solved from the normal equations, as a faster replacement for Weka's LinearRegression.
+// The rows are read once into a RegressionStatistics (the sufficient statistics of X^T X and X^T y), and a model is then
+// fitted from the statistics alone with a Cholesky solve, in O(k^3) for k features. Rows can be added to the statistics
+// later without refitting from the rows, and the training set of each cross validation fold is the whole dataset minus
+// the fold, so cross validation reads the rows once instead of once per fold.
+//
+// The model is the one of Weka's LinearRegression with no attribute selection (-S 1) and without the elimination of
+// colinear attributes (-C): the features are standardized, the ridge is added to the diagonal of the standardized X^T X,
+// missing feature values are replaced by the mean of their column, rows without a target are skipped, and features that
+// are constant get a coefficient of 0.
+public class RidgeRegression {
+
+    // The ridge used by WekaLinearRegression.
+    public static final double DEFAULT_RIDGE = 1.0E-8;
+
+    // Value added to the diagonal of the standardized X^T X.
+    private final double ridge;
+
+    public RidgeRegression() {
+        this(DEFAULT_RIDGE);
+    }
+
+    public RidgeRegression(double ridge) {
+        if (ridge < 0) {
+            throw new IllegalArgumentException("Expected a ridge >= 0");
+        }
+        this.ridge = ridge;
+    }
+
+    // Fits a model to the rows of a DataFrame, using the given numeric columns as the features and another one as the target.
+    public LinearModel fit(DataFrame frame, int[] featureColumns, int targetColumn) {
+        RegressionStatistics statistics = new RegressionStatistics(featureColumns.length);
+        statistics.addRows(frame, featureColumns, targetColumn);
+        return fit(statistics, featureNames(frame, featureColumns), frame.name(targetColumn));
+    }
+
+    // Fits a model to sufficient statistics. The names are only used to name the features of the model (null gives x1, x2, ...).
+    public LinearModel fit(RegressionStatistics statistics, String[] featureNames, String targetName) {
+        int k = statistics.features();
+        long n = statistics.rows();
+        if (n < 2) {
+            throw new IllegalArgumentException("Expected at least 2 rows with a target value, got " + n);
+        }
+        // standard deviations of the features (with their missing values replaced by the mean), like Weka's.
+        double[] means = new double[k];
+        double[] stdDevs = new double[k];
+        int[] used = new int[k];
+        int m = 0;
+        for (int i = 0; i < k; i++) {
+            means[i] = statistics.mean(i);
+            stdDevs[i] = Math.sqrt(statistics.coMoment(i, i) / (n - 1));
+            // constant (or empty) features are left out, like Weka's RemoveUseless filter does.
+            if (stdDevs[i] > 0) {
+                used[m++] = i;
+            }
+        }
+        // standardized normal equations: (Z^T Z + ridge * I) b = Z^T y, with z = (x - mean) / stdDev.
+        double[][] a = new double[m][m];
+        double[] b = new double[m];
+        for (int p = 0; p < m; p++) {
+            int i = used[p];
+            for (int q = 0; q <= p; q++) {
+                int j = used[q];
+                a[p][q] = statistics.coMoment(i, j) / (stdDevs[i] * stdDevs[j]);
+                a[q][p] = a[p][q];
+            }
+            a[p][p] += ridge;
+            b[p] = statistics.coMoment(i, k) / stdDevs[i];
+        }
+        double[] solution = choleskySolve(a, b);
+        // back to the original scale, with the intercept fitted separately so the ridge doesn't shrink it.
+        double[] coefficients = new double[k];
+        double intercept = statistics.mean(k);
+        for (int p = 0; p < m; p++) {
+            int i = used[p];
+            coefficients[i] = solution[p] / stdDevs[i];
+            intercept -= coefficients[i] * means[i];
+        }
+        // features that are never present are predicted with a 0 (their coefficient is 0 anyway).
+        for (int i = 0; i < k; i++) {
+            if (Double.isNaN(means[i])) {
+                means[i] = 0;
+            }
+        }
+        return new LinearModel(coefficients, intercept, means, featureNames, targetName);
+    }
+
+    // Cross validates the model on the rows of a DataFrame, with the same folds as Weka's
+    // Evaluation.crossValidateModel(classifier, data, folds, new Random(seed)) on the same rows.
+    // The rows are read once: every fold gets its own statistics, and each training set is the total minus its fold.
+    public CrossValidation crossValidate(DataFrame frame, int[] featureColumns, int targetColumn, int folds, long seed) {
+        int k = featureColumns.length;
+        int rows = frame.rowCount();
+        if (folds < 2 || folds > rows) {
+            throw new IllegalArgumentException("Expected between 2 and " + rows + " folds");
+        }
+        int[] foldOf = wekaFolds(rows, folds, seed);
+
+        // one pass over the rows, adding each one to the statistics of its fold.
+        double[][] columns = new double[k][];
+        for (int i = 0; i < k; i++) {
+            columns[i] = frame.numericColumn(featureColumns[i]);
+        }
+        double[] target = frame.numericColumn(targetColumn);
+        RegressionStatistics[] foldStatistics = new RegressionStatistics[folds];
+        for (int f = 0; f < folds; f++) {
+            foldStatistics[f] = new RegressionStatistics(k);
+        }
+        double[] row = new double[k];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < k; i++) {
+                row[i] = columns[i][r];
+            }
+            foldStatistics[foldOf[r]].add(row, target[r]);
+        }
+        RegressionStatistics total = new RegressionStatistics(k);
+        for (RegressionStatistics statistics : foldStatistics) {
+            total.merge(statistics);
+        }
+
+        // fits each fold's model from the total minus the fold, and predicts the fold's rows.
+        String[] names = featureNames(frame, featureColumns);
+        LinearModel[] models = new LinearModel[folds];
+        for (int f = 0; f < folds; f++) {
+            long start = System.nanoTime();
+            models[f] = fit(new RegressionStatistics(total).subtract(foldStatistics[f]), names, frame.name(targetColumn));
+            Metrics.time("cv_fold_training", "model", "RidgeRegression", System.nanoTime() - start);
+        }
+        double[] predictions = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < k; i++) {
+                row[i] = columns[i][r];
+            }
+            predictions[r] = Double.isNaN(target[r]) ? Double.NaN : models[foldOf[r]].predict(row);
+        }
+        return new CrossValidation(target, predictions);
+    }
+
+    // Returns the fold of every row in the same way as Weka's cross validation: the rows are shuffled with
+    // Instances.randomize (a Fisher-Yates shuffle with java.util.Random), and the shuffled rows are cut into consecutive
+    // folds, the first rows % folds of which get one extra row (Instances.testCV).
+    static int[] wekaFolds(int rows, int folds, long seed) {
+        int[] order = new int[rows];
+        for (int r = 0; r < rows; r++) {
+            order[r] = r;
+        }
+        Random random = new Random(seed);
+        for (int j = rows - 1; j > 0; j--) {
+            int other = random.nextInt(j + 1);
+            int swap = order[j];
+            order[j] = order[other];
+            order[other] = swap;
+        }
+        int[] foldOf = new int[rows];
+        int position = 0;
+        for (int f = 0; f < folds; f++) {
+            int size = rows / folds + (f < rows % folds ? 1 : 0);
+            for (int i = 0; i < size; i++) {
+                foldOf[order[position++]] = f;
+            }
+        }
+        return foldOf;
+    }
+
+    // Solves a x = b for a symmetric positive definite matrix with a Cholesky decomposition (a = L L^T).
+    static double[] choleskySolve(double[][] a, double[] b) {
+        int m = b.length;
+        double[][] l = new double[m][m];
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j <= i; j++) {
+                double s = a[i][j];
+                for (int p = 0; p < j; p++) {
+                    s -= l[i][p] * l[j][p];
+                }
+                if (i == j) {
+                    if (!(s > 0)) {
+                        throw new IllegalStateException("The normal equations are not positive definite; try a larger ridge");
+                    }
+                    l[i][i] = Math.sqrt(s);
+                } else {
+                    l[i][j] = s / l[j][j];
+                }
+            }
+        }
+        // forward substitution (L y = b), then back substitution (L^T x = y).
+        double[] x = new double[m];
+        for (int i = 0; i < m; i++) {
+            double s = b[i];
+            for (int p = 0; p < i; p++) {
+                s -= l[i][p] * x[p];
+            }
+            x[i] = s / l[i][i];
+        }
+        for (int i = m - 1; i >= 0; i--) {
+            double s = x[i];
+            for (int p = i + 1; p < m; p++) {
+                s -= l[p][i] * x[p];
+            }
+            x[i] = s / l[i][i];
+        }
+        return x;
+    }
+
+    // Returns the names of some columns of a DataFrame.
+    private static String[] featureNames(DataFrame frame, int[] columns) {
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            names[i] = frame.name(columns[i]);
+        }
+        return names;
+    }
+
+    // Predictions of a cross validation and their error metrics (computed over the rows that have a target, like
+    // Weka's Evaluation).
+    public static final class CrossValidation {
+        private final double[] predictions;
+        private final long count;
+        private final double meanAbsoluteError;
+        private final double rootMeanSquaredError;
+        private final double correlationCoefficient;
+
+        CrossValidation(double[] actual, double[] predictions) {
+            this.predictions = predictions;
+            // first pass for the means, second for the errors and the (co)variances.
+            long n = 0;
+            double actualSum = 0;
+            double predictedSum = 0;
+            for (int r = 0; r < actual.length; r++) {
+                if (!Double.isNaN(actual[r])) {
+                    n++;
+                    actualSum += actual[r];
+                    predictedSum += predictions[r];
+                }
+            }
+            double actualMean = actualSum / n;
+            double predictedMean = predictedSum / n;
+            double absoluteErrors = 0;
+            double squaredErrors = 0;
+            double actualVariance = 0;
+            double predictedVariance = 0;
+            double covariance = 0;
+            for (int r = 0; r < actual.length; r++) {
+                if (!Double.isNaN(actual[r])) {
+                    double error = predictions[r] - actual[r];
+                    absoluteErrors += Math.abs(error);
+                    squaredErrors += error * error;
+                    double da = actual[r] - actualMean;
+                    double dp = predictions[r] - predictedMean;
+                    actualVariance += da * da;
+                    predictedVariance += dp * dp;
+                    covariance += da * dp;
+                }
+            }
+            this.count = n;
+            this.meanAbsoluteError = absoluteErrors / n;
+            this.rootMeanSquaredError = Math.sqrt(squaredErrors / n);
+            this.correlationCoefficient = covariance / Math.sqrt(actualVariance * predictedVariance);
+        }
+
+        // Returns the prediction of every row (NaN for the rows without a target), in row order.
+        public double[] predictions() {
+            return predictions.clone();
+        }
+
+        // Returns the number of rows that were predicted.
+        public long count() {
+            return count;
+        }
+
+        public double meanAbsoluteError() {
+            return meanAbsoluteError;
+        }
+
+        public double rootMeanSquaredError() {
+            return rootMeanSquaredError;
+        }
+
+        public double correlationCoefficient() {
+            return correlationCoefficient;
+        }
+
+        @Override
+        public String toString() {
+            return "Correlation coefficient: " + correlationCoefficient + "\nMean absolute error: " + meanAbsoluteError
+                    + "\nRoot mean squared error: " + rootMeanSquaredError + "\nTotal Number of Instances: " + count;
+        }
+    }
+}
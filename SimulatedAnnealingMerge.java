@@ -1,6 +1,7 @@
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import java.io.*;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import org.apache.commons.csv.*;
@@ -12,6 +13,16 @@ public class SimulatedAnnealingMerge {
     private static final double COOLING_RATE = 0.95;
      // Initialize the number of iterations for the simulated annealing algorithm.
     private static final int NUM_ITERATIONS = 10;
+    // Weight of each cell of a dropped column in the score. With 1, a dropped cell counts as a missing one, which is the
+    // score calculated by calculateMissingDataScore.
+    private static final double DROPPED_CELL_PENALTY = 1.0;
+    // Seed of the random generator, so the results can be reproduced.
+    private static final long SEED = 1;
+    // Settings of the parallel search: the number of iterations and the patience of each chain, and the weight of the
+    // dropped cells. With 0.5, a row or column is worth dropping when more than half of its cells are missing.
+    private static final int PARALLEL_ITERATIONS = 1_000_000;
+    private static final int PARALLEL_PATIENCE = 50_000;
+    private static final double PARALLEL_DROPPED_CELL_PENALTY = 0.5;
 
     public static void main(String[] args) throws IOException {
         // Defines the input paths for the CSV files
@@ -20,20 +31,68 @@ public class SimulatedAnnealingMerge {
         // Defines the output path for the merged file.
         String outputPath = "/Users/dontronolone/Downloads/merged_output.csv";
 
-        // Loads the data from the two input files
-        List<Map<String, String>> data1 = readCsv(filePath1);
-        List<Map<String, String>> data2 = readCsv(filePath2);
-
-        // Merges the datasets using a simulated annealing algorithm
-        List<Map<String, String>> mergedData = simulatedAnnealingMerge(data1, data2);
+        // Merges the datasets using parallel simulated annealing chains, one per core
+        int chains = Runtime.getRuntime().availableProcessors();
+        // The merge is kept in the ResultCache, so running again on the same files with the same settings doesn't search
+        // again (--no-cache always merges).
+        DataFrame mergedData = Arrays.asList(args).contains("--no-cache")
+                ? merge(filePath1, filePath2, chains)
+                : mergeCached(ResultCache.openDefault(), filePath1, filePath2, chains);
         // Writes the merged data to a CSV
         writeCsv(mergedData, outputPath);
     }
 
+    // Loads the two input files into DataFrames, and merges them with the parallel search.
+    public static DataFrame merge(String filePath1, String filePath2, int chains) throws IOException {
+        DataFrame data1 = readFrame(filePath1);
+        DataFrame data2 = readFrame(filePath2);
+        return parallelAnnealingMerge(data1, data2, chains, SEED);
+    }
+
+    // Same as merge, but the result is read from the cache when the same files were already merged with the same number
+    // of chains and the same annealing settings.
+    public static DataFrame mergeCached(ResultCache cache, String filePath1, String filePath2, int chains)
+            throws IOException {
+        ResultCache.Key key = cache.key("annealing-merge").file(Paths.get(filePath1)).file(Paths.get(filePath2))
+                .param("chains", chains).param("seed", SEED)
+                .param("initialTemperature", INITIAL_TEMPERATURE).param("coolingRate", COOLING_RATE)
+                .param("iterations", PARALLEL_ITERATIONS).param("patience", PARALLEL_PATIENCE)
+                .param("droppedCellPenalty", PARALLEL_DROPPED_CELL_PENALTY).param("result", "frame");
+        return cache.getOrCompute(key, ResultCache.FRAME, () -> merge(filePath1, filePath2, chains));
+    }
+
+    // Reads a CSV file (through its ColumnarCache) or an XLSX workbook into a columnar DataFrame. Every column is nominal:
+    // the merge only looks at which cells are missing, so the values are kept as their original text and written back
+    // unchanged, while each cell is an int code instead of an entry of a per row hashmap.
+    public static DataFrame readFrame(String filePath) throws IOException {
+        Path path = Paths.get(filePath);
+        if (XlsxReader.isXlsx(filePath)) {
+            String[] headers;
+            try (XlsxReader reader = new XlsxReader(path)) {
+                headers = reader.readHeader();
+            }
+            return XlsxReader.load(path, new HashSet<>(Arrays.asList(headers)));
+        }
+        String[] headers = new ChunkedCSVParser().readHeader(path);
+        return ColumnarCache.loadCsv(path, new HashSet<>(Arrays.asList(headers)));
+    }
+
     // Reads a CSV file using Apache commons CSV library and returns it as a list of hashmaps, where the keys are the column names.
     public static List<Map<String, String>> readCsv(String filePath) throws IOException {
         // Initializes the list that contains all of the lines of the files as hashmaps
         List<Map<String, String>> data = new ArrayList<>();
+        // An XLSX workbook is read straight from its first sheet, with its first row as the header.
+        if (XlsxReader.isXlsx(filePath)) {
+            List<String[]> rows = XlsxReader.readRows(Paths.get(filePath));
+            for (int r = 1; r < rows.size(); r++) {
+                Map<String, String> row = new HashMap<>();
+                for (int c = 0; c < rows.get(0).length; c++) {
+                    row.put(rows.get(0)[c], c < rows.get(r).length ? rows.get(r)[c] : "");
+                }
+                data.add(row);
+            }
+            return data;
+        }
         // Uses the try-with-resources to handle the readers and the csvParser, so they're closed automatically.
         try (Reader reader = new FileReader(filePath);
              CSVParser csvParser = new CSVParser(reader, CSVFormat.DEFAULT.withFirstRecordAsHeader())) {
@@ -53,109 +112,113 @@ public class SimulatedAnnealingMerge {
 
     // Merges the two datasets using a simulated annealing approach to find the optimal merge.
     public static List<Map<String, String>> simulatedAnnealingMerge(List<Map<String, String>> data1, List<Map<String, String>> data2) {
+        return simulatedAnnealingMerge(data1, data2, NUM_ITERATIONS, INITIAL_TEMPERATURE, COOLING_RATE, SEED);
+    }
+
+    // Merges the two datasets using a simulated annealing approach, with the given schedule.
+    // The search works on a MergeSearchState, which counts the missing values of every column once, so each iteration
+    // updates the score in O(1) instead of copying and rescanning the merged rows. A rejected move is simply undone.
+    // The random choices come from a SplittableRandom with the given seed, so the same inputs always give the same result.
+    public static List<Map<String, String>> simulatedAnnealingMerge(List<Map<String, String>> data1, List<Map<String, String>> data2,
+                                                                    int iterations, double initialTemperature, double coolingRate,
+                                                                    long seed) {
         // Creates a set of headers, that includes the keys of both datasets. It uses a hash set, so it prevents duplicates
         Set<String> headers = new HashSet<>(data1.get(0).keySet());
         headers.addAll(data2.get(0).keySet());
 
         // Performs a initial outer join of the two datasets, and uses this as a base for the algorithm.
-        List<Map<String, String>> currentMerge = outerJoin(data1, data2, headers);
-         // Initializes the best merge, using the current merge
-        List<Map<String, String>> bestMerge = new ArrayList<>(currentMerge);
-        // Calculates the score, that will be used as a threshold for improvements. The less data is missing, the better it is.
-        double bestMissingDataScore = calculateMissingDataScore(bestMerge, headers);
+        List<Map<String, String>> merged = outerJoin(data1, data2, headers);
+        // Counts the missing values of each column. The less data is missing, the better the score is.
+        MergeSearchState state = new MergeSearchState(merged, headers, DROPPED_CELL_PENALTY);
 
-        // Initializes the initial temperature of the algorithm
-        double temperature = INITIAL_TEMPERATURE;
+        // Initializes the initial temperature of the algorithm, and the random generator.
+        double temperature = initialTemperature;
+        SplittableRandom random = new SplittableRandom(seed);
+        long accepted = 0;
 
         // Loops for the number of defined iterations.
-        for (int i = 0; i < NUM_ITERATIONS; i++) {
-            // Copies the current merge (used as a base for the calculations of each iteration)
-            List<Map<String, String>> tempMerge = new ArrayList<>(currentMerge);
+        for (int i = 0; i < iterations; i++) {
             // Selects a column to drop, which is done based on the number of missing values.
-            String columnToDrop = selectColumnToDrop(tempMerge, headers);
+            int columnToDrop = state.selectColumnToDrop();
 
             // if there was a column to drop
-            if (columnToDrop != null) {
-                 // drop this column in the tempMerge, which is used for the current iteration of the algorithm.
-                dropColumn(tempMerge, columnToDrop);
-                 // Calculates the score of the missing data in the new state.
-                double newMissingDataScore = calculateMissingDataScore(tempMerge, headers);
+            if (columnToDrop >= 0) {
+                // drops the column, which only updates the score.
+                state.dropColumn(columnToDrop);
 
                 // Calculates the delta between the score of the new state and the current best score.
-                double deltaScore = newMissingDataScore - bestMissingDataScore;
-                 // calculates the acceptance probability, based on the delta, and the temperature.
+                double deltaScore = state.score() - state.bestScore();
+                // calculates the acceptance probability, based on the delta, and the temperature.
                 double acceptanceProbability = deltaScore > 0 ? Math.exp(-deltaScore / temperature) : 1.0;
 
-                // Checks if the new state will be accepted based on the result of Math.random() and the acceptance probability.
-                if (Math.random() < acceptanceProbability) {
-                     // If the new state was accepted, assign the result to the current merge.
-                    currentMerge = new ArrayList<>(tempMerge);
-                    // Also checks if the new state had a better score, so it can become the best state.
-                    if (newMissingDataScore < bestMissingDataScore) {
-                        bestMerge = new ArrayList<>(currentMerge);
-                        bestMissingDataScore = newMissingDataScore;
-                    }
+                // Checks if the new state will be accepted based on a random number and the acceptance probability.
+                if (random.nextDouble() < acceptanceProbability) {
+                    // If the new state was accepted, checks if it had a better score, so it can become the best state.
+                    state.saveIfBest();
+                    accepted++;
+                } else {
+                    // If it was rejected, the move is undone.
+                    state.restoreColumn(columnToDrop);
                 }
             }
             // Decreases the temperature based on the cooling rate.
-            temperature *= COOLING_RATE;
+            temperature *= coolingRate;
         }
-         // returns the best found solution.
-        return bestMerge;
+        // counts the moves for the Metrics.
+        Metrics.count("annealing_iterations", iterations);
+        Metrics.count("annealing_accepted_moves", accepted);
+        // returns the best found solution.
+        return state.bestRows();
     }
 
-    // Performs a outer join of the two datasets, based on the "Country" and the "Year" columns.
-    public static List<Map<String, String>> outerJoin(List<Map<String, String>> data1, List<Map<String, String>> data2, Set<String> headers) {
-        // Creates a list that will contain the joined values from both datasets
-        List<Map<String, String>> merged = new ArrayList<>();
-        // Creates a map that will work as a secondary index for the second dataset, which is faster.
-        Map<String, Map<String, String>> data2Map = new HashMap<>();
-
-        // loops all the rows of the second dataset.
-        for (Map<String, String> row : data2) {
-            // Creates a key using the Country and Year of each dataset
-            String key = row.get("Country") + "-" + row.get("Year");
-             // saves each row, indexed by the key generated above.
-            data2Map.put(key, row);
+    // Merges the two datasets by running several annealing chains in parallel, one per thread, each with its own
+    // schedule and random generator derived from the seed. Besides dropping columns, the chains can restore them and
+    // drop or restore rows. Returns the best merge found by any chain.
+    public static List<Map<String, String>> parallelAnnealingMerge(List<Map<String, String>> data1, List<Map<String, String>> data2,
+                                                                   int chains, long seed) {
+        // Creates a set of headers, that includes the keys of both datasets.
+        Set<String> headers = new HashSet<>(data1.get(0).keySet());
+        headers.addAll(data2.get(0).keySet());
+        // Joins the datasets, and counts their missing values once for all of the chains.
+        MergeSearchState state = new MergeSearchState(outerJoin(data1, data2, headers), headers, PARALLEL_DROPPED_CELL_PENALTY);
+        List<AnnealingSchedule> schedules = AnnealingSchedule.spread(chains, INITIAL_TEMPERATURE, COOLING_RATE,
+                PARALLEL_ITERATIONS, PARALLEL_PATIENCE);
+        try {
+            ParallelAnnealingRunner.Solution best = new ParallelAnnealingRunner(state, chains).run(schedules, seed);
+            return state.buildRows(best.droppedColumns(), best.droppedRows());
+        } catch (InterruptedException e) {
+            // keeps the interrupt, and returns the merge without any drop.
+            Thread.currentThread().interrupt();
+            return state.buildRows(new boolean[state.columnCount()]);
         }
+    }
 
-         // loops all the rows of the first dataset.
-        for (Map<String, String> row : data1) {
-             // Creates a key using the Country and Year of each dataset
-            String key = row.get("Country") + "-" + row.get("Year");
-            // creates a new hashmap to contain the current merge. It’s a copy of the row from the first dataset.
-            Map<String, String> mergedRow = new HashMap<>(row);
-
-            // checks if the data2Map contains the specified key, which means that we have to merge the two rows.
-            if (data2Map.containsKey(key)) {
-                // if the key is there, get the other corresponding row.
-                Map<String, String> data2Row = data2Map.get(key);
-                // adds all of the values from data2 to this new row, but only if they are not already defined.
-                for (String header : headers) {
-                    mergedRow.putIfAbsent(header, data2Row.getOrDefault(header, ""));
-                }
-            } else {
-                 // If there is no corresponding key in data2, adds all of the headers with a blank value.
-                headers.forEach(header -> mergedRow.putIfAbsent(header, ""));
-            }
-            // adds the merged row to the final list
-            merged.add(mergedRow);
-        }
+    // Merges two DataFrames with the same parallel search: HashJoin joins them on their Country and Year columns, and the
+    // columns and rows of the best solution are dropped from the joined table (Pipeline.merge and anneal).
+    public static DataFrame parallelAnnealingMerge(DataFrame data1, DataFrame data2, int chains, long seed) throws IOException {
+        return Pipeline.of(data1).merge(Collections.singletonList(Pipeline.of(data2))).anneal(chains, seed).collect();
+    }
 
-        // Loops through all remaining elements of data2, that were not merged before (used in cases where a certain row only exists in the second dataset).
-        for (Map.Entry<String, Map<String, String>> entry : data2Map.entrySet()) {
-            // if no row in the merged list has the same key as the current entry
-            if (!merged.stream().anyMatch(row -> (row.get("Country") + "-" + row.get("Year")).equals(entry.getKey()))) {
-                 // creates a new row copying the values of data2
-                Map<String, String> mergedRow = new HashMap<>(entry.getValue());
-                 // adds all of the headers to this row with a blank value (similar to the code above)
-                headers.forEach(header -> mergedRow.putIfAbsent(header, ""));
-                // adds the new row to the list.
-                merged.add(mergedRow);
-            }
-        }
-        // returns the outer joined data.
-        return merged;
+    // Runs the same parallel search on a DataFrame that is already joined (e.g. by HashJoin), working on its missing value
+    // bitmaps instead of rows of text. Returns the best solution: the columns and the rows to drop.
+    public static ParallelAnnealingRunner.Solution parallelAnnealingSearch(DataFrame merged, int chains, long seed)
+            throws InterruptedException {
+        MergeSearchState state = new MergeSearchState(merged, PARALLEL_DROPPED_CELL_PENALTY);
+        List<AnnealingSchedule> schedules = AnnealingSchedule.spread(chains, INITIAL_TEMPERATURE, COOLING_RATE,
+                PARALLEL_ITERATIONS, PARALLEL_PATIENCE);
+        return new ParallelAnnealingRunner(state, chains).run(schedules, seed);
+    }
+
+    // Performs a outer join of the two datasets, based on the "Country" and the "Year" columns.
+    // Uses a hash join on interned (country, year) keys, so it runs in linear time: each row of data1 takes the values of
+    // the last row of data2 with the same key, and the rows of data2 with no match in data1 are added at the end.
+    public static List<Map<String, String>> outerJoin(List<Map<String, String>> data1, List<Map<String, String>> data2, Set<String> headers) {
+        return outerJoinAll(Arrays.asList(data1, data2), headers);
+    }
+
+    // Performs a full outer join of any number of datasets, based on the "Country" and the "Year" columns.
+    public static List<Map<String, String>> outerJoinAll(List<List<Map<String, String>>> datasets, Set<String> headers) {
+        return new HashJoin().fullOuterJoin(datasets, headers);
     }
 
      // Calculates a score based on the number of missing values in the dataset. Lower scores are better.
@@ -215,6 +278,20 @@ public class SimulatedAnnealingMerge {
         }
     }
 
+    // Writes a DataFrame to a CSV file, with its column names as the header and an empty field for each missing value.
+    public static void writeCsv(DataFrame data, String outputPath) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(outputPath));
+             CSVPrinter csvPrinter = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader(data.names()))) {
+            String[] values = new String[data.columnCount()];
+            for (int row = 0; row < data.rowCount(); row++) {
+                for (int column = 0; column < values.length; column++) {
+                    values[column] = data.getText(column, row);
+                }
+                csvPrinter.printRecord((Object[]) values);
+            }
+        }
+    }
+
     // Writes data to a CSV file, using a specified path.
     public static void writeCsv(List<Map<String, String>> data, String outputPath) throws IOException {
         // If the dataset is empty, it does nothing.
@@ -0,0 +1,285 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Splits an ARFF or CSV file into several files (e.g. train and test) in a single streaming pass, without loading or
+// shuffling the rows in memory, so files larger than the heap can be split.
+// The header is copied to every output, and each row is sent to an output chosen from a seeded hash of its row number,
+// so the same seed always gives the same split, and the shares of the outputs converge to the given weights.
+// With a stratify column (e.g. Country), every value of the column is split in the given proportions on its own: the
+// rows of a value follow a low-discrepancy (golden ratio) sequence that starts at a seeded hash of the value, so every
+// country gets close to its share of rows in each output (within a row or two), which a plain hash can't promise.
+// A CSV row is a whole record: a quoted field can hold commas, doubled quotes and line breaks, and a record that spans
+// several lines goes to a single output.
+public class StreamingSplitter {
+
+    // Fractional part of the golden ratio, as used by the low-discrepancy sequence and the hash.
+    private static final double GOLDEN_FRACTION = 0.6180339887498949;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final long seed;
+
+    public StreamingSplitter(long seed) {
+        this.seed = seed;
+    }
+
+    // Splits a file into the outputs, in proportion to the weights (one per output, they don't need to add up to 1).
+    // With a stratify column, the split is done separately for each value of that column (null for no stratification).
+    // Returns the number of rows written to each output. If the stratify column is not in the file, an
+    // IllegalArgumentException is thrown before any output is written.
+    public long[] split(Path input, List<Path> outputs, double[] weights, String stratifyColumn) throws IOException {
+        if (outputs.size() != weights.length || outputs.isEmpty()) {
+            throw new IllegalArgumentException("Expected one weight per output");
+        }
+        // cumulative shares, so an output is found from a number in [0, 1).
+        double total = 0;
+        for (double weight : weights) {
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException("Expected weights >= 0");
+            }
+            total += weight;
+        }
+        double[] cumulative = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cumulative[i] = sum / total;
+        }
+        cumulative[weights.length - 1] = 1.0;
+
+        boolean arff = !input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        long[] counts = new long[outputs.size()];
+        List<BufferedWriter> writers = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            // reads the header, and finds the stratify column in it before any output is created.
+            List<String> headerLines = new ArrayList<>();
+            List<String> columnNames = new ArrayList<>();
+            String line;
+            if (arff) {
+                while ((line = reader.readLine()) != null) {
+                    headerLines.add(line);
+                    String trimmed = line.trim();
+                    if (startsWithIgnoreCase(trimmed, "@attribute")) {
+                        columnNames.add(attributeName(trimmed));
+                    } else if (startsWithIgnoreCase(trimmed, "@data")) {
+                        break;
+                    }
+                }
+            } else if ((line = readRecord(reader)) != null) {
+                headerLines.add(line);
+                for (String name : ChunkedCSVParser.splitLine(line)) {
+                    columnNames.add(name.trim());
+                }
+            }
+            int stratifyIndex = -1;
+            if (stratifyColumn != null) {
+                stratifyIndex = columnNames.indexOf(stratifyColumn);
+                if (stratifyIndex < 0) {
+                    throw new IllegalArgumentException("Can't stratify by " + stratifyColumn + ": " + input
+                            + " has no such column (its columns are " + columnNames + ")");
+                }
+            }
+            // copies the header to every output.
+            for (Path output : outputs) {
+                writers.add(Files.newBufferedWriter(output, StandardCharsets.UTF_8));
+            }
+            for (String headerLine : headerLines) {
+                writeAll(writers, headerLine);
+            }
+
+            // sends every row to its output.
+            Map<String, Stratum> strata = new HashMap<>();
+            long row = 0;
+            while ((line = arff ? reader.readLine() : readRecord(reader)) != null) {
+                String trimmed = line.trim();
+                // blank lines and ARFF comments are not rows.
+                if (trimmed.isEmpty() || (arff && trimmed.startsWith("%"))) {
+                    continue;
+                }
+                if (arff && trimmed.startsWith("{")) {
+                    throw new IOException("Sparse ARFF rows are not supported: " + input);
+                }
+                double u;
+                if (stratifyIndex < 0) {
+                    u = unitHash(seed, row);
+                } else {
+                    String value = arff ? field(line, stratifyIndex) : csvField(line, stratifyIndex);
+                    Stratum stratum = strata.computeIfAbsent(value, v -> new Stratum(unitHash(seed, v.hashCode())));
+                    u = stratum.next();
+                }
+                int output = 0;
+                while (u >= cumulative[output]) {
+                    output++;
+                }
+                BufferedWriter writer = writers.get(output);
+                writer.write(line);
+                writer.newLine();
+                counts[output]++;
+                row++;
+            }
+        } finally {
+            IOException error = null;
+            for (BufferedWriter writer : writers) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+        return counts;
+    }
+
+    // Splits a file into k outputs of the same size (k-way split, e.g. for cross validation folds).
+    public long[] splitEvenly(Path input, List<Path> outputs, String stratifyColumn) throws IOException {
+        double[] weights = new double[outputs.size()];
+        Arrays.fill(weights, 1.0);
+        return split(input, outputs, weights, stratifyColumn);
+    }
+
+    // Sequence of numbers in [0, 1) of one stratum: offset + n * golden ratio, modulo 1.
+    private static final class Stratum {
+        private double position;
+
+        Stratum(double offset) {
+            this.position = offset;
+        }
+
+        double next() {
+            double value = position;
+            position += GOLDEN_FRACTION;
+            if (position >= 1) {
+                position -= 1;
+            }
+            return value;
+        }
+    }
+
+    // Hashes a seed and a number to a double in [0, 1), with the SplitMix64 finalizer.
+    static double unitHash(long seed, long value) {
+        long z = seed + (value + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    // Reads a CSV record: a line, and the lines after it while a quoted field is still open (the record has an odd
+    // number of quotes, since an escaped quote is doubled). The line breaks inside the record are kept as \n.
+    // Returns null at the end of the file.
+    static String readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            return null;
+        }
+        StringBuilder record = null;
+        int quotes = countQuotes(line);
+        while (quotes % 2 != 0) {
+            String next = reader.readLine();
+            if (next == null) {
+                throw new IOException("The file ends inside a quoted field");
+            }
+            if (record == null) {
+                record = new StringBuilder(line);
+            }
+            record.append('\n').append(next);
+            quotes += countQuotes(next);
+        }
+        return record == null ? line : record.toString();
+    }
+
+    private static int countQuotes(String line) {
+        int quotes = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    // Returns a field of a CSV record, parsed like ChunkedCSVParser does.
+    static String csvField(String record, int index) {
+        String[] fields = ChunkedCSVParser.splitLine(record);
+        return index < fields.length ? fields[index].trim() : "";
+    }
+
+    // Returns a field of an ARFF row, without its quotes (ARFF rows can quote with ' or ").
+    static String field(String line, int index) {
+        int field = 0;
+        int i = 0;
+        int length = line.length();
+        while (i <= length) {
+            // skips the spaces before the field.
+            while (i < length && line.charAt(i) == ' ') {
+                i++;
+            }
+            StringBuilder value = new StringBuilder();
+            if (i < length && (line.charAt(i) == '\'' || line.charAt(i) == '"')) {
+                char quote = line.charAt(i++);
+                while (i < length) {
+                    char c = line.charAt(i);
+                    // a backslash or a doubled quote escapes the quote; any other quote ends the field.
+                    if (c == '\\' && i + 1 < length) {
+                        i++;
+                    } else if (c == quote && i + 1 < length && line.charAt(i + 1) == quote) {
+                        i++;
+                    } else if (c == quote) {
+                        break;
+                    }
+                    value.append(line.charAt(i++));
+                }
+                // skips the closing quote and anything up to the comma.
+                while (i < length && line.charAt(i) != ',') {
+                    i++;
+                }
+            } else {
+                while (i < length && line.charAt(i) != ',') {
+                    value.append(line.charAt(i++));
+                }
+            }
+            if (field == index) {
+                return value.toString().trim();
+            }
+            field++;
+            i++;
+        }
+        return "";
+    }
+
+    // Returns the name of an ARFF @attribute line, without its quotes.
+    private static String attributeName(String line) {
+        String rest = line.substring("@attribute".length()).trim();
+        if (rest.startsWith("'") || rest.startsWith("\"")) {
+            int end = rest.indexOf(rest.charAt(0), 1);
+            return rest.substring(1, end < 0 ? rest.length() : end);
+        }
+        int space = rest.indexOf(' ');
+        int tab = rest.indexOf('\t');
+        int end = space < 0 ? tab : (tab < 0 ? space : Math.min(space, tab));
+        return end < 0 ? rest : rest.substring(0, end);
+    }
+
+    private static boolean startsWithIgnoreCase(String text, String prefix) {
+        return text.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static void writeAll(List<BufferedWriter> writers, String line) throws IOException {
+        for (BufferedWriter writer : writers) {
+            writer.write(line);
+            writer.newLine();
+        }
+    }
+}
@@ -1,31 +1,51 @@
 import weka.core.Instances;
-import weka.core.converters.ConverterUtils.DataSource;
 import weka.classifiers.functions.LinearRegression;
 import weka.classifiers.Evaluation;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class WekaLinearRegression {
 
+    // Settings of the model and of the cross validation.
+    private static final double RIDGE = 1.0E-8;
+    private static final int FOLDS = 10;
+    private static final long SEED = 1;
+
     public static void main(String[] args) {
+        String filePath = "/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_no_country.arff";  // Update with the path to your dataset
         try {
-            // Load the dataset using the WEKA DataSource
-            DataSource source = new DataSource("/Users/dontronolone/Downloads/Cleaned_GLOBAL_DATAFLOW_1995-2023_no_country.arff");  // Update with the path to your dataset
-            // Gets the data from the source
-            Instances data = source.getDataSet();
-
-             // Sets the class index (target variable), in this case, is Under-five_mortality_rate.
-            int classIndex = data.attribute("Under-five_mortality_rate").index();
-            data.setClassIndex(classIndex);
-
-            // Creates a linear regression model
-            LinearRegression linear = new LinearRegression();
-            // Sets a small value for Ridge regularization
-            linear.setRidge(1.0E-8);
-             // Creates a new Evaluation object, to evaluate the results of the model
-            Evaluation eval = new Evaluation(data);
-            // Performs a 10 fold cross validation on the dataset, using a new Random object with seed=1.
-            eval.crossValidateModel(linear, data, 10, new Random(1));
+            // With --no-cache, the results are always calculated, instead of being read from the ResultCache when the
+            // same file was already cross validated with the same settings.
+            ResultCache cache = Arrays.asList(args).contains("--no-cache") ? null : ResultCache.openDefault();
+            // With --select (or --select=threshold), the features that are redundant with a better one are dropped
+            // before training (FeatureSelector); 0 keeps every feature.
+            double threshold = 0;
+            for (String arg : args) {
+                if (arg.equals("--select")) {
+                    threshold = FeatureSelector.DEFAULT_THRESHOLD;
+                } else if (arg.startsWith("--select=")) {
+                    threshold = Double.parseDouble(arg.substring("--select=".length()));
+                }
+            }
+            double selectThreshold = threshold;
+            // With --native, the built-in ridge regression is used instead of Weka's (the same model, without attribute selection).
+            if (Arrays.asList(args).contains("--native")) {
+                runNative(filePath, "Under-five_mortality_rate", selectThreshold, cache);
+                return;
+            }
+            ResultCache.WekaResult result = cache == null
+                    ? evaluate(filePath, "Under-five_mortality_rate", selectThreshold)
+                    : cache.getOrCompute(cache.key("weka-linear-regression").file(Paths.get(filePath))
+                                    .param("class", "Under-five_mortality_rate").param("ridge", RIDGE)
+                                    .param("folds", FOLDS).param("seed", SEED).param("select", selectThreshold),
+                            ResultCache.WEKA_RESULT, () -> evaluate(filePath, "Under-five_mortality_rate", selectThreshold));
+            Evaluation eval = result.evaluation();
+            LinearRegression linear = result.model();
 
              // Prints the summary of the cross validation, with all of the metrics
             System.out.println("=== Summary ===");
@@ -38,8 +58,6 @@ public class WekaLinearRegression {
              // Prints the Root Mean Squared Error (RMSE) of the model.
             System.out.println("Root Mean Squared Error (RMSE): " + eval.rootMeanSquaredError());
 
-            // Build a linear regression classifier using the loaded data.
-            linear.buildClassifier(data);
              // Prints the regression equation of the model.
             System.out.println("=== Linear Regression Model ===");
             System.out.println(linear);
@@ -49,4 +67,137 @@ public class WekaLinearRegression {
             e.printStackTrace();
         }
     }
+
+    // Loads a dataset, cross validates the model on it and trains the model on all of the rows.
+    public static ResultCache.WekaResult evaluate(String filePath, String className) throws Exception {
+        return evaluate(filePath, className, 0);
+    }
+
+    // Same as evaluate, but first drops the redundant features when the threshold is above 0.
+    public static ResultCache.WekaResult evaluate(String filePath, String className, double selectThreshold) throws Exception {
+        // Load the dataset using the WEKA DataSource
+        // (read from its binary ColumnarCache when that is newer than the file, so only the first run parses the text)
+        Instances data = InstancesConverter.loadCached(filePath);
+
+         // Sets the class index (target variable), in this case, is Under-five_mortality_rate.
+        data.setClassIndex(data.attribute(className).index());
+        if (selectThreshold > 0) {
+            data = selectFeatures(data, selectThreshold);
+        }
+
+        // Performs a 10 fold cross validation on the dataset, using a new Random object with seed=1 (the folds are trained in parallel).
+        Evaluation eval = crossValidate(data, FOLDS, SEED);
+        // Build a linear regression classifier using the loaded data.
+        LinearRegression linear = createModel();
+        linear.buildClassifier(data);
+        return new ResultCache.WekaResult(eval, linear);
+    }
+
+    // Returns a copy of a dataset (whose class index is set) without the numeric attributes that FeatureSelector finds
+    // redundant, and prints the dropped ones.
+    public static Instances selectFeatures(Instances data, double threshold) {
+        // the DataFrame has the same columns as the attributes.
+        DataFrame frame = InstancesConverter.toFrame(data);
+        int[] features = new int[frame.columnCount()];
+        int count = 0;
+        for (int c = 0; c < frame.columnCount(); c++) {
+            if (c != data.classIndex() && !frame.isNominal(c)) {
+                features[count++] = c;
+            }
+        }
+        features = Arrays.copyOf(features, count);
+        FeatureSelector.Selection selection = new FeatureSelector(threshold).select(frame, features, data.classIndex());
+        for (String dropped : selection.dropped()) {
+            System.out.println("Dropped redundant feature: " + dropped);
+        }
+        boolean[] keep = new boolean[frame.columnCount()];
+        Arrays.fill(keep, true);
+        for (int feature : features) {
+            keep[feature] = false;
+        }
+        for (int kept : selection.kept()) {
+            keep[kept] = true;
+        }
+        Instances selected = new Instances(data);
+        // deletes from the last attribute, so the indexes of the others don't move.
+        for (int a = keep.length - 1; a >= 0; a--) {
+            if (!keep[a]) {
+                selected.deleteAttributeAt(a);
+            }
+        }
+        return selected;
+    }
+
+    // Cross validates and fits the built-in RidgeRegression on every other numeric column of a file, and prints the
+    // results. The rows are read once for all of the folds.
+    public static void runNative(String filePath, String target) throws IOException {
+        runNative(filePath, target, 0, null);
+    }
+
+    // Same as runNative, but drops the redundant features first when the threshold is above 0, and the printed results
+    // are read from the cache (when it isn't null) if the same file was already cross validated with the same settings.
+    public static void runNative(String filePath, String target, double selectThreshold, ResultCache cache)
+            throws IOException {
+        if (cache != null) {
+            System.out.print(cache.getOrCompute(cache.key("ridge-regression").file(Paths.get(filePath))
+                            .param("target", target).param("ridge", RidgeRegression.DEFAULT_RIDGE)
+                            .param("folds", FOLDS).param("seed", SEED).param("select", selectThreshold),
+                    ResultCache.TEXT, () -> nativeReport(filePath, target, selectThreshold)));
+            return;
+        }
+        System.out.print(nativeReport(filePath, target, selectThreshold));
+    }
+
+    // Returns the printed results of runNative.
+    private static String nativeReport(String filePath, String target, double selectThreshold) throws IOException {
+        DataFrame frame = InstancesConverter.loadCachedFrame(filePath);
+        int targetColumn = frame.columnIndex(target);
+        if (targetColumn < 0) {
+            throw new IllegalArgumentException("No column named " + target);
+        }
+        // uses every numeric column except the target as a feature.
+        int[] features = new int[frame.columnCount()];
+        int count = 0;
+        for (int c = 0; c < frame.columnCount(); c++) {
+            if (c != targetColumn && !frame.isNominal(c)) {
+                features[count++] = c;
+            }
+        }
+        features = Arrays.copyOf(features, count);
+        StringBuilder report = new StringBuilder();
+        String lineSeparator = System.lineSeparator();
+        if (selectThreshold > 0) {
+            FeatureSelector.Selection selection = new FeatureSelector(selectThreshold).select(frame, features, targetColumn);
+            for (String dropped : selection.dropped()) {
+                report.append("Dropped redundant feature: ").append(dropped).append(lineSeparator);
+            }
+            features = selection.kept();
+        }
+
+        RidgeRegression regression = new RidgeRegression(RidgeRegression.DEFAULT_RIDGE);
+        // Performs a 10 fold cross validation, with the same folds as Weka's for seed=1.
+        return report + "=== Summary ===" + lineSeparator
+                + regression.crossValidate(frame, features, targetColumn, FOLDS, SEED) + lineSeparator
+                + "=== Linear Regression Model ===" + lineSeparator
+                + regression.fit(frame, features, targetColumn) + lineSeparator;
+    }
+
+    // Creates the linear regression model used by this class, with a small value for Ridge regularization.
+    public static LinearRegression createModel() {
+        LinearRegression linear = new LinearRegression();
+        linear.setRidge(RIDGE);
+        return linear;
+    }
+
+    // Cross validates a new model on a dataset (whose class index is already set), and returns the evaluation with all
+    // of the metrics. The folds are trained in parallel on the common fork join pool, with the same result as
+    // Evaluation.crossValidateModel.
+    public static Evaluation crossValidate(Instances data, int folds, long seed) throws Exception {
+        return crossValidate(data, folds, seed, ForkJoinPool.commonPool());
+    }
+
+    // Cross validates a new model on a dataset, training the folds on the given executor.
+    public static Evaluation crossValidate(Instances data, int folds, long seed, Executor executor) throws Exception {
+        return new CrossValidationRunner(executor).crossValidate(createModel(), data, folds, new Random(seed));
+    }
 }
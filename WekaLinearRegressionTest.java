@@ -30,11 +30,19 @@ public class WekaLinearRegressionTest {
             System.out.println("Root Relative Squared Error: " + eval.rootRelativeSquaredError() + " %");
 
             System.out.println("\n=== Predictions on Test Set ===");
-            for (int i = 0; i < testData.numInstances(); i++) {
-                double actual = testData.instance(i).classValue();
-                double predicted = linear.classifyInstance(testData.instance(i));
-                System.out.println("Instance " + (i + 1) + ": Actual = " + actual + ", Predicted = " + predicted);
+            // Exports the coefficients into a LinearModel, and scores the whole test set as one batch of columns,
+            // instead of calling classifyInstance on every Instance.
+            LinearModel model = LinearModel.fromWeka(linear, trainData);
+            DataFrame testFrame = InstancesConverter.toFrame(testData);
+            double[] predictions = model.predict(testFrame);
+            double[] actual = testFrame.numericColumn(testFrame.columnIndex(model.targetName()));
+            // prints all of the lines at once.
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < predictions.length; i++) {
+                lines.append("Instance ").append(i + 1).append(": Actual = ").append(actual[i])
+                        .append(", Predicted = ").append(predictions[i]).append('\n');
             }
+            System.out.print(lines);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,425 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+// Reads the first sheet of an XLSX workbook (like GLOBAL_DATAFLOW_1995-2023.xlsx) without exporting it to CSV first.
+// An XLSX file is a zip of XML files: the workbook lists the sheets, its relationships give the file of each sheet, and
+// the text of the cells is kept once in the shared strings, which the cells refer to by index. The sheet XML is read as
+// a stream with StAX, one cell at a time, so only the shared strings and the current row are in memory (or the current
+// chunk of rows, for forEachChunk), however many rows the sheet has.
+// The first row is the header. Text cells go to nominal columns as they are, numbers are parsed straight into numeric
+// columns, and text in a numeric column (like "-") is missing, in the same way as ChunkedCSVParser treats a CSV file.
+// The cells and rows are placed by their references (a sheet leaves out the empty ones), so a blank row between two rows
+// is an empty row, like a blank row that the sheet does write; blank rows above the header are skipped.
+public class XlsxReader implements Closeable {
+
+    // Default number of rows in each chunk of forEachChunk.
+    public static final int DEFAULT_CHUNK_ROWS = 1 << 16;
+
+    private static final String MAIN = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+    private static final String RELATIONSHIPS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private final ZipFile zip;
+    // Zip entry of the sheet that is read.
+    private final String sheetEntry;
+    // Text of the shared strings, by index.
+    private final List<String> sharedStrings = new ArrayList<>();
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    // Opens a workbook, to read its first sheet.
+    public XlsxReader(Path path) throws IOException {
+        this(path, null);
+    }
+
+    // Opens a workbook, to read the sheet with the given name (the first sheet when the name is null).
+    public XlsxReader(Path path, String sheetName) throws IOException {
+        // the workbook doesn't need DTDs or external entities, so they're turned off.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        zip = new ZipFile(path.toFile());
+        try {
+            String relationshipId = sheetRelationship(sheetName);
+            sheetEntry = target(relationshipId, null);
+            String sharedStringsEntry = target(null, "/sharedStrings");
+            if (sharedStringsEntry != null && zip.getEntry(sharedStringsEntry) != null) {
+                readSharedStrings(sharedStringsEntry);
+            }
+        } catch (XMLStreamException | IOException | RuntimeException e) {
+            zip.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Could not read " + path, e);
+        }
+    }
+
+    // Checks if a file is an XLSX workbook, from its name.
+    public static boolean isXlsx(String path) {
+        return path.toLowerCase(Locale.ROOT).endsWith(".xlsx");
+    }
+
+    // Reads the first sheet of a workbook into a DataFrame. There is no ColumnarCache for a workbook: the cache would be
+    // about as big as the (compressed) workbook, doubling its footprint on disk, and the sheet streams fast enough.
+    public static DataFrame load(Path path, Set<String> nominalColumns) throws IOException {
+        try (XlsxReader reader = new XlsxReader(path)) {
+            return reader.read(nominalColumns);
+        }
+    }
+
+    // Reads the first sheet of a workbook into a DataFrame whose first column (the country) is nominal, like the
+    // loadFrame of the CSV tools.
+    public static DataFrame load(Path path) throws IOException {
+        String[] headers;
+        try (XlsxReader reader = new XlsxReader(path)) {
+            headers = reader.readHeader();
+        }
+        return load(path, headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0]));
+    }
+
+    // Reads all of the rows of the first sheet as text, header included, like CSVToARFFConverter.loadData reads a CSV file.
+    public static List<String[]> readRows(Path path) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (XlsxReader reader = new XlsxReader(path)) {
+            reader.forEachRow(rows::add);
+        }
+        return rows;
+    }
+
+    // Receives the rows of a sheet.
+    public interface RowHandler {
+        void row(String[] fields) throws IOException;
+    }
+
+    // Hands every row of the sheet (header included) to the handler as text fields, one per column. Empty cells are empty
+    // strings, and numbers are written like DataFrame.formatNumber (2018, 19.4).
+    public void forEachRow(RowHandler handler) throws IOException {
+        List<String> row = new ArrayList<>();
+        parse(new CellHandler() {
+            @Override
+            public void cell(int column, String text, boolean number) {
+                while (row.size() <= column) {
+                    row.add("");
+                }
+                row.set(column, number ? DataFrame.formatNumber(Double.parseDouble(text)) : text);
+            }
+
+            @Override
+            public void endRow() throws IOException {
+                handler.row(row.toArray(new String[0]));
+                row.clear();
+            }
+        });
+    }
+
+    // Reads the column names (the first row).
+    public String[] readHeader() throws IOException {
+        String[][] header = new String[1][];
+        try {
+            forEachRow(fields -> {
+                header[0] = fields;
+                // nothing else is needed, so the rest of the sheet isn't read.
+                throw new StopReading();
+            });
+        } catch (StopReading e) {
+            // the header was read.
+        }
+        return header[0] == null ? new String[0] : header[0];
+    }
+
+    // Reads the sheet into a DataFrame. The columns listed in nominalColumns are nominal, and all of the others are numeric.
+    public DataFrame read(Set<String> nominalColumns) throws IOException {
+        DataFrame[] frame = new DataFrame[1];
+        forEachChunk(nominalColumns, Integer.MAX_VALUE, chunk -> frame[0] = chunk);
+        // a sheet without a header has no columns.
+        return frame[0] != null ? frame[0] : DataFrame.builder(new String[0], new boolean[0]).build();
+    }
+
+    // Reads the sheet into DataFrames of DEFAULT_CHUNK_ROWS rows (see below).
+    public void forEachChunk(Set<String> nominalColumns, Consumer<DataFrame> consumer) throws IOException {
+        forEachChunk(nominalColumns, DEFAULT_CHUNK_ROWS, consumer);
+    }
+
+    // Reads the sheet into DataFrames of at most chunkRows rows each, handed to the consumer in order, so the memory use
+    // depends on the chunk size, not on the size of the sheet. The columns listed in nominalColumns are nominal.
+    // A sheet with only a header gives one empty chunk.
+    public void forEachChunk(Set<String> nominalColumns, int chunkRows, Consumer<DataFrame> consumer) throws IOException {
+        if (chunkRows <= 0) {
+            throw new IllegalArgumentException("Chunk rows must be positive: " + chunkRows);
+        }
+        parse(new CellHandler() {
+            // the column names, until the header row ends.
+            private final List<String> header = new ArrayList<>();
+            private String[] names;
+            private boolean[] nominal;
+            private DataFrame.Builder builder;
+            private boolean emitted;
+
+            @Override
+            public void cell(int column, String text, boolean number) {
+                if (names == null) {
+                    while (header.size() <= column) {
+                        header.add("");
+                    }
+                    header.set(column, number ? DataFrame.formatNumber(Double.parseDouble(text)) : text);
+                } else if (column < names.length) {
+                    if (number && !nominal[column]) {
+                        builder.setNumeric(column, Double.parseDouble(text));
+                    } else if (number) {
+                        builder.setNominal(column, DataFrame.formatNumber(Double.parseDouble(text)));
+                    } else {
+                        builder.setText(column, text);
+                    }
+                }
+            }
+
+            @Override
+            public void endRow() {
+                if (names == null) {
+                    names = header.toArray(new String[0]);
+                    nominal = new boolean[names.length];
+                    for (int c = 0; c < names.length; c++) {
+                        nominal[c] = nominalColumns.contains(names[c]);
+                    }
+                    builder = DataFrame.builder(names, nominal);
+                    return;
+                }
+                builder.endRow();
+                if (builder.rowCount() == chunkRows) {
+                    consumer.accept(builder.build());
+                    emitted = true;
+                    builder = DataFrame.builder(names, nominal);
+                }
+            }
+
+            @Override
+            public void end() {
+                if (builder != null && (builder.rowCount() > 0 || !emitted)) {
+                    consumer.accept(builder.build());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        zip.close();
+    }
+
+    // Receives the cells of the sheet, row by row.
+    private interface CellHandler {
+        // A cell with a value: its column (from 0), its text, and whether it's a number.
+        void cell(int column, String text, boolean number) throws IOException;
+
+        // The end of a row.
+        void endRow() throws IOException;
+
+        // The end of the sheet.
+        default void end() throws IOException {
+        }
+    }
+
+    // Thrown by a handler to stop reading the sheet.
+    private static final class StopReading extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        StopReading() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Streams the cells of the sheet to a handler.
+    private void parse(CellHandler handler) throws IOException {
+        try (InputStream in = zip.getInputStream(entry(sheetEntry))) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                int column = -1;
+                // number of the last row (from 1), 0 before the first one.
+                int lastRow = 0;
+                String type = null;
+                String value = null;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals("row")) {
+                            column = -1;
+                            // the number of the row (r="12") gives the blank rows before it; rows without one follow the
+                            // previous row.
+                            String number = xml.getAttributeValue(null, "r");
+                            int row = number == null ? lastRow + 1 : Integer.parseInt(number.trim());
+                            if (lastRow > 0) {
+                                for (int blank = lastRow + 1; blank < row; blank++) {
+                                    handler.endRow();
+                                }
+                            }
+                            lastRow = Math.max(row, lastRow + 1);
+                        } else if (name.equals("c")) {
+                            // the reference of the cell (e.g. C12) gives its column; cells without one follow the previous cell.
+                            String reference = xml.getAttributeValue(null, "r");
+                            column = reference == null ? column + 1 : columnIndex(reference);
+                            type = xml.getAttributeValue(null, "t");
+                            value = null;
+                        } else if (name.equals("v")) {
+                            value = xml.getElementText();
+                        } else if (name.equals("is")) {
+                            // an inline string.
+                            value = readText(xml, "is");
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals("c")) {
+                            if (value != null && !value.isEmpty()) {
+                                cell(handler, column, type, value);
+                            }
+                        } else if (name.equals("row")) {
+                            handler.endRow();
+                        }
+                    }
+                }
+                handler.end();
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            // a malformed sheet, or a malformed number in it.
+            throw new IOException("Could not read the sheet " + sheetEntry, e);
+        }
+    }
+
+    // Hands a cell to the handler, according to its type.
+    private void cell(CellHandler handler, int column, String type, String value) throws IOException {
+        if (type == null || type.equals("n")) {
+            handler.cell(column, value, true);
+        } else if (type.equals("s")) {
+            handler.cell(column, sharedStrings.get(Integer.parseInt(value.trim())), false);
+        } else if (type.equals("b")) {
+            handler.cell(column, value.equals("1") ? "TRUE" : "FALSE", false);
+        } else {
+            // formula results (str), inline strings and errors (#N/A) are text.
+            handler.cell(column, value, false);
+        }
+    }
+
+    // Returns the column of a cell reference: A is 0, B is 1, ..., Z is 25, AA is 26, ...
+    static int columnIndex(String reference) {
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    // Reads the text of an element that holds a string: the <t> elements inside it, without the phonetic runs (<rPh>).
+    // The reader is left on the end of the element.
+    private static String readText(XMLStreamReader xml, String element) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+        int phonetic = 0;
+        while (xml.hasNext()) {
+            int event = xml.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = xml.getLocalName();
+                if (name.equals("rPh")) {
+                    phonetic++;
+                } else if (name.equals("t") && phonetic == 0) {
+                    text.append(xml.getElementText());
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String name = xml.getLocalName();
+                if (name.equals("rPh")) {
+                    phonetic--;
+                } else if (name.equals(element)) {
+                    break;
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private void readSharedStrings(String entry) throws IOException, XMLStreamException {
+        try (InputStream in = zip.getInputStream(entry(entry))) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("si")) {
+                        sharedStrings.add(readText(xml, "si"));
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        }
+    }
+
+    // Returns the relationship id of the sheet with the given name (or of the first sheet) in the workbook.
+    private String sheetRelationship(String sheetName) throws IOException, XMLStreamException {
+        List<String> names = new ArrayList<>();
+        try (InputStream in = zip.getInputStream(entry("xl/workbook.xml"))) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("sheet")
+                            && MAIN.equals(xml.getNamespaceURI())) {
+                        String name = xml.getAttributeValue(null, "name");
+                        if (sheetName == null || sheetName.equals(name)) {
+                            return xml.getAttributeValue(RELATIONSHIPS, "id");
+                        }
+                        names.add(name);
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        }
+        throw new IOException(sheetName == null ? "The workbook has no sheets"
+                : "No sheet named " + sheetName + " (the sheets are " + names + ")");
+    }
+
+    // Returns the zip entry of a relationship of the workbook, found by its id or by the end of its type, or null if
+    // there is none.
+    private String target(String id, String typeSuffix) throws IOException, XMLStreamException {
+        try (InputStream in = zip.getInputStream(entry("xl/_rels/workbook.xml.rels"))) {
+            XMLStreamReader xml = factory.createXMLStreamReader(in);
+            try {
+                while (xml.hasNext()) {
+                    if (xml.next() == XMLStreamConstants.START_ELEMENT && xml.getLocalName().equals("Relationship")) {
+                        String type = xml.getAttributeValue(null, "Type");
+                        if ((id != null && id.equals(xml.getAttributeValue(null, "Id")))
+                                || (typeSuffix != null && type != null && type.endsWith(typeSuffix))) {
+                            // targets are relative to the xl directory, unless they start with a /.
+                            String target = xml.getAttributeValue(null, "Target");
+                            return target.startsWith("/") ? target.substring(1) : "xl/" + target;
+                        }
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        }
+        if (id != null) {
+            throw new IOException("The workbook has no relationship " + id);
+        }
+        return null;
+    }
+
+    private ZipEntry entry(String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            throw new IOException("Not an XLSX workbook: " + name + " is missing");
+        }
+        return entry;
+    }
+}
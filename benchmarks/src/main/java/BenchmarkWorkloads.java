@@ -0,0 +1,112 @@
+import benchmarks.Workloads;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+// Implements the Workloads of the benchmarks by calling the project's classes, which are in the default package too.
+public class BenchmarkWorkloads implements Workloads {
+
+    @Override
+    public List<String[]> loadData(String csvFilePath) throws IOException {
+        return CSVToARFFConverter.loadData(csvFilePath);
+    }
+
+    @Override
+    public void writeARFF(List<String[]> data, String arffFilePath) throws IOException {
+        CSVToARFFConverter.writeARFF(data, arffFilePath);
+    }
+
+    @Override
+    public double[][] loadNumericData(String filePath, String[] labels) throws IOException {
+        // parses the file like loadFrame does, but without its ColumnarCache, so every call parses the CSV.
+        Path path = Paths.get(filePath);
+        ChunkedCSVParser parser = new ChunkedCSVParser();
+        String[] headers = parser.readHeader(path);
+        DataFrame frame = parser.parse(path, headers.length == 0 ? Collections.emptySet() : Collections.singleton(headers[0]));
+        return PearsonCorrelationMatrixCalculator.completeRows(frame, labels);
+    }
+
+    @Override
+    public double[][] loadCachedNumericData(String filePath, String[] labels) throws IOException {
+        return PearsonCorrelationMatrixCalculator.loadData(filePath, labels);
+    }
+
+    @Override
+    public double[][] computeCorrelationMatrix(double[][] data) {
+        return PearsonCorrelationMatrixCalculator.computeCorrelationMatrix(data);
+    }
+
+    @Override
+    public double[][] blockedCorrelationMatrix(double[][] columns, int rows) {
+        return FeatureSelector.correlationMatrix(columns, rows, true);
+    }
+
+    @Override
+    public double[][] accumulatedCorrelationMatrix(double[][] columns, int rows) {
+        CorrelationAccumulator accumulator = new CorrelationAccumulator(columns.length);
+        double[] row = new double[columns.length];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < columns.length; i++) {
+                row[i] = columns[i][r];
+            }
+            accumulator.addPairwise(row);
+        }
+        return accumulator.correlationMatrix();
+    }
+
+    @Override
+    public int groupBy(int countries, int[] country, double[] year, double[] value, String keys, String aggregates) {
+        NominalDictionary dictionary = new NominalDictionary();
+        for (int c = 0; c < countries; c++) {
+            dictionary.encode("Country " + c);
+        }
+        int rows = country.length;
+        long[] noneMissing = new long[(rows + 63) / 64];
+        long[] valueMissing = new long[noneMissing.length];
+        for (int r = 0; r < rows; r++) {
+            if (Double.isNaN(value[r])) {
+                valueMissing[r >>> 6] |= 1L << r;
+            }
+        }
+        DataFrame frame = DataFrame.fromColumns(new String[]{"Country", "Year", "Value"}, new boolean[]{true, false, false},
+                new double[][]{null, year, value}, new int[][]{country, null, null},
+                new NominalDictionary[]{dictionary, null, null}, new long[][]{noneMissing, noneMissing, valueMissing}, rows);
+        return new GroupBy(Arrays.asList(keys.split(",")), GroupBy.Aggregate.parseList(aggregates)).apply(frame).rowCount();
+    }
+
+    @Override
+    public List<Map<String, String>> readCsv(String filePath) throws IOException {
+        return SimulatedAnnealingMerge.readCsv(filePath);
+    }
+
+    @Override
+    public List<Map<String, String>> outerJoin(List<Map<String, String>> data1, List<Map<String, String>> data2, Set<String> headers) {
+        return SimulatedAnnealingMerge.outerJoin(data1, data2, headers);
+    }
+
+    @Override
+    public List<Map<String, String>> simulatedAnnealingMerge(List<Map<String, String>> data1, List<Map<String, String>> data2) {
+        return SimulatedAnnealingMerge.simulatedAnnealingMerge(data1, data2);
+    }
+
+    @Override
+    public Evaluation crossValidate(Instances data, int folds, long seed) throws Exception {
+        return WekaLinearRegression.crossValidate(data, folds, seed);
+    }
+
+    @Override
+    public Evaluation crossValidateSerial(Instances data, int folds, long seed) throws Exception {
+        Evaluation evaluation = new Evaluation(data);
+        evaluation.crossValidateModel(WekaLinearRegression.createModel(), data, folds, new Random(seed));
+        return evaluation;
+    }
+}
@@ -0,0 +1,64 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Loading a CSV file into rows and writing the rows as an ARFF file (CSVToARFFConverter.loadData and writeARFF).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class ArffConversionBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Workloads workloads;
+    private DataFiles files;
+    private String csv;
+    private String arff;
+    // Rows of the CSV file, loaded once for the writeARFF benchmark.
+    private List<String[]> data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workloads = Workloads.load();
+        files = new DataFiles();
+        csv = files.file("mortality.csv").toString();
+        arff = files.file("mortality.arff").toString();
+        SyntheticData.writeMortalityCsv(files.file("mortality.csv"), rows, 1);
+        data = workloads.loadData(csv);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        files.delete();
+    }
+
+    @Benchmark
+    public List<String[]> loadData() throws IOException {
+        return workloads.loadData(csv);
+    }
+
+    @Benchmark
+    public void writeARFF() throws IOException {
+        workloads.writeARFF(data, arff);
+    }
+}
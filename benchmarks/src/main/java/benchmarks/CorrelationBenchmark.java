@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Loading the numeric columns of a CSV file and computing their Pearson correlation matrix
+// (PearsonCorrelationMatrixCalculator.loadData and computeCorrelationMatrix), separately and together.
+// loadData and loadAndCorrelate parse the CSV file on every call; loadCachedData measures the load from the ColumnarCache
+// next to the file (written by the first call), which is what the repeated runs of the pipeline do.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class CorrelationBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    private Workloads workloads;
+    private DataFiles files;
+    private String csv;
+    // Complete rows of the CSV file, loaded once for the computeCorrelationMatrix benchmark.
+    private double[][] data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workloads = Workloads.load();
+        files = new DataFiles();
+        csv = files.file("mortality.csv").toString();
+        SyntheticData.writeMortalityCsv(files.file("mortality.csv"), rows, 1);
+        data = workloads.loadNumericData(csv, SyntheticData.MORTALITY_LABELS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        files.delete();
+    }
+
+    @Benchmark
+    public double[][] loadData() throws IOException {
+        return workloads.loadNumericData(csv, SyntheticData.MORTALITY_LABELS);
+    }
+
+    @Benchmark
+    public double[][] loadCachedData() throws IOException {
+        return workloads.loadCachedNumericData(csv, SyntheticData.MORTALITY_LABELS);
+    }
+
+    @Benchmark
+    public double[][] computeCorrelationMatrix() {
+        return workloads.computeCorrelationMatrix(data);
+    }
+
+    @Benchmark
+    public double[][] loadAndCorrelate() throws IOException {
+        return workloads.computeCorrelationMatrix(workloads.loadNumericData(csv, SyntheticData.MORTALITY_LABELS));
+    }
+}
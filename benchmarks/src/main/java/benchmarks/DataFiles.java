@@ -0,0 +1,36 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+// Temporary directory for the files of one benchmark trial, deleted with everything in it when the trial ends.
+final class DataFiles {
+
+    private final Path directory;
+
+    DataFiles() throws IOException {
+        directory = Files.createTempDirectory("jmh-datasets");
+    }
+
+    // Returns the path of a file in the directory.
+    Path file(String name) {
+        return directory.resolve(name);
+    }
+
+    // Deletes the directory and its files.
+    void delete() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Per country and per country and year rollups of a long panel (200 countries, rows sorted by country like the merged
+// dataset, 10% of the values missing), with and without a percentile.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class GroupByBenchmark {
+
+    private static final int COUNTRIES = 200;
+
+    @Param({"1000000", "20000000"})
+    public int rows;
+
+    private Workloads workloads;
+    private int[] country;
+    private double[] year;
+    private double[] value;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workloads = Workloads.load();
+        Random random = new Random(1);
+        country = new int[rows];
+        year = new double[rows];
+        value = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            country[r] = (int) ((long) r * COUNTRIES / rows);
+            year[r] = 1990 + r % 30;
+            value[r] = random.nextDouble() < 0.1 ? Double.NaN : random.nextDouble() * 100;
+        }
+    }
+
+    @Benchmark
+    public int byCountry() {
+        return workloads.groupBy(COUNTRIES, country, year, value, "Country", "count,sum(Value),mean(Value),min(Value),max(Value)");
+    }
+
+    @Benchmark
+    public int byCountryAndYear() {
+        return workloads.groupBy(COUNTRIES, country, year, value, "Country,Year", "count,mean(Value)");
+    }
+
+    @Benchmark
+    public int byCountryWithPercentiles() {
+        return workloads.groupBy(COUNTRIES, country, year, value, "Country", "mean(Value),p50(Value),p90(Value)");
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Joining two datasets and merging them with simulated annealing (SimulatedAnnealingMerge.outerJoin and
+// simulatedAnnealingMerge). Half of the rows of each dataset match a row of the other one.
+// The rows are hash maps, which take around 1 KB each, so the largest size is left out by default; it can be run with
+// -p rows=10000000 and a larger heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MergeBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private Workloads workloads;
+    private List<Map<String, String>> data1;
+    private List<Map<String, String>> data2;
+    private Set<String> headers;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workloads = Workloads.load();
+        DataFiles files = new DataFiles();
+        try {
+            SyntheticData.writeMortalityCsv(files.file("mortality.csv"), rows, 1);
+            SyntheticData.writeNutritionCsv(files.file("nutrition.csv"), rows, 2);
+            data1 = workloads.readCsv(files.file("mortality.csv").toString());
+            data2 = workloads.readCsv(files.file("nutrition.csv").toString());
+        } finally {
+            files.delete();
+        }
+        // the same headers as SimulatedAnnealingMerge uses.
+        headers = new HashSet<>(data1.get(0).keySet());
+        headers.addAll(data2.get(0).keySet());
+    }
+
+    @Benchmark
+    public List<Map<String, String>> outerJoin() {
+        return workloads.outerJoin(data1, data2, headers);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> simulatedAnnealingMerge() {
+        return workloads.simulatedAnnealingMerge(data1, data2);
+    }
+}
@@ -0,0 +1,53 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+// The 10 fold cross validation of WekaLinearRegression, on the columns of Imputed_Mortality_and_Nutrition_Data.csv, with
+// the folds trained in parallel (crossValidate) and one after another (crossValidateSerial).
+// Weka copies the dataset for every fold, so the largest size is left out by default; it can be run with
+// -p rows=10000000 and a larger heap.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RegressionBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int rows;
+
+    private Workloads workloads;
+    private Instances data;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        workloads = Workloads.load();
+        data = SyntheticData.mortalityInstances(rows, 1);
+    }
+
+    @Benchmark
+    public Evaluation crossValidate() throws Exception {
+        return workloads.crossValidate(data, 10, 1);
+    }
+
+    @Benchmark
+    public Evaluation crossValidateSerial() throws Exception {
+        return workloads.crossValidateSerial(data, 10, 1);
+    }
+}
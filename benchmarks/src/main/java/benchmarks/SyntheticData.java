@@ -0,0 +1,111 @@
+package benchmarks;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+// Generates datasets of any size with the schema of Imputed_Mortality_and_Nutrition_Data.csv: a Country, a Year
+// (1995 to 2023, so every Country and Year pair is unique) and four numeric columns, a few percent of them empty.
+// The values come from a SplittableRandom with a fixed seed, so every run benchmarks the same data.
+public final class SyntheticData {
+
+    // Numeric columns of Imputed_Mortality_and_Nutrition_Data.csv.
+    public static final String[] MORTALITY_LABELS = {
+            "Under-five mortality rate (per 1000 live births) (SDG 3.2.1)", "Numberofdeathsamongchildrenunder-five",
+            "Early initiation of breastfeeding (%)", "Infants exclusively breastfed for the first six months of life (%)"
+    };
+    // Numeric columns of the second dataset used by the merge benchmarks.
+    public static final String[] NUTRITION_LABELS = {
+            "BMI-for-age <-3 SD", "BMI-for-age >+3 SD", "Height-for-age <-3 SD (Severe Stunting)", "Weight-for-age (>+3 SD)"
+    };
+
+    private static final int FIRST_YEAR = 1995;
+    private static final int YEARS = 29;
+    // Share of the numeric cells that are left empty.
+    private static final double MISSING_RATE = 0.03;
+
+    private SyntheticData() {
+    }
+
+    // Writes a CSV file with the columns of Imputed_Mortality_and_Nutrition_Data.csv.
+    public static void writeMortalityCsv(Path file, int rows, long seed) throws IOException {
+        writeCsv(file, MORTALITY_LABELS, rows, 0, seed, (random, column) -> {
+            switch (column) {
+                case 0:
+                    return 2 + random.nextDouble() * 200;
+                case 1:
+                    return Math.floor(random.nextDouble() * 150_000);
+                default:
+                    return random.nextDouble() * 100;
+            }
+        });
+    }
+
+    // Writes a CSV file with other nutrition columns, whose keys start halfway through the keys of writeMortalityCsv, so
+    // half of the rows of each file match a row of the other one.
+    public static void writeNutritionCsv(Path file, int rows, long seed) throws IOException {
+        writeCsv(file, NUTRITION_LABELS, rows, rows / 2, seed, (random, column) -> random.nextDouble() * 40);
+    }
+
+    // Creates the Instances used by the regression benchmark: the Year and the four columns of
+    // Imputed_Mortality_and_Nutrition_Data.csv, where the mortality rate (the class) depends linearly on the others.
+    public static Instances mortalityInstances(int rows, long seed) {
+        ArrayList<Attribute> attributes = new ArrayList<>();
+        attributes.add(new Attribute("Year"));
+        for (String label : MORTALITY_LABELS) {
+            attributes.add(new Attribute(label));
+        }
+        Instances data = new Instances("synthetic_mortality", attributes, rows);
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < rows; i++) {
+            double year = FIRST_YEAR + i % YEARS;
+            double deaths = Math.floor(random.nextDouble() * 150_000);
+            double earlyBreastfeeding = random.nextDouble() * 100;
+            double exclusiveBreastfeeding = random.nextDouble() * 100;
+            double mortality = 400 - 0.15 * (year - FIRST_YEAR) + 0.0004 * deaths - 0.8 * earlyBreastfeeding
+                    - 0.5 * exclusiveBreastfeeding + random.nextGaussian() * 10;
+            data.add(new DenseInstance(1.0, new double[]{year, mortality, deaths, earlyBreastfeeding, exclusiveBreastfeeding}));
+        }
+        data.setClassIndex(1);
+        return data;
+    }
+
+    // Gives the value of a numeric column.
+    private interface ValueGenerator {
+        double next(SplittableRandom random, int column);
+    }
+
+    // Writes a CSV file with a Country, a Year and the given numeric columns. The keys are numbered from firstKey.
+    private static void writeCsv(Path file, String[] labels, int rows, int firstKey, long seed, ValueGenerator values)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            StringBuilder line = new StringBuilder("Country,Year");
+            for (String label : labels) {
+                line.append(',').append(label);
+            }
+            writer.write(line.append('\n').toString());
+            for (int i = 0; i < rows; i++) {
+                int key = firstKey + i;
+                line.setLength(0);
+                line.append("Country ").append(key / YEARS).append(',').append(FIRST_YEAR + key % YEARS);
+                for (int c = 0; c < labels.length; c++) {
+                    line.append(',');
+                    if (random.nextDouble() >= MISSING_RATE) {
+                        // two decimals, like the real data.
+                        line.append(Math.round(values.next(random, c) * 100) / 100.0);
+                    }
+                }
+                writer.write(line.append('\n').toString());
+            }
+        }
+    }
+}
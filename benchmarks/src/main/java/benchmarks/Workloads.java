@@ -0,0 +1,64 @@
+package benchmarks;
+
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// The operations of the project that are benchmarked.
+// The project's classes are in the default package, which can't be imported from a named package (and JMH doesn't allow
+// benchmarks in the default package), so the benchmarks call them through this interface. It is implemented by
+// BenchmarkWorkloads, in the default package, which is loaded once by name.
+public interface Workloads {
+
+    // CSVToARFFConverter.loadData
+    List<String[]> loadData(String csvFilePath) throws IOException;
+
+    // CSVToARFFConverter.writeARFF
+    void writeARFF(List<String[]> data, String arffFilePath) throws IOException;
+
+    // PearsonCorrelationMatrixCalculator.loadData, parsing the CSV file on every call (without its ColumnarCache)
+    double[][] loadNumericData(String filePath, String[] labels) throws IOException;
+
+    // PearsonCorrelationMatrixCalculator.loadData, through the ColumnarCache of the file
+    double[][] loadCachedNumericData(String filePath, String[] labels) throws IOException;
+
+    // PearsonCorrelationMatrixCalculator.computeCorrelationMatrix
+    double[][] computeCorrelationMatrix(double[][] data);
+
+    // FeatureSelector.correlationMatrix, pairwise (the blocked X^T X kernel)
+    double[][] blockedCorrelationMatrix(double[][] columns, int rows);
+
+    // CorrelationAccumulator.addPairwise on every row (the per pair accumulator)
+    double[][] accumulatedCorrelationMatrix(double[][] columns, int rows);
+
+    // GroupBy.apply on a Country, Year and value table (country codes 0 to countries - 1), returns the number of groups
+    int groupBy(int countries, int[] country, double[] year, double[] value, String keys, String aggregates);
+
+    // SimulatedAnnealingMerge.readCsv
+    List<Map<String, String>> readCsv(String filePath) throws IOException;
+
+    // SimulatedAnnealingMerge.outerJoin
+    List<Map<String, String>> outerJoin(List<Map<String, String>> data1, List<Map<String, String>> data2, Set<String> headers);
+
+    // SimulatedAnnealingMerge.simulatedAnnealingMerge
+    List<Map<String, String>> simulatedAnnealingMerge(List<Map<String, String>> data1, List<Map<String, String>> data2);
+
+    // WekaLinearRegression.crossValidate
+    Evaluation crossValidate(Instances data, int folds, long seed) throws Exception;
+
+    // Evaluation.crossValidateModel with the model of WekaLinearRegression (the serial cross validation)
+    Evaluation crossValidateSerial(Instances data, int folds, long seed) throws Exception;
+
+    // Loads the implementation from the default package.
+    static Workloads load() {
+        try {
+            return (Workloads) Class.forName("BenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchmarkWorkloads is not on the class path", e);
+        }
+    }
+}